@@ -1,6 +1,7 @@
 package com.labun.buildnumber;
 
 import java.io.File;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.tools.ant.Project;
@@ -16,6 +17,9 @@ public class JGitBuildNumberAntTask implements Parameters {
 
     private String namespace;
     private String dirtyValue;
+    private Boolean dirtyIgnoreUntracked;
+    private Integer dirtyCheckParallelism;
+    private String dirtyCheckPath;
     private Integer shortRevisionLength;
     private String gitDateFormat;
     private String buildDateFormat;
@@ -23,10 +27,25 @@ public class JGitBuildNumberAntTask implements Parameters {
     private String countCommitsSinceInclusive;
     private String countCommitsSinceExclusive;
     private String countCommitsInPath;
+    private String countCommitsInPaths;
+    private Boolean cacheCommitsCount;
+    private File commitsCountManifest;
     private String buildNumberFormat;
+    private Boolean useJavaScriptEngine;
+    private String requestedProperties;
     private File repositoryDirectory;
+    private String repositoryDirectories;
+    private Boolean includeSubmodules;
     private Boolean runOnlyAtExecutionRoot;
+    private Boolean parallel;
+    private Integer extractionTimeout;
+    private Boolean watchRepository;
     private Boolean skip;
+    private File metricsFile;
+    private File outputPropertiesFile;
+    private String outputJavaClass;
+    private File outputJavaDirectory;
+    private String outputVolatileProperties;
     private Boolean verbose;
 
     public void execute() throws Exception {
@@ -40,9 +59,20 @@ public class JGitBuildNumberAntTask implements Parameters {
             return;
         }
 
-        Map<String, String> properties = new BuildNumberExtractor(this, msg -> project.log(msg)).extract();
+        Logger logger = msg -> project.log(msg);
+        BatchExtraction batch;
+        Map<String, String> properties;
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(this, logger)) {
+            batch = new BatchExtraction(this, extractor, logger);
+            properties = extractor.extract();
+        }
 
-        for (Map.Entry<String, String> property : properties.entrySet())
-            project.setProperty(namespace + "." + property.getKey(), property.getValue());
+        Map<String, Map<String, String>> results = new LinkedHashMap<>();
+        results.put(namespace, properties);
+        results.putAll(batch.getResults());
+        for (Map.Entry<String, Map<String, String>> result : results.entrySet())
+            for (Map.Entry<String, String> property : result.getValue().entrySet())
+                project.setProperty(result.getKey() + "." + property.getKey(), property.getValue());
+        new OutputFiles(this, logger).write(results);
     }
 }
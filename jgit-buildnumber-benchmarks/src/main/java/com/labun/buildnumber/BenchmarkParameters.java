@@ -0,0 +1,51 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/** Plain {@link Parameters} implementation for benchmarks. */
+@Getter
+@Setter
+public class BenchmarkParameters implements Parameters {
+
+    private String namespace;
+    private String dirtyValue;
+    private Boolean dirtyIgnoreUntracked;
+    private Integer dirtyCheckParallelism;
+    private String dirtyCheckPath;
+    private Integer shortRevisionLength;
+    private String gitDateFormat;
+    private String buildDateFormat;
+    private String dateFormatTimeZone;
+    private String countCommitsSinceInclusive;
+    private String countCommitsSinceExclusive;
+    private String countCommitsInPath;
+    private String countCommitsInPaths;
+    private Boolean cacheCommitsCount;
+    private File commitsCountManifest;
+    private String buildNumberFormat;
+    private Boolean useJavaScriptEngine;
+    private String requestedProperties;
+    private File repositoryDirectory;
+    private String repositoryDirectories;
+    private Boolean includeSubmodules;
+    private Boolean runOnlyAtExecutionRoot;
+    private Boolean parallel;
+    private Integer extractionTimeout;
+    private Boolean watchRepository;
+    private Boolean skip;
+    private File metricsFile;
+    private File outputPropertiesFile;
+    private String outputJavaClass;
+    private File outputJavaDirectory;
+    private String outputVolatileProperties;
+    private Boolean verbose;
+
+    public BenchmarkParameters(File repositoryDirectory) {
+        this.repositoryDirectory = repositoryDirectory;
+        this.cacheCommitsCount = false; // measure the walk, not the cache
+        validateAndSetParameterValues();
+    }
+}
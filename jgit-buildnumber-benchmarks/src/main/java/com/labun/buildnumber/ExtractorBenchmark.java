@@ -0,0 +1,243 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of {@link BuildNumberExtractor} and its phases, against a generated repository (see {@link SyntheticRepository}).
+ *  <p>
+ *  Repository shape is configured with JMH parameters, e.g. `-p commits=10000 -p mergePercent=20 -p tags=1000 -p files=20000`.
+ *  Generated repositories are stored in directory given by system property `benchmark.repositories` (default: `target/benchmark-repositories`)
+ *  and reused by later runs. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractorBenchmark {
+
+    static final Logger NO_LOGGING = msg -> {};
+
+    @Param("1000")
+    public int commits;
+
+    @Param("10")
+    public int mergePercent;
+
+    @Param("100")
+    public int tags;
+
+    @Param("1000")
+    public int files;
+
+    private BenchmarkParameters params;
+    /** with `watchRepository` */
+    private BenchmarkParameters watchedParams;
+    /** for benchmarks of single phases */
+    private BuildNumberExtractor extractor;
+    /** SHA-1 of the first commit, for {@link #countCommitsSince()} */
+    private String rootCommit;
+
+    static File repositoriesDirectory() {
+        return new File(System.getProperty("benchmark.repositories", "target/benchmark-repositories"));
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        File repoDir = new SyntheticRepository(commits, mergePercent, tags, files).getOrCreate(repositoriesDirectory());
+        params = new BenchmarkParameters(repoDir);
+        watchedParams = new BenchmarkParameters(repoDir);
+        watchedParams.setWatchRepository(true);
+        extractor = new BuildNumberExtractor(params, NO_LOGGING);
+        try (RevWalk walk = new RevWalk(extractor.repo)) {
+            walk.sort(RevSort.REVERSE);
+            walk.markStart(walk.parseCommit(extractor.headObjectId));
+            rootCommit = walk.next().name();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        extractor.close();
+    }
+
+    /** Opens repository, reads HEAD, checks working tree (dirty). */
+    @Benchmark
+    public String constructor() throws Exception {
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, NO_LOGGING)) {
+            return extractor.getHeadSha1();
+        }
+    }
+
+    /** Complete extraction, as done by the plugins. */
+    @Benchmark
+    public Map<String, String> extract() throws Exception {
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, NO_LOGGING)) {
+            return extractor.extract();
+        }
+    }
+
+    /** Complete extraction with `watchRepository`, repository unchanged (i.e. repeated build in a long-lived process). */
+    @Benchmark
+    public Map<String, String> extractWatched() throws Exception {
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(watchedParams, NO_LOGGING)) {
+            return extractor.extract();
+        }
+    }
+
+    /** All commits, counted with the pack bitmaps (see {@link BitmapCommitsCounter}). */
+    @Benchmark
+    public int countCommits() throws Exception {
+        return countCommits(null);
+    }
+
+    /** Reference for {@link #countCommits()}: history walk. */
+    @Benchmark
+    public int countCommitsWalk() throws Exception {
+        try (RevWalk walk = new RevWalk(extractor.repo)) {
+            walk.setRetainBody(false);
+            walk.markStart(walk.parseCommit(extractor.headObjectId));
+            int res = 0;
+            for (RevCommit c : walk) res++;
+            return res;
+        }
+    }
+
+    @Benchmark
+    public int countCommitsInPath() throws Exception {
+        return countCommits("docs");
+    }
+
+    /** `countCommitsSinceInclusive` with the first commit, i.e. walk of the complete history; allocation rate with `-prof gc`. */
+    @Benchmark
+    public int countCommitsSince() throws Exception {
+        try (RevWalk walk = new RevWalk(extractor.repo)) {
+            return extractor.countCommits(walk, walk.parseCommit(extractor.headObjectId), rootCommit, null, null);
+        }
+    }
+
+    /** Paths for {@link #countCommitsInPaths()}: folders of {@link SyntheticRepository} */
+    static final List<String> PATHS = Arrays.asList("app", "docs", "app/dir0", "app/dir1", "app/dir2", "docs/dir3", "docs/dir4", "docs/dir5");
+
+    /** All {@link #PATHS} in one walk. */
+    @Benchmark
+    public Map<String, Integer> countCommitsInPaths() throws Exception {
+        return extractor.countCommitsInPaths(PATHS);
+    }
+
+    /** Reference for {@link #countCommitsInPaths()}: one walk per path. */
+    @Benchmark
+    public int countCommitsInPathsSeparately() throws Exception {
+        int res = 0;
+        for (String path : PATHS)
+            res += countCommits(path);
+        return res;
+    }
+
+    private int countCommits(String countCommitsInPath) throws Exception {
+        try (RevWalk walk = new RevWalk(extractor.repo)) {
+            return extractor.countCommits(walk, walk.parseCommit(extractor.headObjectId), null, null, countCommitsInPath);
+        }
+    }
+
+    /** Reference for {@link #readTag()}: peels all tags. */
+    @Benchmark
+    public Map<String, SortedSet<String>> loadTagsMap() {
+        return extractor.loadTagsMap();
+    }
+
+    /** Tag of HEAD, looked up in {@link TagIndex} (built once, then loaded from file). */
+    @Benchmark
+    public String readTag() throws Exception {
+        return TagIndex.open(extractor.repo, extractor.gitDir, new AtomicLong()).getTagNames(extractor.headObjectId);
+    }
+
+    /** HEAD, its branch and a peeled tag from the {@link RefSnapshot} shared in this JVM (parsed once, validated by stat calls). */
+    @Benchmark
+    public ObjectId readRefs() throws Exception {
+        RefSnapshot refs = RefSnapshot.get(extractor.gitDir);
+        return refs.readHead(extractor.gitDir).branch.isEmpty() ? null : refs.getPeeledObjectId(Constants.R_TAGS + "v1");
+    }
+
+    /** {@link #readRefs()} without cache, i.e. parse of `packed-refs` and loose refs; memory with `-prof gc`. */
+    @Benchmark
+    public ObjectId parseRefSnapshot() throws Exception {
+        RefSnapshot refs = RefSnapshot.parse(extractor.gitDir);
+        return refs.readHead(extractor.gitDir).branch.isEmpty() ? null : refs.getPeeledObjectId(Constants.R_TAGS + "v1");
+    }
+
+    /** Reference for {@link #readRefs()}: JGit with a new repository instance, as for each extraction without `watchRepository`. */
+    @Benchmark
+    public ObjectId readRefsWithJGit() throws Exception {
+        try (Repository repo = new RepositoryBuilder().setGitDir(extractor.gitDir).build()) {
+            repo.exactRef(Constants.HEAD);
+            return repo.getBranch().isEmpty() ? null : repo.peel(repo.exactRef(Constants.R_TAGS + "v1")).getPeeledObjectId();
+        }
+    }
+
+    /** Reference for {@link #describe()}: JGit `DescribeCommand`. */
+    @Benchmark
+    public String readDescribe() throws Exception {
+        return BuildNumberExtractor.readDescribe(extractor.git);
+    }
+
+    /** `describe` by {@link HistoryWalk} (tag index already loaded). */
+    @Benchmark
+    public String describe() throws Exception {
+        return extractor.readDescribe(false);
+    }
+
+    /** `describe` and `commitsCount` in a single traversal (tag index already loaded). */
+    @Benchmark
+    public String describeAndCountCommits() throws Exception {
+        return extractor.readDescribe(true);
+    }
+
+    /** Reference for {@link #describeAndCountCommits()}: two traversals. */
+    @Benchmark
+    public int readDescribeAndCountCommits() throws Exception {
+        return BuildNumberExtractor.readDescribe(extractor.git).length() + countCommits(null);
+    }
+
+    @Benchmark
+    public boolean dirtyCheck() throws Exception {
+        return new DirtyChecker(extractor.repo, false, 1).isDirty(extractor.headObjectId);
+    }
+
+    /** {@link #dirtyCheck()} with `dirtyCheckPath` (a quarter of the files). */
+    @Benchmark
+    public boolean dirtyCheckInPath() throws Exception {
+        return new DirtyChecker(extractor.repo, false, 1, "docs", new AtomicLong()).isDirty(extractor.headObjectId);
+    }
+
+    /** Reference for {@link #dirtyCheck()}: dirty flag as computed before `DirtyChecker`. */
+    @Benchmark
+    public boolean gitStatus() throws Exception {
+        return !extractor.git.status().call().isClean();
+    }
+}
@@ -0,0 +1,86 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of `buildNumberFormat` evaluation: JavaScript engine vs. built-in engine ({@link BuildNumberFormat}).
+ *  The `cold...` benchmarks measure the first evaluation in a fresh JVM (class loading, engine initialization, parsing),
+ *  which is what a build actually pays. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatBuildNumberBenchmark {
+
+    /** equivalent of the default build number */
+    static final String FORMAT = "name = (tag.length > 0) ? tag : (branch.length > 0) ? branch : \"UNNAMED\";\n"
+        + "name + \".\" + commitsCount + \".\" + shortRevision + (dirty.length > 0 ? \"-\" + dirty : \"\");";
+
+    private BuildNumberExtractor extractor;
+    private Map<String, String> properties;
+
+    @Setup
+    public void setUp() throws Exception {
+        File repoDir = new SyntheticRepository(1, 0, 0, 1).getOrCreate(ExtractorBenchmark.repositoriesDirectory());
+        BenchmarkParameters params = new BenchmarkParameters(repoDir);
+        params.setBuildNumberFormat(FORMAT);
+        extractor = new BuildNumberExtractor(params, ExtractorBenchmark.NO_LOGGING);
+
+        properties = new TreeMap<>();
+        for (String property : BuildNumberExtractor.propertyNames)
+            properties.put(property, property + "Value");
+        properties.put("tag", "");
+        properties.put("dirty", "");
+    }
+
+    @TearDown
+    public void tearDown() {
+        extractor.close();
+    }
+
+    @Benchmark
+    public String javaScriptEngine() throws Exception {
+        return extractor.formatBuildNumberWithJS(properties);
+    }
+
+    @Benchmark
+    public String builtInEngine() {
+        return BuildNumberFormat.compile(FORMAT).format(properties);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public String coldJavaScriptEngine() throws Exception {
+        return extractor.formatBuildNumberWithJS(properties);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public String coldBuiltInEngine() {
+        return BuildNumberFormat.compile(FORMAT).format(properties);
+    }
+}
@@ -0,0 +1,212 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.FileUtils;
+
+import lombok.Getter;
+
+/** Generates a Git repository with a synthetic history, for benchmarks. Generation is deterministic: the same configuration
+ *  always produces the same commits (SHA-1s included), so that results of different runs (and plugin versions) are comparable.
+ *  <p>
+ *  Layout: files are distributed over `app/` and `docs/` folders (with sub-folders), every commit changes one file,
+ *  every 4th commit in `docs/`, the others in `app/` (useful for `countCommitsInPath`). Merge commits join a side branch
+ *  of one commit, forked from the parent of the current main line commit. Tags (alternately annotated and lightweight)
+ *  are distributed evenly over the main line. At the end, HEAD (branch `master`) is checked out, the working tree is clean,
+ *  and the repository is garbage collected (all objects in one pack, packed refs).
+ *  <p>
+ *  Generated repositories are kept and reused (see {@link #getOrCreate(File)}). Run {@link #main(String[])} to generate one manually. */
+@Getter
+public class SyntheticRepository {
+
+    private static final String COMPLETE_MARKER = "jgit-buildnumber-synthetic-complete";
+
+    private final int commits;
+    /** percentage of main line commits which are merges */
+    private final int mergePercent;
+    private final int tags;
+    /** number of files in working tree */
+    private final int files;
+
+    public SyntheticRepository(int commits, int mergePercent, int tags, int files) {
+        if (commits < 1 || mergePercent < 0 || mergePercent > 100 || tags < 0 || files < 1) throw new IllegalArgumentException(
+            "invalid configuration: commits=" + commits + ", mergePercent=" + mergePercent + ", tags=" + tags + ", files=" + files);
+        this.commits = commits;
+        this.mergePercent = mergePercent;
+        this.tags = tags;
+        this.files = files;
+    }
+
+    public String getName() {
+        return "c" + commits + "-m" + mergePercent + "-t" + tags + "-f" + files;
+    }
+
+    /** @param baseDirectory directory containing generated repositories
+     *  @return working tree directory of the repository (generated if not yet existing) */
+    public File getOrCreate(File baseDirectory) throws Exception {
+        File dir = new File(baseDirectory, getName());
+        if (new File(dir, ".git/" + COMPLETE_MARKER).isFile()) return dir;
+        if (dir.exists()) FileUtils.delete(dir, FileUtils.RECURSIVE); // incomplete (generation aborted)
+        long t = System.currentTimeMillis();
+        create(dir);
+        System.out.println("generated repository " + dir + " in " + (System.currentTimeMillis() - t) + " ms");
+        return dir;
+    }
+
+    private void create(File dir) throws Exception {
+        try (Git git = Git.init().setDirectory(dir).call()) {
+            Repository repo = git.getRepository();
+            Random random = new Random(commits * 31L + mergePercent * 17L + tags * 7L + files);
+
+            List<String> paths = new ArrayList<>(files);
+            for (int i = 0; i < files; i++)
+                paths.add((i % 4 == 3 ? "docs" : "app") + "/dir" + (i / 4 % 50) + "/file" + i + ".txt");
+            paths.sort(null); // DirCache requires sorted entries
+
+            ObjectId[] blobs = new ObjectId[files];
+            int[] versions = new int[files];
+            long time = 1500000000000L; // fixed dates => reproducible SHA-1s
+            int tagInterval = tags > 0 ? Math.max(1, commits / tags) : Integer.MAX_VALUE;
+            Map<String, ObjectId> tagRefs = new LinkedHashMap<>(); // refs can only be created after objects have been flushed
+
+            try (ObjectInserter inserter = ((ObjectDirectory) repo.getObjectDatabase()).newPackInserter()) { // no loose objects
+                for (int i = 0; i < files; i++)
+                    blobs[i] = inserter.insert(Constants.OBJ_BLOB, content(paths.get(i), 0));
+
+                ObjectId head = null, headParent = null;
+                int created = 0;
+                while (created < commits) {
+                    time += 60000;
+                    ObjectId commit;
+                    boolean merge = head != null && headParent != null && created + 2 <= commits && random.nextInt(100) < mergePercent;
+                    if (merge) {
+                        ObjectId side = commit(inserter, changeFile(inserter, paths, blobs, versions, created++), time, "side " + created, headParent);
+                        commit = commit(inserter, writeTree(inserter, paths, blobs), time + 1, "merge " + created, head, side);
+                    } else {
+                        commit = commit(inserter, changeFile(inserter, paths, blobs, versions, created), time, "commit " + created,
+                            head != null ? new ObjectId[] { head } : new ObjectId[0]);
+                    }
+                    created++;
+                    headParent = head;
+                    head = commit;
+
+                    if (tagRefs.size() < tags && (created >= (tagRefs.size() + 1) * tagInterval || created == commits)) {
+                        String tagName = "v" + (tagRefs.size() + 1);
+                        ObjectId target = commit;
+                        if (tagRefs.size() % 2 == 0) {
+                            TagBuilder tag = new TagBuilder();
+                            tag.setTag(tagName);
+                            tag.setObjectId(commit, Constants.OBJ_COMMIT);
+                            tag.setTagger(new PersonIdent("Benchmark", "benchmark@example.com", time, 0));
+                            tag.setMessage(tagName);
+                            target = inserter.insert(tag);
+                        }
+                        tagRefs.put(Constants.R_TAGS + tagName, target);
+                    }
+                }
+                inserter.flush();
+
+                // atomic batch update writes `packed-refs` directly (single updates would be slow for many tags)
+                BatchRefUpdate refUpdate = repo.getRefDatabase().newBatchUpdate().setAtomic(true);
+                for (Map.Entry<String, ObjectId> tagRef : tagRefs.entrySet())
+                    refUpdate.addCommand(new ReceiveCommand(ObjectId.zeroId(), tagRef.getValue(), tagRef.getKey()));
+                refUpdate.addCommand(new ReceiveCommand(ObjectId.zeroId(), head, Constants.R_HEADS + "master"));
+                try (RevWalk walk = new RevWalk(repo)) {
+                    refUpdate.execute(walk, NullProgressMonitor.INSTANCE);
+                }
+                for (ReceiveCommand command : refUpdate.getCommands())
+                    if (command.getResult() != ReceiveCommand.Result.OK)
+                        throw new IOException("Cannot create " + command.getRefName() + ": " + command.getResult());
+            }
+
+            repo.getRefDatabase().refresh(); // refs have been written by batch update
+            git.reset().setMode(ResetType.HARD).setRef(Constants.R_HEADS + "master").call(); // writes working tree and index
+            GC gc = new GC((FileRepository) repo); // single pack with bitmap index, packed refs: as in a typical CI clone
+            gc.setPackExpire(new Date()); // the pack written by the inserter
+            gc.gc();
+            new File(repo.getDirectory(), COMPLETE_MARKER).createNewFile();
+        }
+    }
+
+    private static byte[] content(String path, int version) {
+        return (path + " version " + version + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Changes one file (in `docs/` every 4th commit, in `app/` otherwise). @return new tree */
+    private ObjectId changeFile(ObjectInserter inserter, List<String> paths, ObjectId[] blobs, int[] versions, int commitNumber)
+        throws IOException {
+        boolean docs = commitNumber % 4 == 3;
+        int index = -1;
+        for (int attempt = 0; attempt < files && index < 0; attempt++) {
+            int i = (int) ((commitNumber * 7919L + attempt) % files); // spread over all files
+            if (paths.get(i).startsWith("docs/") == docs) index = i;
+        }
+        if (index < 0) index = commitNumber % files; // no file in desired folder
+        versions[index]++;
+        blobs[index] = inserter.insert(Constants.OBJ_BLOB, content(paths.get(index), versions[index]));
+        return writeTree(inserter, paths, blobs);
+    }
+
+    private static ObjectId writeTree(ObjectInserter inserter, List<String> paths, ObjectId[] blobs) throws IOException {
+        DirCache dirCache = DirCache.newInCore();
+        DirCacheBuilder builder = dirCache.builder();
+        for (int i = 0; i < blobs.length; i++) {
+            DirCacheEntry entry = new DirCacheEntry(paths.get(i));
+            entry.setFileMode(FileMode.REGULAR_FILE);
+            entry.setObjectId(blobs[i]);
+            builder.add(entry);
+        }
+        builder.finish();
+        return dirCache.writeTree(inserter);
+    }
+
+    private static ObjectId commit(ObjectInserter inserter, ObjectId tree, long time, String message, ObjectId... parents) throws IOException {
+        PersonIdent ident = new PersonIdent("Benchmark", "benchmark@example.com", time, 0);
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(tree);
+        commit.setParentIds(parents);
+        commit.setAuthor(ident);
+        commit.setCommitter(ident);
+        commit.setMessage(message);
+        return inserter.insert(commit);
+    }
+
+    /** Generates a repository. Arguments: baseDirectory commits mergePercent tags files */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 5) {
+            System.out.println("usage: SyntheticRepository <baseDirectory> <commits> <mergePercent> <tags> <files>");
+            return;
+        }
+        SyntheticRepository repo = new SyntheticRepository(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+            Integer.parseInt(args[4]));
+        System.out.println(repo.getOrCreate(new File(args[0])));
+    }
+}
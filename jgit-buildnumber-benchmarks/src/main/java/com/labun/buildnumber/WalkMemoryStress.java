@@ -0,0 +1,106 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/** Stress test for the memory of history walks (see {@link CompactCommitWalk}) in a large generated repository (see {@link SyntheticRepository}).
+ *  <p>
+ *  Each walk runs in a child JVM with the given max. heap size (`-Xmx`), so that exceeding the bound fails the walk (`OutOfMemoryError`).
+ *  Walks: `compact` (all commits in topological order, as for `countCommitsSinceInclusive`, with {@link CompactCommitWalk}),
+ *  `revwalk` (same with `RevWalk`, as reference). The child reports the max. heap used after a GC (live objects, including JGit's pack index).
+ *  Exit code: 0 if the `compact` walk has completed within the bound, 1 otherwise.
+ *  <pre>java -cp jgit-buildnumber-benchmarks/target/benchmarks.jar com.labun.buildnumber.WalkMemoryStress target/benchmark-repositories 1000000 200</pre> */
+public class WalkMemoryStress {
+
+    /** Arguments: baseDirectory commits maxHeapMb [walks (comma separated, default: compact,revwalk)] */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--walk")) {
+            walk(new File(args[1]), args[2]);
+            return;
+        }
+        if (args.length < 3) {
+            System.out.println("usage: WalkMemoryStress <baseDirectory> <commits> <maxHeapMb> [compact,revwalk]");
+            return;
+        }
+        File repoDir = new SyntheticRepository(Integer.parseInt(args[1]), 10, 100, 4).getOrCreate(new File(args[0]));
+        String maxHeap = "-Xmx" + Integer.parseInt(args[2]) + "m";
+        List<String> walks = Arrays.asList((args.length > 3 ? args[3] : "compact,revwalk").split(","));
+
+        boolean compactPassed = false;
+        for (String walk : walks) {
+            List<String> command = new ArrayList<>(Arrays.asList(new File(System.getProperty("java.home"), "bin/java").getPath(), maxHeap,
+                "-cp", System.getProperty("java.class.path"), WalkMemoryStress.class.getName(), "--walk", repoDir.getPath(), walk));
+            int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+            System.out.println(walk + " with " + maxHeap + ": " + (exitCode == 0 ? "passed" : "FAILED (exit code " + exitCode + ")"));
+            if (walk.equals("compact")) compactPassed = exitCode == 0;
+        }
+        System.exit(compactPassed ? 0 : 1);
+    }
+
+    /** Runs in the child JVM. */
+    private static void walk(File repoDir, String walk) throws Exception {
+        Set<String> heapPools = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP) heapPools.add(pool.getName());
+        AtomicLong maxUsedAfterGc = new AtomicLong();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long used = 0;
+                for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet())
+                    if (heapPools.contains(pool.getKey())) used += pool.getValue().getUsed();
+                maxUsedAfterGc.accumulateAndGet(used, Math::max);
+            }, null, null);
+        }
+
+        long t = System.currentTimeMillis();
+        AtomicLong count = new AtomicLong();
+        try (Repository repo = new RepositoryBuilder().setWorkTree(repoDir).build()) {
+            ObjectId head = repo.resolve("HEAD");
+            if (walk.equals("compact")) {
+                try (CompactCommitWalk compactWalk = new CompactCommitWalk(repo, count)) {
+                    compactWalk.countSince(head, AbbreviatedObjectId.fromString("0000000"), true); // not found: all commits get sorted and walked
+                }
+            } else if (walk.equals("revwalk")) {
+                try (RevWalk revWalk = new RevWalk(repo)) {
+                    revWalk.setRetainBody(false);
+                    revWalk.sort(RevSort.TOPO, true);
+                    revWalk.markStart(revWalk.parseCommit(head));
+                    for (RevCommit c : revWalk)
+                        count.incrementAndGet();
+                }
+            } else {
+                throw new IllegalArgumentException("unknown walk: " + walk);
+            }
+        }
+        System.gc(); // at least one GC notification
+        Thread.sleep(100);
+        System.out.println(walk + ": " + count + " commits in " + (System.currentTimeMillis() - t) + " ms, max. heap used after GC: "
+            + maxUsedAfterGc.get() / (1024 * 1024) + " MB");
+    }
+}
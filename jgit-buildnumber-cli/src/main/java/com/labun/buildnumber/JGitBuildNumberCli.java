@@ -0,0 +1,302 @@
+package com.labun.buildnumber;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.util.FS;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/** Extracts Git metadata and creates build number. Prints them to stdout, for scripts and pipelines which aren't Maven, Ant or Gradle builds
+ *  (e.g. tagging of Docker images, release scripts).
+ *  <p>
+ *  Parameters are given as `--<parameter>=<value>` or `--<parameter> <value>` (`--<parameter>` alone for `true`), with the names of {@link Parameters},
+ *  e.g. `--requestedProperties=buildNumber,commitsCount --verbose`. Output format: `--format=properties|json|shell`.
+ *  Log messages are printed to stderr. Exit code: 0 on success, 1 on error, 2 on invalid arguments.
+ *  <p>
+ *  See `jgit-buildnumber` launcher script for fast JVM startup. */
+@Getter
+@Setter
+public class JGitBuildNumberCli implements Parameters {
+
+    private String namespace;
+    private String dirtyValue;
+    private Boolean dirtyIgnoreUntracked;
+    private Integer dirtyCheckParallelism;
+    private String dirtyCheckPath;
+    private Integer shortRevisionLength;
+    private String gitDateFormat;
+    private String buildDateFormat;
+    private String dateFormatTimeZone;
+    private String countCommitsSinceInclusive;
+    private String countCommitsSinceExclusive;
+    private String countCommitsInPath;
+    private String countCommitsInPaths;
+    private Boolean cacheCommitsCount;
+    private File commitsCountManifest;
+    private String buildNumberFormat;
+    private Boolean useJavaScriptEngine;
+    private String requestedProperties;
+    private File repositoryDirectory;
+    private String repositoryDirectories;
+    private Boolean includeSubmodules;
+    private Boolean runOnlyAtExecutionRoot;
+    private Boolean parallel;
+    private Integer extractionTimeout;
+    private Boolean watchRepository;
+    private Boolean skip;
+    private File metricsFile;
+    private File outputPropertiesFile;
+    private String outputJavaClass;
+    private File outputJavaDirectory;
+    private String outputVolatileProperties;
+    private Boolean verbose;
+
+    // ---------- CLI options ----------
+
+    /** `properties` (default), `json`, or `shell` (`export` statements, variable names like `GIT_COMMITS_COUNT`). */
+    private String format;
+    /** If set, a commits count manifest is exported to this file instead of extracting properties (see {@link CommitsCountManifest}). */
+    private File exportCommitsCountManifest;
+    /** Comma separated revisions to export the manifest for. Default: "HEAD". */
+    private String manifestRevisions;
+    /** Comma separated paths to export `countCommitsInPath(s)` counts for. */
+    private String manifestPaths;
+    private Boolean help;
+
+    public static void main(String[] args) {
+        initSlf4jQuietly();
+        File gitSystemConfig = findGitSystemConfig(System.getenv("PATH"));
+        if (gitSystemConfig != null) FS.DETECTED.setGitSystemConfig(gitSystemConfig);
+        System.exit(new JGitBuildNumberCli().run(args, System.out, System.err));
+    }
+
+    /** JGit logs with SLF4J, which prints a warning to stderr if no binding is on the classpath (as in the CLI jar: JGit log messages aren't shown). */
+    private static void initSlf4jQuietly() {
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            LoggerFactory.getILoggerFactory();
+        } finally {
+            System.setErr(err);
+        }
+    }
+
+    /** JGit finds the system-wide Git configuration by running `git --version` and `git config --system --edit`, i.e. two processes
+     *  (about 100 ms, more than the extraction itself in small repositories). Instead, the file is derived from the location of `git`
+     *  in PATH, as in Git's default build: `<prefix>/etc/gitconfig`, or `/etc/gitconfig` for prefix `/usr`.
+     *  @return system config (may not exist); `null` if unknown (JGit discovers it then) */
+    static File findGitSystemConfig(String path) {
+        String system = System.getenv("GIT_CONFIG_SYSTEM");
+        if (system != null && !system.isEmpty()) return new File(system);
+        if (path == null) return null;
+        for (String dir : path.split(File.pathSeparator)) {
+            File bin = new File(dir);
+            if (!new File(bin, "git").isFile() && !new File(bin, "git.exe").isFile()) continue;
+            File prefix = bin.getAbsoluteFile().getParentFile();
+            if (prefix == null) return null;
+            if (prefix.getPath().equals("/usr")) return new File("/etc/gitconfig");
+            File config = new File(prefix, "etc/gitconfig");
+            return config.isFile() ? config : null;
+        }
+        return null;
+    }
+
+    /** @return exit code */
+    int run(String[] args, PrintStream out, PrintStream err) {
+        try {
+            parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            err.println("jgit-buildnumber: " + e.getMessage());
+            err.println("Try '--help' for more information.");
+            return 2;
+        }
+        if (Boolean.TRUE.equals(help)) {
+            printHelp(out);
+            return 0;
+        }
+        try {
+            if (exportCommitsCountManifest != null) exportManifest(err);
+            else extract(out, err);
+            return 0;
+        } catch (Exception e) {
+            err.println("jgit-buildnumber: " + e);
+            if (Boolean.TRUE.equals(verbose)) e.printStackTrace(err);
+            return 1;
+        }
+    }
+
+    private void extract(PrintStream out, PrintStream err) throws Exception {
+        validateAndSetParameterValues();
+        if (skip) {
+            err.println("Execution is skipped by configuration.");
+            return;
+        }
+
+        Logger logger = err::println;
+        BatchExtraction batch;
+        Map<String, String> properties;
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(this, logger)) {
+            batch = new BatchExtraction(this, extractor, logger);
+            properties = extractor.extract();
+        }
+
+        Map<String, Map<String, String>> results = new LinkedHashMap<>();
+        results.put(namespace, properties);
+        results.putAll(batch.getResults());
+        out.print(format(results));
+        out.flush();
+        new OutputFiles(this, logger).write(results);
+    }
+
+    private void exportManifest(PrintStream err) throws Exception {
+        File dir = repositoryDirectory != null ? repositoryDirectory : new File(".");
+        File gitDir = BuildNumberExtractor.findGitDir(dir);
+        if (gitDir == null) throw new IllegalArgumentException("Git directory '.git' not found (check parameter 'repositoryDirectory')");
+        long t = System.currentTimeMillis();
+        try (Repository repo = new RepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+            CommitsCountManifest.export(repo, split(manifestRevisions != null ? manifestRevisions : "HEAD"), split(manifestPaths), exportCommitsCountManifest);
+        }
+        err.println("Commits count manifest written to " + exportCommitsCountManifest + " (" + (System.currentTimeMillis() - t) + " ms)");
+    }
+
+    private static List<String> split(String list) {
+        List<String> res = new ArrayList<>();
+        if (list == null) return res;
+        for (String s : list.split(","))
+            if (!s.trim().isEmpty()) res.add(s.trim());
+        return res;
+    }
+
+    // ---------- arguments ----------
+
+    /** @return setters of parameters and CLI options, key: name */
+    private static Map<String, Method> setters() {
+        Map<String, Method> res = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Method m : JGitBuildNumberCli.class.getMethods())
+            if (m.getName().startsWith("set") && m.getParameterCount() == 1 && m.getDeclaringClass() == JGitBuildNumberCli.class)
+                res.put(Character.toLowerCase(m.getName().charAt(3)) + m.getName().substring(4), m);
+        return res;
+    }
+
+    void parseArguments(String[] args) {
+        Map<String, Method> setters = setters();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-h")) arg = "--help";
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("unexpected argument '" + arg + "'");
+            int eq = arg.indexOf('=');
+            String name = eq >= 0 ? arg.substring(2, eq) : arg.substring(2);
+            Method setter = setters.get(name);
+            if (setter == null) throw new IllegalArgumentException("unknown parameter '" + name + "'");
+            Class<?> type = setter.getParameterTypes()[0];
+            String value;
+            if (eq >= 0) value = arg.substring(eq + 1);
+            else if (type == Boolean.class && (i + 1 >= args.length || !isBoolean(args[i + 1]))) value = "true";
+            else if (i + 1 < args.length) value = args[++i];
+            else throw new IllegalArgumentException("missing value of parameter '" + name + "'");
+            try {
+                setter.invoke(this, convert(value, type, name));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (format != null && !Arrays.asList("properties", "json", "shell").contains(format))
+            throw new IllegalArgumentException("unknown format '" + format + "', expected: properties, json, shell");
+    }
+
+    private static boolean isBoolean(String s) {
+        return s.equalsIgnoreCase("true") || s.equalsIgnoreCase("false");
+    }
+
+    private static Object convert(String value, Class<?> type, String name) {
+        if (type == String.class) return value;
+        if (type == File.class) return new File(value);
+        if (type == Integer.class) {
+            try {
+                return Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("parameter '" + name + "' requires a number: '" + value + "'");
+            }
+        }
+        if (type == Boolean.class) {
+            if (!isBoolean(value)) throw new IllegalArgumentException("parameter '" + name + "' requires true or false: '" + value + "'");
+            return Boolean.valueOf(value);
+        }
+        throw new IllegalStateException("unsupported parameter type " + type);
+    }
+
+    private static void printHelp(PrintStream out) {
+        out.println("Usage: jgit-buildnumber [--<parameter>=<value>...]");
+        out.println();
+        out.println("Extracts Git metadata and creates build number, prints them to stdout.");
+        out.println("Options:");
+        out.println("  --format=properties|json|shell      output format, default: properties");
+        out.println("  --exportCommitsCountManifest=<file>  export a commits count manifest (for shallow clones) instead");
+        out.println("  --manifestRevisions=<revisions>     revisions to export, default: HEAD");
+        out.println("  --manifestPaths=<paths>             paths to export countCommitsInPath counts for");
+        out.println("Parameters (see README):");
+        for (Method m : Parameters.class.getMethods())
+            if (m.getName().startsWith("set"))
+                out.println("  --" + Character.toLowerCase(m.getName().charAt(3)) + m.getName().substring(4) + "=<" + m.getParameterTypes()[0].getSimpleName() + ">");
+    }
+
+    // ---------- output ----------
+
+    /** @param results namespace - property name - value */
+    String format(Map<String, Map<String, String>> results) throws IOException {
+        Map<String, String> properties = OutputFiles.flatten(results); // `<namespace>.<property>` - value
+
+        if ("json".equals(format)) return toJson(properties);
+        if ("shell".equals(format)) return toShell(properties);
+        return OutputFiles.toProperties(properties);
+    }
+
+    private static String toJson(Map<String, String> properties) {
+        StringBuilder res = new StringBuilder("{");
+        String separator = "\n";
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            res.append(separator).append("  ");
+            appendJsonString(res, property.getKey());
+            res.append(": ");
+            appendJsonString(res, property.getValue());
+            separator = ",\n";
+        }
+        return res.append("\n}\n").toString();
+    }
+
+    private static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c == '\n') sb.append("\\n");
+            else if (c == '\r') sb.append("\\r");
+            else if (c == '\t') sb.append("\\t");
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    /** `export GIT_COMMITS_COUNT='123'`: camel case to upper snake case, other characters not allowed in variable names replaced by `_`. */
+    private static String toShell(Map<String, String> properties) {
+        StringBuilder res = new StringBuilder();
+        for (Map.Entry<String, String> property : properties.entrySet())
+            res.append("export ").append(OutputFiles.toConstantName(property.getKey())).append("='").append(property.getValue().replace("'", "'\\''")).append("'\n");
+        return res.toString();
+    }
+}
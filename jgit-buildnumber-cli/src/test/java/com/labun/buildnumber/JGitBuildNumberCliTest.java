@@ -0,0 +1,149 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Arguments, output formats and exit codes of {@link JGitBuildNumberCli}. */
+public class JGitBuildNumberCliTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private RevCommit head;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void createRepository() throws Exception {
+        dir = folder.newFolder();
+        try (Repository repo = FileRepositoryBuilder.create(new File(dir, Constants.DOT_GIT));
+            TestRepository<Repository> testRepo = new TestRepository<>(repo)) { // CommitCommand would need BouncyCastle (excluded)
+            repo.create();
+            head = testRepo.commit().parent(testRepo.commit().create()).create();
+            testRepo.update(Constants.HEAD, head);
+        }
+    }
+
+    /** `--name=value`, `--name value`, `--name` alone for `true`, names case-insensitive. */
+    @Test
+    public void parseArguments() {
+        JGitBuildNumberCli cli = new JGitBuildNumberCli();
+        cli.parseArguments(new String[] { "--namespace=my", "--shortRevisionLength", "9", "--verbose", "--dirtyIgnoreUntracked", "false",
+            "--SKIP", "--buildNumberFormat=a=b", "--repositoryDirectory", "x", "--format=json" });
+        assertEquals("my", cli.getNamespace());
+        assertEquals(Integer.valueOf(9), cli.getShortRevisionLength());
+        assertEquals(Boolean.TRUE, cli.getVerbose());
+        assertEquals(Boolean.FALSE, cli.getDirtyIgnoreUntracked());
+        assertEquals(Boolean.TRUE, cli.getSkip());
+        assertEquals("a=b", cli.getBuildNumberFormat());
+        assertEquals(new File("x"), cli.getRepositoryDirectory());
+        assertEquals("json", cli.getFormat());
+    }
+
+    @Test
+    public void invalidArguments() {
+        String[][] invalid = { { "revision" }, { "--unknown=1" }, { "--namespace" }, { "--shortRevisionLength=seven" }, { "--verbose=yes" },
+            { "--format=xml" } };
+        for (String[] args : invalid) {
+            err.reset();
+            assertEquals(args[0], 2, run(args));
+            assertTrue(err(), err().startsWith("jgit-buildnumber: "));
+            assertTrue(err(), err().contains("Try '--help'"));
+        }
+    }
+
+    @Test
+    public void help() {
+        assertEquals(0, run("-h"));
+        assertTrue(out(), out().startsWith("Usage: jgit-buildnumber"));
+        assertTrue(out(), out().contains("  --countCommitsInPath=<String>"));
+    }
+
+    @Test
+    public void outputFormats() {
+        String[] args = { "--repositoryDirectory=" + dir, "--requestedProperties=revision,commitsCount", "--namespace=my.app" };
+        assertEquals(0, run(args));
+        assertEquals("my.app.commitsCount=2\nmy.app.revision=" + head.name() + "\n", out()); // sorted by name
+
+        out.reset();
+        assertEquals(0, run(concat(args, "--format=json")));
+        assertEquals("{\n  \"my.app.commitsCount\": \"2\",\n  \"my.app.revision\": \"" + head.name() + "\"\n}\n", out());
+
+        out.reset();
+        assertEquals(0, run(concat(args, "--format", "shell")));
+        assertEquals("export MY_APP_COMMITS_COUNT='2'\nexport MY_APP_REVISION='" + head.name() + "'\n", out());
+    }
+
+    @Test
+    public void extractionError() throws Exception {
+        assertEquals(1, run("--repositoryDirectory=" + folder.newFolder(), "--requestedProperties=revision"));
+        assertEquals("", out());
+        assertTrue(err(), err().startsWith("jgit-buildnumber: "));
+    }
+
+    @Test
+    public void exportManifest() throws Exception {
+        File manifest = new File(folder.newFolder(), "commits-count.txt");
+        assertEquals(0, run("--repositoryDirectory", dir.getPath(), "--exportCommitsCountManifest", manifest.getPath(), "--manifestPaths=,"));
+        assertEquals(2, CommitsCountManifest.load(manifest).size());
+        assertEquals("", out());
+        assertTrue(err(), err().startsWith("Commits count manifest written to " + manifest));
+
+        assertEquals(1, run("--repositoryDirectory", dir.getPath(), "--exportCommitsCountManifest", manifest.getPath(), "--manifestRevisions=missing"));
+    }
+
+    /** The system config is derived from `git` in PATH: `<prefix>/bin/git` - `<prefix>/etc/gitconfig`, if existing. */
+    @Test
+    public void findGitSystemConfig() throws Exception {
+        String system = System.getenv("GIT_CONFIG_SYSTEM");
+        Assume.assumeTrue(system == null || system.isEmpty());
+        File empty = folder.newFolder("empty");
+        File prefix = folder.newFolder("git");
+        File bin = new File(prefix, "bin");
+        assertTrue(bin.mkdirs() && new File(bin, "git").createNewFile());
+        String path = empty + File.pathSeparator + bin;
+        assertNull(JGitBuildNumberCli.findGitSystemConfig(path));
+        File config = new File(prefix, "etc/gitconfig");
+        assertTrue(config.getParentFile().mkdirs() && config.createNewFile());
+        assertEquals(config, JGitBuildNumberCli.findGitSystemConfig(path));
+        assertNull(JGitBuildNumberCli.findGitSystemConfig(empty.getPath()));
+        assertNull(JGitBuildNumberCli.findGitSystemConfig(null));
+    }
+
+    private int run(String... args) {
+        return new JGitBuildNumberCli().run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    private String out() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String err() {
+        return new String(err.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String[] concat(String[] args, String... more) {
+        String[] res = new String[args.length + more.length];
+        System.arraycopy(args, 0, res, 0, args.length);
+        System.arraycopy(more, 0, res, args.length, more.length);
+        return res;
+    }
+}
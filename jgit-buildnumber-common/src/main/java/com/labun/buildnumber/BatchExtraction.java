@@ -0,0 +1,161 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.lang.model.SourceVersion;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+
+/** Extracts properties of additional repositories (see {@link Parameters#getRepositoryDirectories()}, {@link Parameters#getIncludeSubmodules()}),
+ *  concurrently with each other and with the main repository, so that the execution time is determined by the slowest repository.
+ *  <p>
+ *  Each repository gets its own {@link BuildNumberExtractor}; extractions run on a bounded pool (max. one thread per processor). Usage:
+ *  <pre>
+ *  try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, logger)) {
+ *      BatchExtraction batch = new BatchExtraction(params, extractor, logger); // starts additional extractions
+ *      Map&lt;String, String> properties = extractor.extract();
+ *      Map&lt;String, Map&lt;String, String>> additionalProperties = batch.getResults();
+ *  }
+ *  </pre> */
+public class BatchExtraction {
+
+    /** key: namespace */
+    private final Map<String, Future<Map<String, String>>> results = new LinkedHashMap<>();
+
+    /** Starts extraction of additional repositories (if any).
+     *  @param main extractor of the main repository (submodules are discovered there)
+     *  @throws IllegalArgumentException if `repositoryDirectories` is invalid, or namespaces are not unique */
+    public BatchExtraction(Parameters params, BuildNumberExtractor main, Logger logger) throws IOException {
+        Map<String, File> repositories = findRepositories(params, main.repo, logger);
+        if (repositories.isEmpty()) return;
+
+        ExecutorService executor = createExecutor(Math.min(repositories.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            for (Map.Entry<String, File> repository : repositories.entrySet()) {
+                String namespace = repository.getKey();
+                Parameters repositoryParams = new RepositoryParameters(params, repository.getValue(), namespace);
+                Logger repositoryLogger = msg -> logger.log("[" + namespace + "] " + msg);
+                results.put(namespace, executor.submit(() -> {
+                    try (BuildNumberExtractor extractor = new BuildNumberExtractor(repositoryParams, repositoryLogger)) {
+                        return extractor.extract();
+                    }
+                }));
+            }
+        } finally {
+            executor.shutdown(); // threads terminate when all extractions are done
+        }
+    }
+
+    /** @param mainRepo main repository (submodules are discovered there)
+     *  @return namespace - directory of additional repositories */
+    static Map<String, File> findRepositories(Parameters params, Repository mainRepo, Logger logger) throws IOException {
+        Map<String, File> repositories = new LinkedHashMap<>();
+        if (params.getRepositoryDirectories() != null) {
+            for (String entry : params.getRepositoryDirectories().split(",")) {
+                entry = entry.trim();
+                if (entry.isEmpty()) continue;
+                int separator = entry.indexOf('=');
+                File directory = resolve(params, entry.substring(separator + 1).trim());
+                String namespace = separator >= 0 ? entry.substring(0, separator).trim()
+                    : toNamespace(params.getNamespace(), directory.getCanonicalFile().getName());
+                if (!SourceVersion.isName(namespace)) throw new IllegalArgumentException("Invalid namespace '" + namespace + "' (parameter 'repositoryDirectories')");
+                add(repositories, namespace, directory, params.getNamespace());
+            }
+        }
+        if (params.getIncludeSubmodules()) {
+            try (SubmoduleWalk submodules = SubmoduleWalk.forIndex(mainRepo)) {
+                while (submodules.next()) {
+                    try (Repository subRepo = submodules.getRepository()) {
+                        if (subRepo == null) {
+                            logger.log("submodule '" + submodules.getPath() + "' not initialized, skipped");
+                            continue;
+                        }
+                        add(repositories, toNamespace(params.getNamespace(), submodules.getPath()), submodules.getDirectory(), params.getNamespace());
+                    }
+                }
+            }
+        }
+        return repositories;
+    }
+
+    /** @return entries of `repositoryDirectories` with canonical directories (relative ones depend on `repositoryDirectory`),
+     *  e.g. for comparing configurations */
+    public static List<String> getCanonicalRepositoryDirectories(Parameters params) throws IOException {
+        List<String> res = new ArrayList<>();
+        if (params.getRepositoryDirectories() == null) return res;
+        for (String entry : params.getRepositoryDirectories().split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            int separator = entry.indexOf('=');
+            File directory = resolve(params, entry.substring(separator + 1).trim()).getCanonicalFile();
+            res.add(separator >= 0 ? entry.substring(0, separator).trim() + "=" + directory : directory.getPath());
+        }
+        return res;
+    }
+
+    /** @return `directory`, relative to `repositoryDirectory` unless absolute */
+    private static File resolve(Parameters params, String directory) {
+        File res = new File(directory);
+        return res.isAbsolute() ? res : new File(params.getRepositoryDirectory(), directory);
+    }
+
+    /** @return namespaces of the additional repositories, e.g. to register them before extraction */
+    public static Set<String> getNamespaces(Parameters params) throws IOException {
+        if (!params.getIncludeSubmodules()) return findRepositories(params, null, msg -> {}).keySet();
+        try (Repository repo = new RepositoryBuilder().findGitDir(params.getRepositoryDirectory().getCanonicalFile()).build()) {
+            return findRepositories(params, repo, msg -> {}).keySet();
+        }
+    }
+
+    private static void add(Map<String, File> repositories, String namespace, File directory, String mainNamespace) {
+        if (namespace.equals(mainNamespace) || repositories.put(namespace, directory) != null)
+            throw new IllegalArgumentException("Namespace '" + namespace + "' is used for more than one repository");
+    }
+
+    /** @return `<mainNamespace>_<name>`, with characters which aren't allowed in Java identifiers replaced by `_` */
+    static String toNamespace(String mainNamespace, String name) {
+        StringBuilder sb = new StringBuilder(mainNamespace).append('_');
+        for (char c : name.toCharArray())
+            sb.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        return sb.toString();
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "jgit-buildnumber-batch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Waits for all extractions. Exceptions thrown by an extraction are re-thrown unwrapped.
+     *  @return namespace - extracted properties; empty if there are no additional repositories */
+    public Map<String, Map<String, String>> getResults() throws Exception {
+        Map<String, Map<String, String>> res = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<Map<String, String>>> result : results.entrySet()) {
+            try {
+                res.put(result.getKey(), result.getValue().get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw e;
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,94 @@
+package com.labun.buildnumber;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+import org.eclipse.jgit.lib.BitmapObject;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/** Counts all commits reachable from a commit with the reachability bitmaps of the pack (written by `git gc`, `git repack -b`, JGit GC),
+ *  instead of parsing every commit.
+ *  <p>
+ *  A bitmap contains all objects reachable from its commit. Git selects commits for bitmaps (branch tips, and commits in certain distances),
+ *  so that usually HEAD or one of its first ancestors has one. Commits without bitmap (e.g. committed or fetched after the last gc)
+ *  are walked until commits with bitmap are reached; the result is the number of commits in the union of their bitmaps,
+ *  plus the walked commits not contained in it.
+ *  <p>
+ *  JGit's public API can count the commits of a bitmap only by iterating them (about 0.5 µs per commit, mainly for resolving the object id),
+ *  which is still much cheaper than parsing them. Since a pack and its bitmaps don't change, the commits count of a reached bitmap is stored
+ *  in the {@link CommitsCountCache}, so that counting after new commits only costs the walk of these commits. */
+class BitmapCommitsCounter {
+
+    private BitmapCommitsCounter() {
+    }
+
+    /** @param cache for counts of commits with bitmap; may be `null`
+     *  @param commitsWalked counter, incremented for each commit walked (without bitmap)
+     *  @return number of commits reachable from `head`; `null` if the repository has no bitmap index */
+    static Integer count(Repository repo, AnyObjectId head, CommitsCountCache cache, AtomicLong commitsWalked) throws IOException {
+        try (RevWalk walk = new RevWalk(repo)) {
+            BitmapIndex index = walk.getObjectReader().getBitmapIndex();
+            if (index == null) return null;
+            walk.setRetainBody(false);
+            RevFlag seen = walk.newFlag("seen");
+            BitmapBuilder covered = index.newBitmapBuilder(); // union of bitmaps of the reached commits
+            List<RevCommit> bitmapCommits = new ArrayList<>();
+            List<RevCommit> walked = new ArrayList<>();
+            Deque<RevCommit> pending = new ArrayDeque<>();
+            RevCommit start = walk.parseCommit(head);
+            start.add(seen);
+            pending.add(start);
+            RevCommit c;
+            while ((c = pending.poll()) != null) {
+                if (covered.contains(c)) continue;
+                Bitmap bitmap = index.getBitmap(c);
+                if (bitmap != null) {
+                    covered.or(bitmap);
+                    bitmapCommits.add(c);
+                    continue;
+                }
+                walked.add(c);
+                commitsWalked.incrementAndGet();
+                for (RevCommit p : c.getParents()) {
+                    if (p.has(seen)) continue;
+                    p.add(seen);
+                    walk.parseHeaders(p);
+                    pending.add(p);
+                }
+            }
+
+            int res = 0;
+            for (RevCommit w : walked)
+                if (!covered.contains(w)) res++; // otherwise reachable from a bitmap reached later
+            RevCommit single = bitmapCommits.size() == 1 ? bitmapCommits.get(0) : null;
+            Integer cached = single != null && cache != null ? cache.get(single, "") : null;
+            if (cached != null) return res + cached;
+            int coveredCommits = countCommits(covered);
+            if (single != null && cache != null) cache.put(single, "", coveredCommits);
+            return res + coveredCommits;
+        }
+    }
+
+    /** JGit's bitmap iterator returns objects not contained in the pack first (none here), then the commits of the pack,
+     *  then trees, blobs and tags. */
+    private static int countCommits(BitmapBuilder bitmap) {
+        int res = 0;
+        for (BitmapObject object : bitmap) {
+            if (object.getType() != Constants.OBJ_COMMIT) break;
+            res++;
+        }
+        return res;
+    }
+}
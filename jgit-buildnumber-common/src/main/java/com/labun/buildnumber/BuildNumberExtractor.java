@@ -2,17 +2,36 @@ package com.labun.buildnumber;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,14 +40,17 @@ import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevWalkException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryBuilder;
-import org.eclipse.jgit.revplot.PlotWalk;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
@@ -37,12 +59,20 @@ import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import lombok.Getter;
 
 /** Extracts Git metadata and creates build number. See {@link #propertyNames}. */
-public class BuildNumberExtractor {
+public class BuildNumberExtractor implements AutoCloseable {
 
     /** See documentation in README.md */
     static final List<String> propertyNames = Arrays.asList("revision", "shortRevision", "dirty", "branch", "tag", "parent", "shortParent", "commitsCount",
         "authorDate", "commitDate", "describe", "buildDate", "buildNumber");
 
+    /** Properties the default `buildNumber` is composed of. See {@link #defaultBuildNumber(String, String, String, String, String)}. */
+    static final List<String> defaultBuildNumberInputs = Arrays.asList("tag", "branch", "commitsCount", "shortRevision", "dirty");
+
+    /** Prefix of properties with per-path commit counts, see {@link Parameters#getCountCommitsInPaths()}. */
+    static final String COMMITS_COUNT_IN_PATH_PREFIX = "commitsCount.";
+
+    private static final Pattern IDENTIFIER = Pattern.compile("\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*");
+
     private static final String EMPTY_STRING = "";
 
     Parameters params;
@@ -52,9 +82,47 @@ public class BuildNumberExtractor {
     Git git;
     Repository repo;
 
+    /** Executor for extraction phases in parallel mode; `null` in sequential mode. */
+    ExecutorService executor;
+    /** completed when {@link #executor} has terminated, i.e. when phases continued in the background (see `extractionTimeout`) are done */
+    private final CompletableFuture<Void> executorTerminated = new CompletableFuture<>();
+
+    /** Properties to publish. See {@link Parameters#getRequestedProperties()}. */
+    Set<String> requestedProperties;
+    /** Properties to compute: requested ones, plus those required to compose the `buildNumber`. */
+    Set<String> requiredProperties;
+
     ObjectId headObjectId;
     private @Getter String headSha1;
-    private @Getter boolean gitStatusDirty;
+    /** branches and tags, shared by extractions in this JVM; `null` if refs are read with JGit (see {@link RefSnapshot}) */
+    private RefSnapshot refSnapshot;
+    /** short name of the current branch, empty if HEAD is detached; `null` if not resolved with {@link #refSnapshot} */
+    private String headBranch;
+    private Future<Boolean> gitStatusDirty;
+    private TagIndex tagIndex;
+    /** `commitsCount` computed together with `describe`, see {@link #readDescribe(boolean)} */
+    private int describeWalkCommitsCount;
+    /** `true` if the repository is a shallow clone; determined on first use, see {@link #isShallow()} */
+    private Boolean shallow;
+    /** loaded on first use in a shallow clone, see {@link #countWithManifest(String)} */
+    private CommitsCountManifest manifest;
+    private boolean manifestLoaded;
+
+    /** Entry of the in-process cache (`watchRepository`), `null` otherwise. See {@link RepositoryWatchCache}. */
+    private RepositoryWatchCache.Entry watchEntry;
+    /** {@link RepositoryWatchCache.Entry#getGeneration()} before the repository has been read */
+    private long watchGeneration;
+    /** `true` if the working tree cannot be watched: `dirty` and the extracted properties are not cached */
+    private volatile boolean workTreeUnwatched;
+
+    /** Values of the last build, if `extractionTimeout` is set; `null` otherwise. See {@link #getBeforeDeadline(Future, String, Callable)}. */
+    private LastResult lastResult;
+    /** keys of properties taken from {@link #lastResult}, since they haven't been extracted within `extractionTimeout` */
+    private final Set<String> staleProperties = new LinkedHashSet<>();
+
+    /** Time spent in phases, counters. Written to `metricsFile` at the end of {@link #extract()}. */
+    private @Getter ExtractionMetrics metrics;
+    private long startTime;
 
     void log(String msg) {
         logger.log(msg);
@@ -65,6 +133,7 @@ public class BuildNumberExtractor {
     }
 
     /** Initializes values from Git repo, which are always required, regardless of full or incremental build.
+     *  The repository is released by {@link #close()}.
      * 
      * @param params input parameters
      * @param logger logger to log info messages
@@ -74,79 +143,371 @@ public class BuildNumberExtractor {
         this.params = params;
         this.logger = logger;
 
-        long t = System.currentTimeMillis();
+        long t = startTime = System.currentTimeMillis();
 
         params.validateAndSetParameterValues(); // defensive (parameters should have already been set and validated)
         logVerbose("params: " + params.asString());
+        metrics = new ExtractionMetrics(params.getRepositoryDirectory().getPath());
+
+        requestedProperties = parseRequestedProperties(params.getRequestedProperties());
+        requiredProperties = requiredProperties(requestedProperties, params.getBuildNumberFormat());
+        logVerbose("required properties: " + requiredProperties);
 
         File repoDirectory = params.getRepositoryDirectory();
         if (!(repoDirectory.exists() && repoDirectory.isDirectory()))
             throw new IOException("Invalid repository directory provided: " + repoDirectory.getAbsolutePath());
 
-        // (previously, jgit had some problems with not canonical paths; is it still the case?)
-        File canonicalRepo = repoDirectory.getCanonicalFile();
-        RepositoryBuilder builder = new RepositoryBuilder().findGitDir(canonicalRepo);
-
-        gitDir = builder.getGitDir();
-        logVerbose("gitDir=" + gitDir);
-        if (gitDir == null) throw new IllegalArgumentException("Git directory '.git' not found (check parameter 'repositoryDirectory')");
-        git = Git.open(gitDir);
-        repo = git.getRepository();
+        try (ExtractionMetrics.Phase phase = metrics.startPhase("open")) {
+            // (previously, jgit had some problems with not canonical paths; is it still the case?)
+            File canonicalRepo = repoDirectory.getCanonicalFile();
+            RepositoryBuilder builder = new RepositoryBuilder().findGitDir(canonicalRepo);
+
+            gitDir = builder.getGitDir();
+            logVerbose("gitDir=" + gitDir);
+            if (gitDir == null) throw new IllegalArgumentException("Git directory '.git' not found (check parameter 'repositoryDirectory')");
+            if (params.getWatchRepository()) {
+                watchEntry = RepositoryWatchCache.getShared().open(gitDir);
+                watchGeneration = watchEntry.getGeneration();
+                repo = watchEntry.repository;
+            } else {
+                repo = new RepositoryBuilder().setGitDir(gitDir).setMustExist(true).build();
+            }
+            git = Git.wrap(repo);
 
-        Ref headRef = repo.exactRef(Constants.HEAD);
-        if (headRef == null) throw new IllegalArgumentException("Cannot read current revision (HEAD) from repository: " + repo);
+            try (ExtractionMetrics.Phase refsPhase = metrics.startPhase("refs")) {
+                refSnapshot = RefSnapshot.get(CommitsCountCache.getCommonGitDir(gitDir));
+            }
+            if (refSnapshot != null) logVerbose("ref snapshot: " + refSnapshot.size() + " refs, " + refSnapshot.memoryUsage() / 1024 + " KB");
+            RefSnapshot.Head head = refSnapshot != null ? refSnapshot.readHead(gitDir) : null;
+            if (head != null) {
+                headObjectId = head.objectId;
+                headBranch = head.branch;
+            } else { // e.g. unborn branch
+                Ref headRef = repo.exactRef(Constants.HEAD);
+                if (headRef == null) throw new IllegalArgumentException("Cannot read current revision (HEAD) from repository: " + repo);
+
+                headObjectId = headRef.getObjectId();
+                if (headObjectId == null) throw new IllegalArgumentException("Git repository is empty (perhaps just initialized with `git init`): " + repo);
+            }
+            headSha1 = headObjectId.name();
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
 
-        headObjectId = headRef.getObjectId();
-        if (headObjectId == null) throw new IllegalArgumentException("Git repository is empty (perhaps just initialized with `git init`): " + repo);
-        headSha1 = headObjectId.name();
+        if (params.getExtractionTimeout() != null) lastResult = new LastResult(gitDir);
+        if (params.getParallel() || lastResult != null) executor = createExecutor(executorTerminated);
 
-        // long t = System.currentTimeMillis();
-        gitStatusDirty = !git.status().call().isClean();
-        // System.out.println("dirty: " + gitStatusDirty + " (" + (System.currentTimeMillis() - t) + " ms)");
+        if (isRequired("dirty")) startDirtyPhase(); // value from in-process cache, if available
 
-        logVerbose("repo state: " + "headSha1=" + headSha1 + ", gitStatusDirty=" + gitStatusDirty);
+        logVerbose("repo state: " + "headSha1=" + headSha1 + (executor == null && gitStatusDirty != null ? ", gitStatusDirty=" + isGitStatusDirty() : ""));
         logVerbose("initializing Git repo, get base data: " + (System.currentTimeMillis() - t) + " ms");
     }
 
+    /** @param requestedProperties comma separated property names; `null` or empty for all properties */
+    static Set<String> parseRequestedProperties(String requestedProperties) {
+        if (requestedProperties == null || requestedProperties.trim().isEmpty()) return new LinkedHashSet<>(propertyNames);
+        Set<String> res = new LinkedHashSet<>();
+        for (String property : requestedProperties.split(",")) {
+            property = property.trim();
+            if (property.isEmpty()) continue;
+            if (!propertyNames.contains(property))
+                throw new IllegalArgumentException("Unknown property '" + property + "' (parameter 'requestedProperties'), known properties: " + propertyNames);
+            res.add(property);
+        }
+        return res;
+    }
+
+    /** @return requested properties, plus the properties `buildNumber` depends on (if requested): either the properties referenced 
+     *  in `buildNumberFormat`, or the inputs of the default build number */
+    static Set<String> requiredProperties(Set<String> requestedProperties, String buildNumberFormat) {
+        Set<String> res = new LinkedHashSet<>(requestedProperties);
+        if (!res.contains("buildNumber")) return res;
+
+        Set<String> inputs = new LinkedHashSet<>();
+        if (buildNumberFormat == null) {
+            inputs.addAll(defaultBuildNumberInputs);
+        } else {
+            // conservative: every identifier with a property name counts, even if it appears in a string literal or comment
+            Matcher matcher = IDENTIFIER.matcher(buildNumberFormat);
+            while (matcher.find())
+                if (propertyNames.contains(matcher.group())) inputs.add(matcher.group());
+            if (inputs.contains("buildNumber")) inputs.addAll(defaultBuildNumberInputs); // default build number is exposed to JS, too
+        }
+        res.addAll(inputs);
+        return res;
+    }
+
+    boolean isRequired(String property) {
+        return requiredProperties.contains(property);
+    }
+
+    /** @return `true` if the `dirty` flag is required, i.e. the result depends on the working tree, not only on {@link #findGitStateFiles(File)} */
+    public static boolean isDirtyRequired(Parameters params) {
+        return requiredProperties(parseRequestedProperties(params.getRequestedProperties()), params.getBuildNumberFormat()).contains("dirty");
+    }
+
+    /** @return Git directory found from `repositoryDirectory` upwards (like Git does), or `null` */
+    public static File findGitDir(File repositoryDirectory) throws IOException {
+        return new RepositoryBuilder().findGitDir(repositoryDirectory.getCanonicalFile()).getGitDir();
+    }
+
+    /** Files in Git directory which determine the extracted properties (apart from the working tree, see {@link #isDirtyRequired(Parameters)}):
+     *  `HEAD`, `index`, `packed-refs`, `shallow`, `refs/heads/`, `refs/tags/`; refs of linked worktrees are taken from the common Git directory.
+     *  Intended for up-to-date checks of build tools.
+     *  @return existing files and directories; empty if Git directory not found */
+    public static List<File> findGitStateFiles(File repositoryDirectory) throws IOException {
+        List<File> res = new ArrayList<>();
+        File gitDir = findGitDir(repositoryDirectory);
+        if (gitDir == null) return res;
+        File commonGitDir = CommitsCountCache.getCommonGitDir(gitDir);
+        for (File file : Arrays.asList(new File(gitDir, Constants.HEAD), new File(gitDir, "index"), new File(commonGitDir, Constants.PACKED_REFS), new File(commonGitDir, Constants.SHALLOW),
+            new File(commonGitDir, Constants.R_HEADS), new File(commonGitDir, Constants.R_TAGS)))
+            if (file.exists()) res.add(file);
+        return res;
+    }
+
+    /** @return `true` for names of {@link #propertyNames} and of per-path commit counts (`commitsCount.<path>`) */
+    static boolean isPropertyName(String name) {
+        return propertyNames.contains(name) || name.startsWith(COMMITS_COUNT_IN_PATH_PREFIX);
+    }
+
+    /** @param path relative to working tree, or absolute (inside working tree)
+     *  @return path relative to working tree, with `/` as separator, without trailing `/`; empty string for the working tree itself */
+    String toRepositoryPath(String path) throws IOException {
+        File file = new File(path);
+        if (file.isAbsolute()) {
+            Path workTree = repo.getWorkTree().getCanonicalFile().toPath();
+            Path absolute = file.getCanonicalFile().toPath();
+            if (!absolute.startsWith(workTree)) throw new IllegalArgumentException("Path '" + path + "' is outside of Git working tree " + workTree);
+            path = workTree.relativize(absolute).toString();
+        }
+        path = path.replace(File.separatorChar, '/');
+        while (path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    /** @return paths of `countCommitsInPaths` parameter, relative to working tree, without duplicates */
+    private List<String> parseCountCommitsInPaths() throws IOException {
+        List<String> res = new ArrayList<>();
+        if (params.getCountCommitsInPaths() == null) return res;
+        for (String path : params.getCountCommitsInPaths().split(",")) {
+            if (path.trim().isEmpty()) continue;
+            path = toRepositoryPath(path.trim());
+            if (path.isEmpty()) throw new IllegalArgumentException("Git working tree itself cannot be used in parameter 'countCommitsInPaths'");
+            if (!res.contains(path)) res.add(path);
+        }
+        if (!res.isEmpty() && (params.getCountCommitsSinceInclusive() != null || params.getCountCommitsSinceExclusive() != null))
+            throw new IllegalArgumentException("Parameter 'countCommitsInPaths' cannot be combined with 'countCommitsSinceInclusive', 'countCommitsSinceExclusive'");
+        return res;
+    }
+
+    private synchronized void startDirtyPhase() throws IOException {
+        if (gitStatusDirty != null) return;
+        String path = params.getDirtyCheckPath() != null ? toRepositoryPath(params.getDirtyCheckPath()) : "";
+        String key = params.getDirtyIgnoreUntracked() + ":" + path;
+        Boolean cached = watchEntry != null ? watchEntry.getDirty(key) : null;
+        if (cached != null) {
+            logVerbose("dirty: using value from in-process cache");
+            gitStatusDirty = CompletableFuture.completedFuture(cached);
+            return;
+        }
+        if (watchEntry != null) {
+            try {
+                watchEntry.watchWorkTree(); // before the check, so that no change gets lost
+            } catch (IOException e) {
+                log("Cannot watch working tree, dirty flag is not cached: " + e); // e.g. too many directories
+                workTreeUnwatched = true;
+            }
+        }
+        gitStatusDirty = runPhase("dirty", () -> {
+            boolean dirty = new DirtyChecker(repo, params.getDirtyIgnoreUntracked(), params.getDirtyCheckParallelism(),
+                path.isEmpty() ? null : path, metrics.filesScanned).isDirty(headObjectId);
+            if (watchEntry != null && !workTreeUnwatched) watchEntry.putDirty(key, dirty, watchGeneration);
+            return dirty;
+        });
+    }
+
+    /** @return `false` if `buildNumber` is composed with `buildDate`, i.e. changes with every build */
+    private boolean isResultCacheable() {
+        return !isRequired("buildNumber") || !requiredProperties(Collections.singleton("buildNumber"), params.getBuildNumberFormat()).contains("buildDate");
+    }
+
+    /** Bounded executor with one thread per independent extraction phase (dirty, tag, describe, commitsCount).
+     *  Threads are daemons and terminate when idle, so that an extractor which is never asked to `extract()` doesn't leak threads.
+     *  @param terminated completed when the executor has been shut down and all phases are done */
+    private static ExecutorService createExecutor(CompletableFuture<Void> terminated) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "jgit-buildnumber-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }) {
+            @Override
+            protected void terminated() {
+                terminated.complete(null);
+            }
+        };
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** Runs an extraction phase, records its execution time in {@link #metrics} (and logs it). In parallel mode, the phase is executed by {@link #executor}, otherwise immediately.
+     *  <p>
+     *  Phases running in parallel must not share JGit objects which aren't thread-safe (`RevWalk`, `ObjectReader`, ...); 
+     *  each phase has to create its own `RevWalk` (and thereby its own `ObjectReader`). */
+    private <T> Future<T> runPhase(String name, Callable<T> phase) {
+        FutureTask<T> task = new FutureTask<>(() -> {
+            long t = System.currentTimeMillis();
+            try (ExtractionMetrics.Phase metricsPhase = metrics.startPhase(name)) {
+                return phase.call();
+            } finally {
+                logVerbose("phase '" + name + "': " + (System.currentTimeMillis() - t) + " ms");
+            }
+        });
+        if (executor != null && !executor.isShutdown()) executor.execute(task);
+        else task.run();
+        return task;
+    }
+
+    /** Waits for the phase result. Exceptions thrown by the phase are re-thrown unwrapped. */
+    private static <T> T get(Future<T> phaseResult) throws Exception {
+        try {
+            return phaseResult.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /** Checks the working tree, if not already done (or started) because the `dirty` property is required. */
+    public boolean isGitStatusDirty() throws Exception {
+        startDirtyPhase();
+        return get(gitStatusDirty);
+    }
+
+    /** @return whether the result of {@link #extract()} contains values of the last build (see `extractionTimeout`). Such a result
+     *  must not be reused by later builds (e.g. cached by the build tool): the current values are extracted in the background. */
+    public boolean hasStaleProperties() {
+        return !staleProperties.isEmpty();
+    }
+
+    /** Releases the repository (the in-process cache keeps its own reference, see {@link RepositoryWatchCache}).
+     *  If phases continue in the background (see `extractionTimeout`), the repository is released when they are done. */
     @Override
-    protected void finalize() throws Throwable {
-        git.close(); // also closes the `repo`
+    public void close() {
+        if (executor != null) executor.shutdown();
+        if (repo == null) return;
+        if (staleProperties.isEmpty()) repo.close();
+        else executorTerminated.thenRun(repo::close);
+    }
+
+    /** Stores the value for the next build, if `extractionTimeout` is set (see {@link LastResult}).
+     *  @param key see {@link LastResult#key(String, String)}
+     *  @return value */
+    private String storeLastValue(String key, String value) {
+        if (lastResult != null) {
+            try {
+                lastResult.put(key, headObjectId, value);
+            } catch (IOException e) {
+                log("Cannot store value of '" + key + "' for next build: " + e); // e.g. read only file system; not critical
+            }
+        }
+        return value;
+    }
+
+    /** Waits for the phase until the deadline, if `extractionTimeout` is set (measured from the start of the extraction). 
+     *  If the phase isn't done then, the value of the last build is returned, while the phase continues in the background 
+     *  and stores its value for the next build (see {@link #storeLastValue(String, String)}). Without such value, the phase is awaited.
+     *  @param key see {@link LastResult#key(String, String)}
+     *  @param result value of the phase, called when the phase is done */
+    private String getBeforeDeadline(Future<?> phaseResult, String key, Callable<String> result) throws Exception {
+        if (lastResult != null && !phaseResult.isDone()) {
+            try {
+                phaseResult.get(Math.max(0, startTime + params.getExtractionTimeout() - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                LastResult.Value last = lastResult.get(key);
+                if (last != null) {
+                    log(key + ": not extracted within extractionTimeout (" + params.getExtractionTimeout() + " ms), using stale value of last build (commit "
+                        + abbreviateSha1(last.commit, params.getShortRevisionLength()) + "), extraction continues in the background");
+                    staleProperties.add(key);
+                    return last.value;
+                }
+                log(key + ": not extracted within extractionTimeout (" + params.getExtractionTimeout() + " ms), no value of a previous build, waiting");
+            } catch (ExecutionException e) {
+                // re-thrown below
+            }
+        }
+        get(phaseResult);
+        return result.call();
+    }
+
+    private String getBeforeDeadline(Future<String> phaseResult, String key) throws Exception {
+        return getBeforeDeadline(phaseResult, key, () -> get(phaseResult));
     }
 
     /** @return Map propertyName - propertyValue. See {@link #propertyNames}. */
     public Map<String, String> extract() throws Exception {
+        // parameters may have been changed after construction (e.g. `countCommitsInPaths` by Maven plugin)
+        String resultKey = params.asString();
+        Map<String, String> cachedResult = watchEntry != null && isResultCacheable() ? watchEntry.getResult(resultKey) : null;
+        if (cachedResult != null) return extractFromCache(cachedResult);
         long t = System.currentTimeMillis();
 
-        try (RevWalk revWalk = new PlotWalk(repo)) {
-            String branch = readCurrentBranch(headSha1);
-            String tag = readTag(headSha1);
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            // start phases which may run in parallel (independent from each other); properties not required are left `null`
+            // expensive phases store their values for builds exceeding `extractionTimeout`, see `getBeforeDeadline`
+            Future<String> tagPhase = isRequired("tag") ? runPhase("tag", () -> storeLastValue("tag", readTag(headObjectId))) : null;
+            List<String> countCommitsInPaths = parseCountCommitsInPaths();
+            Future<Map<String, Integer>> commitsCountInPathsPhase = !countCommitsInPaths.isEmpty() ? runPhase("commitsCountInPaths", () -> {
+                Map<String, Integer> counts = countCommitsInPaths(countCommitsInPaths);
+                for (Map.Entry<String, Integer> e : counts.entrySet())
+                    storeLastValue(commitsCountKey(null, null, e.getKey()), Integer.toString(e.getValue()));
+                return counts;
+            }) : null;
+            String commitsCountKey = commitsCountKey(params.getCountCommitsSinceInclusive(), params.getCountCommitsSinceExclusive(), params.getCountCommitsInPath());
+            // if all commits get counted, `describe` and `commitsCount` are computed in a single history traversal
+            boolean countWithDescribe = isRequired("describe") && isRequired("commitsCount") && params.getCountCommitsSinceInclusive() == null
+                && params.getCountCommitsSinceExclusive() == null && params.getCountCommitsInPath() == null;
+            Future<String> describePhase = isRequired("describe") ? runPhase(countWithDescribe ? "describe+commitsCount" : "describe", () -> {
+                String describe = storeLastValue("describe", readDescribe(countWithDescribe));
+                if (countWithDescribe) storeLastValue(commitsCountKey, Integer.toString(describeWalkCommitsCount));
+                return describe;
+            }) : null;
+
+            String branch = isRequired("branch") ? readCurrentBranch(headSha1) : null;
 
             RevCommit headCommit = revWalk.parseCommit(headObjectId);
 
-            String parent = readParent(headCommit);
-            String shortParent = readShortParent(headCommit, params.getShortRevisionLength());
+            String parent = isRequired("parent") ? readParent(headCommit) : null;
+            String shortParent = isRequired("shortParent") ? readShortParent(headCommit, params.getShortRevisionLength()) : null;
 
             DateFormat dfGitDate = new SimpleDateFormat(params.getGitDateFormat()); // default timezone, default locale
             if (params.getDateFormatTimeZone() != null) dfGitDate.setTimeZone(TimeZone.getTimeZone(params.getDateFormatTimeZone()));
-            String authorDate = dfGitDate.format(headCommit.getAuthorIdent().getWhen());
-            String commitDate = dfGitDate.format(headCommit.getCommitterIdent().getWhen());
+            String authorDate = isRequired("authorDate") ? dfGitDate.format(headCommit.getAuthorIdent().getWhen()) : null;
+            String commitDate = isRequired("commitDate") ? dfGitDate.format(headCommit.getCommitterIdent().getWhen()) : null;
 
-            int commitsCount = countCommits(revWalk, headCommit, params.getCountCommitsSinceInclusive(), params.getCountCommitsSinceExclusive(),
-                params.getCountCommitsInPath());
-            // don't use `headCommit`, `revWalk` from here on!
+            Future<String> commitsCountPhase = isRequired("commitsCount") && !countWithDescribe ? runPhase("commitsCount", () -> {
+                try (RevWalk walk = new RevWalk(repo)) { // own walk, since the phase may outlive `extract()` (see `extractionTimeout`)
+                    return storeLastValue(commitsCountKey, Integer.toString(countCommits(walk, walk.parseCommit(headObjectId),
+                        params.getCountCommitsSinceInclusive(), params.getCountCommitsSinceExclusive(), params.getCountCommitsInPath())));
+                }
+            }) : null;
 
-            String describe = readDescribe(git);
+            String buildDate = formatBuildDate();
 
-            SimpleDateFormat dfBuildDate = new SimpleDateFormat(params.getBuildDateFormat());
-            if (params.getDateFormatTimeZone() != null) dfBuildDate.setTimeZone(TimeZone.getTimeZone(params.getDateFormatTimeZone()));
-            String buildDate = dfBuildDate.format(new Date());
+            String tag = tagPhase != null ? getBeforeDeadline(tagPhase, "tag") : null;
+            String describe = describePhase != null ? getBeforeDeadline(describePhase, "describe") : null;
+            String commitsCountAsString = commitsCountPhase != null ? getBeforeDeadline(commitsCountPhase, commitsCountKey)
+                : countWithDescribe ? getBeforeDeadline(describePhase, commitsCountKey, () -> Integer.toString(describeWalkCommitsCount)) : null;
 
             String revision = headSha1;
             String shortRevision = abbreviateSha1(headSha1, params.getShortRevisionLength());
-            String dirty = gitStatusDirty ? params.getDirtyValue() : "";
-            String commitsCountAsString = Integer.toString(commitsCount);
+            String dirty = isRequired("dirty") ? (isGitStatusDirty() ? params.getDirtyValue() : "") : null;
 
-            String buildNumber = defaultBuildNumber(tag, branch, commitsCountAsString, shortRevision, dirty);
+            String buildNumber = requiredProperties.containsAll(defaultBuildNumberInputs)
+                ? defaultBuildNumber(tag, branch, commitsCountAsString, shortRevision, dirty) : null;
 
             logVerbose("extracting properties for buildNumber: " + (System.currentTimeMillis() - t) + " ms");
 
@@ -164,24 +525,74 @@ public class BuildNumberExtractor {
             res.put("describe", describe);
             res.put("buildDate", buildDate);
             res.put("buildNumber", buildNumber);
+            res.keySet().retainAll(requiredProperties);
 
-            if (params.getBuildNumberFormat() != null) {
+            if (params.getBuildNumberFormat() != null && isRequired("buildNumber")) {
                 t = System.currentTimeMillis();
-                String jsBuildNumber = formatBuildNumberWithJS(res);
-                logVerbose("formatting buildNumber with JS: " + (System.currentTimeMillis() - t) + " ms");
-                res.put("buildNumber", jsBuildNumber); // overwrites default buildNumber
+                String formattedBuildNumber;
+                try (ExtractionMetrics.Phase phase = metrics.startPhase("format")) {
+                    formattedBuildNumber = formatBuildNumber(res);
+                }
+                logVerbose("formatting buildNumber: " + (System.currentTimeMillis() - t) + " ms");
+                res.put("buildNumber", formattedBuildNumber); // overwrites default buildNumber
             }
 
+            res.keySet().retainAll(requestedProperties); // drop properties only required to compose the buildNumber
+            if (commitsCountInPathsPhase != null)
+                for (String path : countCommitsInPaths)
+                    res.put(COMMITS_COUNT_IN_PATH_PREFIX + path, getBeforeDeadline(commitsCountInPathsPhase, commitsCountKey(null, null, path),
+                        () -> Integer.toString(get(commitsCountInPathsPhase).get(path))));
+
             logVerbose("all extracted properties: " + res);
-            log("BUILDNUMBER: " + res.get("buildNumber"));
+            if (res.containsKey("buildNumber")) log("BUILDNUMBER: " + res.get("buildNumber"));
 
-            // ensure all properties are set
-            for (String property : propertyNames)
+            // ensure all requested properties are set
+            for (String property : requestedProperties)
                 if (res.get(property) == null) throw new RuntimeException("Property '" + property + "' is not set");
 
+            if (watchEntry != null && isResultCacheable() && staleProperties.isEmpty() && !workTreeUnwatched)
+                watchEntry.putResult(resultKey, Collections.unmodifiableMap(new TreeMap<>(res)), watchGeneration);
+
+            finishMetrics();
             return res;
+        } finally {
+            if (executor != null) executor.shutdown(); // no more phases to run
         }
+    }
+
+    /** @return key of a commits count in {@link LastResult}; parameters as given (tags not resolved) */
+    private static String commitsCountKey(String countCommitsSinceInclusive, String countCommitsSinceExclusive, String countCommitsInPath) {
+        return LastResult.key("commitsCount", CommitsCountCache.paramsKey(countCommitsSinceInclusive, countCommitsSinceExclusive, countCommitsInPath));
+    }
+
+    /** @param cachedResult result of a previous extraction with the same parameters, repository unchanged since then
+     *  @return copy of the cached result with current `buildDate` */
+    private Map<String, String> extractFromCache(Map<String, String> cachedResult) {
+        if (executor != null) executor.shutdown(); // no more phases to run
+        Map<String, String> res = new TreeMap<>(cachedResult);
+        if (res.containsKey("buildDate")) res.put("buildDate", formatBuildDate());
+        logVerbose("using result from in-process cache (repository unchanged): " + res);
+        if (res.containsKey("buildNumber")) log("BUILDNUMBER: " + res.get("buildNumber"));
+        finishMetrics();
+        return res;
+    }
+
+    private String formatBuildDate() {
+        SimpleDateFormat dfBuildDate = new SimpleDateFormat(params.getBuildDateFormat());
+        if (params.getDateFormatTimeZone() != null) dfBuildDate.setTimeZone(TimeZone.getTimeZone(params.getDateFormatTimeZone()));
+        return dfBuildDate.format(new Date());
+    }
 
+    private void finishMetrics() {
+        metrics.add("total", System.currentTimeMillis() - startTime);
+        logVerbose("metrics: " + metrics);
+        if (params.getMetricsFile() != null) {
+            try {
+                metrics.writeJson(params.getMetricsFile());
+            } catch (IOException e) {
+                log("Cannot write metrics file: " + e); // not critical
+            }
+        }
     }
 
     private static String abbreviateSha1(String sha1, int length) {
@@ -194,6 +605,7 @@ public class BuildNumberExtractor {
     }
 
     private String readCurrentBranch(String headSha1) throws IOException {
+        if (headBranch != null) return headBranch;
         String branch = repo.getBranch();
         // should not happen
         if (null == branch) return EMPTY_STRING;
@@ -201,11 +613,18 @@ public class BuildNumberExtractor {
         return branch;
     }
 
-    private String readTag(String sha1) {
-        Map<String, SortedSet<String>> tagMap = loadTagsMap();
-        SortedSet<String> tags = tagMap.get(sha1);
-        if (tags == null) return EMPTY_STRING;
-        return String.join(";", tags);
+    /** @return tag index, loaded once and shared by `tag` and `describe` phases */
+    private synchronized TagIndex getTagIndex() throws IOException {
+        if (tagIndex == null) {
+            tagIndex = TagIndex.open(repo, gitDir, metrics.refsPeeled);
+            logVerbose("tag index: " + tagIndex.size() + " tags" + (tagIndex.rebuilt ? ", rebuilt" : ""));
+        }
+        return tagIndex;
+    }
+
+    /** @return tags pointing to the commit, see {@link TagIndex} */
+    String readTag(ObjectId commit) throws IOException {
+        return getTagIndex().getTagNames(commit);
     }
 
     private static String readParent(RevCommit commit) {
@@ -222,14 +641,41 @@ public class BuildNumberExtractor {
         return Stream.of(parents).map(p -> abbreviateSha1(p.getId().name()/*SHA-1*/, length)).collect(Collectors.joining(";"));
     }
 
-    private static String readDescribe(Git git) throws Exception {
+    /** @param countCommits if `true`, all commits reachable from HEAD get counted in the same traversal (result in {@link #describeWalkCommitsCount}),
+     *  unless the count is cached
+     *  @return same as {@link #readDescribe(Git)}, see {@link HistoryWalk} */
+    String readDescribe(boolean countCommits) throws Exception {
+        CommitsCountCache cache = countCommits && params.getCacheCommitsCount() ? new CommitsCountCache(gitDir) : null;
+        try (HistoryWalk walk = new HistoryWalk(repo, getTagIndex(), metrics.commitsWalked)) {
+            RevCommit headCommit = walk.parseCommit(headObjectId);
+            Integer cached = cache != null ? cache.get(headCommit, "") : null;
+            Integer fromManifest = countCommits && cached == null ? countWithManifest("") : null;
+            Integer fromBitmaps = countCommits && cached == null && fromManifest == null ? countWithBitmaps(cache) : null;
+            // with cached counts of ancestors, incremental counting (see `countAllCommits`) is cheaper than a complete traversal
+            boolean countInWalk = countCommits && cached == null && fromManifest == null && fromBitmaps == null && (cache == null || !cache.hasEntries(""));
+            String res = walk.describe(headCommit, countInWalk);
+            if (countCommits) {
+                if (cached != null) logVerbose("commitsCount: using cached value");
+                int count = cached != null ? cached : fromManifest != null ? fromManifest : fromBitmaps != null ? fromBitmaps
+                    : countInWalk ? walk.getCommitsCount() : countAllCommits(cache, headCommit);
+                if (cached == null && cache != null) storeCommitsCount(cache, headCommit, "", count);
+                describeWalkCommitsCount = count;
+            }
+            return res;
+        }
+    }
+
+    /** Uses `DescribeCommand`, i.e. a history walk of its own, with all tags peeled again. Replaced by {@link #readDescribe(boolean)},
+     *  kept for reference (benchmarks). */
+    static String readDescribe(Git git) throws Exception {
        String describe = git.describe().setLong(true).setAlways(true).call();
         if (describe == null || describe.isEmpty()) return EMPTY_STRING;
         return describe;
     }
 
-    /** @return Map sha1 - tag names */
-    private Map<String, SortedSet<String>> loadTagsMap() {
+    /** Peels all tags. Replaced by {@link TagIndex}, kept for reference (benchmarks).
+     *  @return Map sha1 - tag names */
+    Map<String, SortedSet<String>> loadTagsMap() {
         Map<String, Ref> refMap = repo.getTags(); // key: short tag name ("v1.0"), value: ref with full tag name ("refs/tags/v1.0")
         Map<String, SortedSet<String>> res = new HashMap<>(refMap.size());
         for (Map.Entry<String, Ref> entry : refMap.entrySet()) {
@@ -243,31 +689,204 @@ public class BuildNumberExtractor {
      *  @return SHA-1 corresponding to the tag */
     private String extractPeeledSha1(Ref tagRef) {
         Ref peeled = repo.peel(tagRef);
+        metrics.refsPeeled.incrementAndGet();
         if (peeled.getPeeledObjectId() != null) return peeled.getPeeledObjectId().name(); // annotated tag
         else return peeled.getObjectId().name(); // lightweight tag
     }
 
     /** @param walk a RevWalk whose iterator hasn't been accessed before. */
-    private int countCommits(RevWalk walk, RevCommit headCommit, String countCommitsSinceInclusive, String countCommitsSinceExclusive,
+    int countCommits(RevWalk walk, RevCommit headCommit, String countCommitsSinceInclusive, String countCommitsSinceExclusive,
         String countCommitsInPath) throws Exception {
+        // tags are resolved, so that moving a tag doesn't return stale counts
+        String paramsKey = CommitsCountCache.paramsKey(countCommitsSinceInclusive != null ? getSha1(countCommitsSinceInclusive) : null,
+            countCommitsSinceExclusive != null ? getSha1(countCommitsSinceExclusive) : null, countCommitsInPath);
+        CommitsCountCache cache = params.getCacheCommitsCount() ? new CommitsCountCache(gitDir) : null;
+        if (cache != null) {
+            Integer cached = cache.get(headCommit, paramsKey);
+            if (cached != null) {
+                logVerbose("commitsCount: using cached value");
+                return cached;
+            }
+        }
+        if (countCommitsSinceInclusive == null && countCommitsSinceExclusive == null) {
+            Integer fromManifest = countWithManifest(paramsKey);
+            if (fromManifest != null) return fromManifest;
+        }
+        if (paramsKey.isEmpty()) {
+            Integer fromBitmaps = countWithBitmaps(cache);
+            if (fromBitmaps != null) {
+                if (cache != null) storeCommitsCount(cache, headCommit, paramsKey, fromBitmaps);
+                return fromBitmaps;
+            }
+        }
+
+        // note: incremental counting is only exact if all commits get counted (it relies on reachability only, not on traverse order or path filter)
+        int res = (cache != null && paramsKey.isEmpty() && cache.hasEntries(paramsKey)) ? countAllCommits(cache, headCommit)
+            : walkCommits(walk, headCommit, countCommitsSinceInclusive, countCommitsSinceExclusive, countCommitsInPath);
+
+        if (cache != null) storeCommitsCount(cache, headCommit, paramsKey, res);
+        return res;
+    }
+
+    private void storeCommitsCount(CommitsCountCache cache, RevCommit headCommit, String paramsKey, int count) throws IOException {
+        if (count < 0 || isShallow()) return; // incomplete history
+        cache.put(headCommit, paramsKey, count);
+        saveCommitsCountCache(cache);
+    }
+
+    private void saveCommitsCountCache(CommitsCountCache cache) {
+        try {
+            cache.save();
+        } catch (IOException e) {
+            log("Cannot save commits count cache: " + e); // e.g. read only file system; not critical
+        }
+    }
+
+    /** Counts commits for each path (cached counts are reused), see {@link PathCommitsCounter}.
+     *  @return path - commits count */
+    Map<String, Integer> countCommitsInPaths(List<String> paths) throws IOException {
+        CommitsCountCache cache = params.getCacheCommitsCount() ? new CommitsCountCache(gitDir) : null;
+        Map<String, Integer> res = new LinkedHashMap<>();
+        List<String> uncached = new ArrayList<>();
+        for (String path : paths) {
+            String paramsKey = CommitsCountCache.paramsKey(null, null, path);
+            Integer cached = cache != null ? cache.get(headObjectId, paramsKey) : null;
+            if (cached == null) cached = countWithManifest(paramsKey);
+            res.put(path, cached);
+            if (cached == null) uncached.add(path);
+        }
+        logVerbose("commitsCountInPaths: " + (paths.size() - uncached.size()) + " cached value(s)");
+        if (uncached.isEmpty()) return res;
+
+        try (PathCommitsCounter counter = new PathCommitsCounter(repo, uncached, metrics.commitsWalked)) {
+            Map<String, Integer> counts = counter.count(headObjectId);
+            res.putAll(counts);
+            if (cache != null && !isShallow()) {
+                for (Map.Entry<String, Integer> e : counts.entrySet())
+                    if (e.getValue() >= 0) cache.put(headObjectId, CommitsCountCache.paramsKey(null, null, e.getKey()), e.getValue());
+                saveCommitsCountCache(cache);
+            }
+        }
+        return res;
+    }
+
+    /** @return `true` if the repository is a shallow clone, i.e. the history ends at boundary commits listed in `.git/shallow` */
+    private synchronized boolean isShallow() throws IOException {
+        if (shallow == null) {
+            try (ObjectReader reader = repo.newObjectReader()) {
+                shallow = !reader.getShallowCommits().isEmpty();
+            }
+        }
+        return shallow;
+    }
+
+    /** @param paramsKey see {@link CommitsCountCache#paramsKey(String, String, String)}
+     *  @return count of HEAD from `commitsCountManifest`, if the repository is a shallow clone; `null` if not available */
+    private Integer countWithManifest(String paramsKey) throws IOException {
+        if (params.getCommitsCountManifest() == null || !isShallow()) return null;
+        CommitsCountManifest manifest = getManifest();
+        if (manifest == null) return null;
+        Integer res = paramsKey.isEmpty() ? Integer.valueOf(manifest.countAllCommits(repo, headObjectId, metrics.commitsWalked)) : manifest.get(headObjectId, paramsKey);
+        if (res == null || res < 0) {
+            log("commitsCount: " + (paramsKey.isEmpty() ? "shallow boundary commit" : "HEAD (" + paramsKey + ")")
+                + " not found in commitsCountManifest, only fetched commits are counted");
+            return null;
+        }
+        logVerbose("commitsCount: using commitsCountManifest" + (paramsKey.isEmpty() ? "" : " (" + paramsKey + ")"));
+        return res;
+    }
+
+    /** @param cache for counts of commits with bitmap (saved with the count of HEAD); may be `null`
+     *  @return count of all commits reachable from HEAD, from the reachability bitmaps of the pack (see {@link BitmapCommitsCounter});
+     *  `null` if the repository has no bitmaps (no `git gc` yet) or is a shallow clone */
+    private Integer countWithBitmaps(CommitsCountCache cache) {
+        try {
+            if (isShallow()) return null;
+            Integer res = BitmapCommitsCounter.count(repo, headObjectId, cache, metrics.commitsWalked);
+            if (res != null) logVerbose("commitsCount: using pack bitmaps");
+            return res;
+        } catch (IOException e) {
+            log("Cannot count commits with pack bitmaps, walking history instead: " + e); // e.g. unsupported bitmap format
+            return null;
+        }
+    }
+
+    /** @return manifest; `null` if it cannot be read (not critical: fetched commits are counted then) */
+    private synchronized CommitsCountManifest getManifest() {
+        if (!manifestLoaded) {
+            manifestLoaded = true;
+            try {
+                manifest = CommitsCountManifest.load(params.getCommitsCountManifest());
+                logVerbose("commitsCountManifest: " + manifest.size() + " commits");
+            } catch (IOException e) {
+                log("Cannot read commitsCountManifest: " + e);
+            }
+        }
+        return manifest;
+    }
+
+    /** Counts all commits reachable from HEAD. The walk doesn't go beyond commits with a cached count: if all new commits descend from
+     *  one cached commit, they are added to its count, so that the cost depends on the number of new commits rather than on repository
+     *  size (see {@link CompactCommitWalk#countSinceKnown}). Otherwise, e.g. after merging a branch forked before the cached commit,
+     *  all commits are counted: it isn't known which of the new commits are reachable from the cached commit, and a walk
+     *  in commit date order may stop too early if commit times are skewed. */
+    private int countAllCommits(CommitsCountCache cache, RevCommit headCommit) throws Exception {
+        if (!isShallow()) {
+            try (CompactCommitWalk walk = new CompactCommitWalk(repo, metrics.commitsWalked)) {
+                int res = walk.countSinceKnown(headCommit, commit -> cache.get(commit, ""));
+                if (res >= 0) {
+                    logVerbose("commitsCount: counted from cached ancestor");
+                    return res;
+                }
+            } catch (MissingObjectException ex) {
+                return -1; // incomplete history
+            }
+            logVerbose("commitsCount: new commits don't descend from a single cached ancestor, counting all commits");
+        }
+        try (RevWalk walk = new RevWalk(repo)) {
+            return walkCommits(walk, walk.parseCommit(headCommit), null, null, null);
+        }
+    }
+
+    /** @param walk a RevWalk whose iterator hasn't been accessed before; only used with `countCommitsInPath` and in shallow clones,
+     *  other walks are done with compact state per commit (see {@link CompactCommitWalk}) */
+    private int walkCommits(RevWalk walk, RevCommit headCommit, String countCommitsSinceInclusive, String countCommitsSinceExclusive,
+        String countCommitsInPath) throws Exception {
+        if (countCommitsInPath == null && !isShallow()) {
+            try (CompactCommitWalk compactWalk = new CompactCommitWalk(repo, metrics.commitsWalked)) {
+                if (countCommitsSinceInclusive == null && countCommitsSinceExclusive == null) return compactWalk.count(headCommit);
+                boolean inclusive = countCommitsSinceInclusive != null;
+                String ancestor = inclusive ? countCommitsSinceInclusive : countCommitsSinceExclusive;
+                String parameter = inclusive ? "countCommitsSinceInclusive" : "countCommitsSinceExclusive";
+                int res = compactWalk.countSince(headCommit, getAncestorId(ancestor, parameter), inclusive);
+                if (res < 0) throw new IllegalArgumentException("commit '" + ancestor + "' not found (parameter '" + parameter + "')");
+                return res;
+            } catch (MissingObjectException ex) {
+                return -1; // incomplete history
+            }
+        }
         try {
             // walk.reset(); // only needed if iterator has been accessed before
             if (countCommitsInPath != null) {
                 walk.setTreeFilter(AndTreeFilter.create(PathFilter.create(countCommitsInPath), TreeFilter.ANY_DIFF));
             }
             walk.setRetainBody(false);
+            // order of Eclipse's History view (PlotWalk), which `countCommitsSince...` is based on; PlotWalk itself
+            // creates a PlotCommit per commit and looks up the refs of each commit, which isn't needed for counting
+            walk.sort(RevSort.TOPO, true);
             walk.markStart(headCommit);
             int res = 0;
             if (countCommitsSinceInclusive != null) {
-                String ancestorSha1 = getSha1(countCommitsSinceInclusive);
-                for (RevCommit commit : walk) { res += 1; if (commit.getId().getName().startsWith(ancestorSha1)) return res; }
+                AbbreviatedObjectId ancestor = getAncestorId(countCommitsSinceInclusive, "countCommitsSinceInclusive");
+                for (RevCommit commit : walk) { metrics.commitsWalked.incrementAndGet(); res += 1; if (ancestor.prefixCompare(commit) == 0) return res; }
                 throw new IllegalArgumentException("commit '" + countCommitsSinceInclusive + "' not found (parameter 'countCommitsSinceInclusive')");
             } else if (countCommitsSinceExclusive != null) {
-                String ancestorSha1 = getSha1(countCommitsSinceExclusive);
-                for (RevCommit commit : walk) { if (commit.getId().getName().startsWith(ancestorSha1)) return res; res += 1; }
+                AbbreviatedObjectId ancestor = getAncestorId(countCommitsSinceExclusive, "countCommitsSinceExclusive");
+                for (RevCommit commit : walk) { metrics.commitsWalked.incrementAndGet(); if (ancestor.prefixCompare(commit) == 0) return res; res += 1; }
                 throw new IllegalArgumentException("commit '" + countCommitsSinceExclusive + "' not found (parameter 'countCommitsSinceExclusive')");
             } else {
                 for (RevCommit commit : walk) { res += 1; }
+                metrics.commitsWalked.addAndGet(res);
             }
             return res;
         } catch (RevWalkException ex) {
@@ -276,16 +895,69 @@ public class BuildNumberExtractor {
         }
     }
 
+    /** @param tagOrSha1 see {@link #getSha1(String)}
+     *  @return SHA-1 (complete or abbreviated), parsed once, so that commits of a history walk are compared without creating their hex strings */
+    private AbbreviatedObjectId getAncestorId(String tagOrSha1, String parameter) throws Exception {
+        String sha1 = getSha1(tagOrSha1);
+        if (!AbbreviatedObjectId.isId(sha1)) throw new IllegalArgumentException("commit '" + tagOrSha1 + "' not found (parameter '" + parameter + "')");
+        return AbbreviatedObjectId.fromString(sha1);
+    }
+
     /** If the parameter is a tag, returns SHA-1 of the commit it points to; otherwise returns the parameter unchanged. 
      * @param tagOrSha1 tag (annotated or lightweight) or SHA-1 (complete or abbreviated) 
      * @return SHA-1 (complete or abbreviated) */
     private String getSha1(String tagOrSha1) throws Exception {
+        if (refSnapshot != null) {
+            if (refSnapshot.getObjectId(Constants.R_TAGS + tagOrSha1) == null) return tagOrSha1; // SHA-1
+            ObjectId peeled = refSnapshot.getPeeledObjectId(Constants.R_TAGS + tagOrSha1);
+            if (peeled != null) return peeled.name();
+            // unknown whether annotated (loose tag): peeled with the object database
+        }
         Ref ref = repo.exactRef(Constants.R_TAGS + tagOrSha1);
         if (ref == null) return tagOrSha1; // SHA-1
         return extractPeeledSha1(ref); // tag
     }
 
-    private String formatBuildNumberWithJS(Map<String, String> bnProperties) throws ScriptException {
+    /** Formats with the built-in engine (see {@link BuildNumberFormat}), unless JS engine is explicitly requested or the format is not supported
+     *  by the built-in engine. The JS engine (if available) also takes over if the format cannot be evaluated (e.g. undefined variable, so that
+     *  the error is the one of the JS engine), or if the result is a number (formatted differently, e.g. Nashorn: `18.0`). */
+    private String formatBuildNumber(Map<String, String> bnProperties) throws ScriptException {
+        if (!params.getUseJavaScriptEngine()) {
+            BuildNumberFormat format = null;
+            try {
+                format = BuildNumberFormat.compile(params.getBuildNumberFormat());
+            } catch (IllegalArgumentException e) {
+                log("buildNumberFormat not supported by built-in engine (" + e.getMessage() + "), using JavaScript engine");
+            }
+            if (format != null) {
+                Object res;
+                try {
+                    res = format.evaluate(bnProperties);
+                } catch (IllegalArgumentException e) {
+                    ScriptEngine jsEngine = findJavaScriptEngine();
+                    if (jsEngine == null) throw e;
+                    log("buildNumberFormat cannot be evaluated by built-in engine (" + e.getMessage() + "), using JavaScript engine");
+                    return formatBuildNumberWithJS(jsEngine, bnProperties);
+                }
+                if (!(res instanceof Double)) return BuildNumberFormat.toStr(res);
+                ScriptEngine jsEngine = findJavaScriptEngine();
+                return jsEngine == null ? BuildNumberFormat.toStr(res) : formatBuildNumberWithJS(jsEngine, bnProperties);
+            }
+        }
+        return formatBuildNumberWithJS(bnProperties);
+    }
+
+    String formatBuildNumberWithJS(Map<String, String> bnProperties) throws ScriptException {
+        ScriptEngine jsEngine = findJavaScriptEngine();
+        if (jsEngine == null) {
+            log("JavaScript not found!");
+            return "UNKNOWN_JS_BUILDNUMBER";
+        }
+        return formatBuildNumberWithJS(jsEngine, bnProperties);
+    }
+
+    /** @return JavaScript engine; `null` if not available (Java 15+ without additional engine) */
+    private static ScriptEngine findJavaScriptEngine() {
         String engineName = "JavaScript";
         // find JavaScript engine using context class loader
         ScriptEngine jsEngine = new ScriptEngineManager().getEngineByName(engineName);
@@ -294,11 +966,10 @@ public class BuildNumberExtractor {
             // this does work in Eclipse, see ScriptEngineManager constructor Javadoc for what passing a null means here
             jsEngine = new ScriptEngineManager(null).getEngineByName(engineName);
         }
-        if (jsEngine == null) {
-            log(engineName + " not found!");
-            return "UNKNOWN_JS_BUILDNUMBER";
-        }
+        return jsEngine;
+    }
 
+    private String formatBuildNumberWithJS(ScriptEngine jsEngine, Map<String, String> bnProperties) throws ScriptException {
         for (Map.Entry<String, String> e : bnProperties.entrySet())
             jsEngine.put(e.getKey(), e.getValue());
         Object res = jsEngine.eval(params.getBuildNumberFormat());
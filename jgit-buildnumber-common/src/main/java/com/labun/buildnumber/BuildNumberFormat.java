@@ -0,0 +1,528 @@
+package com.labun.buildnumber;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Compiled `buildNumberFormat`. Evaluates the subset of JavaScript typically used to compose a build number, without a script engine.
+ *  <p>
+ *  Supported: string and number literals, `true`, `false`, variables (the extracted properties), assignments (`name = expr;`),
+ *  operators `+ - ! && || ?:`, comparisons `== != === !== < <= > >=`, parentheses, comments, `.length`, and the string methods
+ *  `substring`, `substr`, `slice`, `charAt`, `indexOf`, `lastIndexOf`, `toUpperCase`, `toLowerCase`, `trim`, `replace` (string pattern only).
+ *  Semantics follow JavaScript (e.g. `+` concatenates if one operand is a string; empty string and 0 are falsy; statements are separated
+ *  by `;` or a line break; the value of the last statement is returned).
+ *  <p>
+ *  Differences to a JS engine, handled by the caller (see `BuildNumberExtractor#formatBuildNumber`): a numeric result (e.g. `commitsCount - 1`)
+ *  is formatted as in JavaScript (`18`), whereas Nashorn returns a Java `Double` (`18.0`); errors at evaluation time (e.g. undefined variable)
+ *  are thrown as `IllegalArgumentException`.
+ *  <p>
+ *  Formats are parsed once into a tree of closures and cached (see {@link #compile(String)}); evaluation is thread-safe. */
+class BuildNumberFormat {
+
+    private static final Map<String, BuildNumberFormat> cache = new ConcurrentHashMap<>();
+
+    private static final List<String> methods = Arrays.asList("substring", "substr", "slice", "charAt", "indexOf", "lastIndexOf", "toUpperCase",
+        "toLowerCase", "trim", "replace");
+
+    /** Compiled expression or statement. Values are `String`, `Double`, or `Boolean`, as in JavaScript. */
+    private interface Expr {
+        Object eval(Map<String, Object> vars);
+    }
+
+    private final List<Expr> statements;
+
+    private BuildNumberFormat(List<Expr> statements) {
+        this.statements = statements;
+    }
+
+    /** @return compiled format, from cache if already compiled
+     *  @throws IllegalArgumentException if the format uses unsupported syntax (it may still be valid JavaScript) */
+    static BuildNumberFormat compile(String format) {
+        BuildNumberFormat res = cache.get(format);
+        if (res == null) {
+            res = new Parser(format).parseProgram();
+            cache.put(format, res);
+        }
+        return res;
+    }
+
+    /** @param properties extracted properties, exposed as variables
+     *  @return value of the last statement, converted to String
+     *  @throws IllegalArgumentException if the format cannot be evaluated (e.g. undefined variable) */
+    String format(Map<String, String> properties) {
+        return toStr(evaluate(properties));
+    }
+
+    /** @return value of the last statement: `String`, `Double`, or `Boolean`
+     *  @see #format(Map) */
+    Object evaluate(Map<String, String> properties) {
+        Map<String, Object> vars = new HashMap<>(properties);
+        Object res = null;
+        for (Expr statement : statements)
+            res = statement.eval(vars);
+        return res;
+    }
+
+    // ---------- JavaScript semantics ----------
+
+    private static boolean isTruthy(Object value) {
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Double) return (Double) value != 0 && !((Double) value).isNaN();
+        return !((String) value).isEmpty();
+    }
+
+    private static double toNumber(Object value) {
+        if (value instanceof Double) return (Double) value;
+        if (value instanceof Boolean) return (Boolean) value ? 1 : 0;
+        String s = trim((String) value);
+        if (s.isEmpty()) return 0;
+        if (s.matches("0[xX][0-9a-fA-F]+")) return new BigInteger(s.substring(2), 16).doubleValue();
+        if (!s.matches("[+-]?(Infinity|(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?)")) return Double.NaN; // Java also accepts "1d", "0x1p3", ...
+        return Double.parseDouble(s);
+    }
+
+    /** JavaScript `ToIntegerOrInfinity`: NaN is 0, fractions are truncated towards 0 */
+    private static double toInteger(Object value) {
+        double d = toNumber(value);
+        return Double.isNaN(d) ? 0 : d < 0 ? Math.ceil(d) : Math.floor(d);
+    }
+
+    /** JavaScript `ToString`, numbers as by `Number::toString` of the spec (ECMA-262): shortest digits that convert back to the number */
+    static String toStr(Object value) {
+        if (value == null) return "undefined"; // missing method argument
+        if (!(value instanceof Double)) return String.valueOf(value);
+        double d = (Double) value;
+        if (Double.isNaN(d)) return "NaN";
+        if (Double.isInfinite(d)) return d > 0 ? "Infinity" : "-Infinity";
+        if (d == 0) return "0"; // also -0
+        if (d < 0) return "-" + toStr(-d);
+        if (d == Math.rint(d) && d <= 1L << 53) return Long.toString((long) d); // exact, all digits are significant
+
+        // not Double.toString: before Java 19, it sometimes has more digits than needed (2^60 = 1152921504606846980 instead of ...7000);
+        // laid out as in JavaScript; d = 0.digits * 10^n
+        BigDecimal decimal = shortestDecimal(d);
+        String digits = decimal.unscaledValue().toString();
+        int k = digits.length(), n = k - decimal.scale();
+        if (k <= n && n <= 21) return digits + repeat('0', n - k);
+        if (0 < n && n <= 21) return digits.substring(0, n) + "." + digits.substring(n);
+        if (-6 < n && n <= 0) return "0." + repeat('0', -n) + digits;
+        String exponent = "e" + (n - 1 >= 0 ? "+" : "-") + Math.abs(n - 1);
+        return k == 1 ? digits + exponent : digits.charAt(0) + "." + digits.substring(1) + exponent;
+    }
+
+    /** @return decimal with the fewest significant digits that converts back to `d`; if several ones, the closest to `d` (ties: even)
+     *  (the exact value of `d`, rounded to the fewest digits) */
+    private static BigDecimal shortestDecimal(double d) {
+        BigDecimal exact = new BigDecimal(d);
+        for (int precision = 1;; precision++) {
+            BigDecimal res = exact.round(new MathContext(precision, RoundingMode.HALF_EVEN));
+            if (res.doubleValue() == d) return res.stripTrailingZeros(); // at most 17 digits
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /** JavaScript `WhiteSpace` and `LineTerminator` (Java's `String.trim()` also removes control characters, but not e.g. no-break space) */
+    private static boolean isWhitespace(char c) {
+        return c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r' || c == ' ' || c == 0xA0 || c == 0xFEFF || c == 0x2028 || c == 0x2029
+            || Character.getType(c) == Character.SPACE_SEPARATOR;
+    }
+
+    private static String trim(String s) {
+        int start = 0, end = s.length();
+        while (start < end && isWhitespace(s.charAt(start))) start++;
+        while (end > start && isWhitespace(s.charAt(end - 1))) end--;
+        return s.substring(start, end);
+    }
+
+    private static boolean strictEquals(Object a, Object b) {
+        if (a instanceof Double && b instanceof Double) return ((Double) a).doubleValue() == ((Double) b).doubleValue(); // NaN != NaN
+        return a.equals(b);
+    }
+
+    private static boolean looseEquals(Object a, Object b) {
+        if (a.getClass() == b.getClass()) return strictEquals(a, b);
+        return toNumber(a) == toNumber(b);
+    }
+
+    /** @return negative, zero, or positive as in {@link Comparable}; `null` if not comparable (NaN) */
+    private static Integer compare(Object a, Object b) {
+        if (a instanceof String && b instanceof String) return ((String) a).compareTo((String) b);
+        double x = toNumber(a), y = toNumber(b);
+        if (Double.isNaN(x) || Double.isNaN(y)) return null;
+        return x < y ? -1 : x > y ? 1 : 0;
+    }
+
+    private static int toIndex(Object value, int length, boolean relativeToEnd) {
+        double d = toInteger(value);
+        if (relativeToEnd && d < 0) d += length;
+        return (int) Math.max(0, Math.min(length, d));
+    }
+
+    private static Object invoke(String method, Object target, List<Object> args) {
+        if (!(target instanceof String)) throw new IllegalArgumentException("'" + method + "' called on " + toStr(target) + " (not a string)");
+        String s = (String) target;
+        int len = s.length();
+        Object arg0 = args.size() > 0 ? args.get(0) : null, arg1 = args.size() > 1 ? args.get(1) : null;
+        switch (method) {
+        case "substring": {
+            int start = arg0 == null ? 0 : toIndex(arg0, len, false), end = arg1 == null ? len : toIndex(arg1, len, false);
+            return s.substring(Math.min(start, end), Math.max(start, end));
+        }
+        case "substr": {
+            int start = arg0 == null ? 0 : toIndex(arg0, len, true);
+            int count = arg1 == null ? len - start : toIndex(arg1, len - start, false);
+            return s.substring(start, start + count);
+        }
+        case "slice": {
+            int start = arg0 == null ? 0 : toIndex(arg0, len, true), end = arg1 == null ? len : toIndex(arg1, len, true);
+            return start < end ? s.substring(start, end) : "";
+        }
+        case "charAt": {
+            double index = arg0 == null ? 0 : toInteger(arg0);
+            return index >= 0 && index < len ? String.valueOf(s.charAt((int) index)) : "";
+        }
+        case "indexOf":
+            return (double) s.indexOf(toStr(arg0), arg1 == null ? 0 : toIndex(arg1, len, false));
+        case "lastIndexOf":
+            return (double) s.lastIndexOf(toStr(arg0), arg1 == null || Double.isNaN(toNumber(arg1)) ? len : toIndex(arg1, len, false));
+        case "toUpperCase":
+            return s.toUpperCase(Locale.ROOT); // JS: locale independent (default locale tr: "i" -> "\u0130")
+        case "toLowerCase":
+            return s.toLowerCase(Locale.ROOT);
+        case "trim":
+            return trim(s);
+        case "replace": {
+            String pattern = toStr(arg0);
+            int index = s.indexOf(pattern);
+            if (index < 0) return s;
+            return s.substring(0, index) + substitution(toStr(arg1), s, index, pattern) + s.substring(index + pattern.length()); // first occurrence only
+        }
+        default:
+            throw new IllegalStateException(method);
+        }
+    }
+
+    /** JavaScript `GetSubstitution` for a string pattern (no capture groups): `$$`, `$&`, `` $` ``, `$'`; other `$` are literal */
+    private static String substitution(String replacement, String s, int index, String pattern) {
+        if (replacement.indexOf('$') < 0) return replacement;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i), next = i + 1 < replacement.length() ? replacement.charAt(i + 1) : 0;
+            if (c != '$' || (next != '$' && next != '&' && next != '`' && next != '\'')) {
+                sb.append(c);
+                continue;
+            }
+            i++;
+            if (next == '$') sb.append('$');
+            else if (next == '&') sb.append(pattern);
+            else if (next == '`') sb.append(s, 0, index);
+            else sb.append(s, index + pattern.length(), s.length());
+        }
+        return sb.toString();
+    }
+
+    // ---------- parser ----------
+
+    /** Recursive descent parser, operator precedence as in JavaScript. */
+    private static class Parser {
+        private final String src;
+        private int pos;
+        /** end of the last token consumed, for detecting line breaks between statements */
+        private int tokenEnd;
+
+        Parser(String src) {
+            this.src = src;
+        }
+
+        BuildNumberFormat parseProgram() {
+            List<Expr> statements = new ArrayList<>();
+            while (!atEnd()) {
+                if (accept(";")) continue;
+                statements.add(parseStatement());
+                if (!atEnd() && src.substring(tokenEnd, pos).indexOf('\n') < 0 && !accept(";")) throw error("';' expected");
+            }
+            if (statements.isEmpty()) throw error("empty format");
+            return new BuildNumberFormat(statements);
+        }
+
+        private Expr parseStatement() {
+            int start = pos;
+            String name = identifier();
+            skipWhitespace();
+            if (name != null && !isKeyword(name) && !src.startsWith("==", pos) && accept("=")) {
+                Expr value = parseExpr();
+                return vars -> {
+                    Object v = value.eval(vars);
+                    vars.put(name, v);
+                    return v;
+                };
+            }
+            pos = start;
+            return parseExpr();
+        }
+
+        private Expr parseExpr() {
+            Expr condition = parseOr();
+            if (!accept("?")) return condition;
+            Expr ifTrue = parseExpr();
+            expect(":");
+            Expr ifFalse = parseExpr();
+            return vars -> isTruthy(condition.eval(vars)) ? ifTrue.eval(vars) : ifFalse.eval(vars);
+        }
+
+        private Expr parseOr() {
+            Expr res = parseAnd();
+            while (accept("||")) {
+                Expr left = res, right = parseAnd();
+                res = vars -> {
+                    Object v = left.eval(vars);
+                    return isTruthy(v) ? v : right.eval(vars);
+                };
+            }
+            return res;
+        }
+
+        private Expr parseAnd() {
+            Expr res = parseEquality();
+            while (accept("&&")) {
+                Expr left = res, right = parseEquality();
+                res = vars -> {
+                    Object v = left.eval(vars);
+                    return isTruthy(v) ? right.eval(vars) : v;
+                };
+            }
+            return res;
+        }
+
+        private Expr parseEquality() {
+            Expr res = parseRelational();
+            while (true) {
+                Expr left = res;
+                if (accept("===")) { Expr right = parseRelational(); res = vars -> strictEquals(left.eval(vars), right.eval(vars)); }
+                else if (accept("!==")) { Expr right = parseRelational(); res = vars -> !strictEquals(left.eval(vars), right.eval(vars)); }
+                else if (accept("==")) { Expr right = parseRelational(); res = vars -> looseEquals(left.eval(vars), right.eval(vars)); }
+                else if (accept("!=")) { Expr right = parseRelational(); res = vars -> !looseEquals(left.eval(vars), right.eval(vars)); }
+                else return res;
+            }
+        }
+
+        private Expr parseRelational() {
+            Expr res = parseAdditive();
+            while (true) {
+                Expr left = res;
+                if (accept("<=")) { Expr right = parseAdditive(); res = vars -> { Integer c = compare(left.eval(vars), right.eval(vars)); return c != null && c <= 0; }; }
+                else if (accept(">=")) { Expr right = parseAdditive(); res = vars -> { Integer c = compare(left.eval(vars), right.eval(vars)); return c != null && c >= 0; }; }
+                else if (accept("<")) { Expr right = parseAdditive(); res = vars -> { Integer c = compare(left.eval(vars), right.eval(vars)); return c != null && c < 0; }; }
+                else if (accept(">")) { Expr right = parseAdditive(); res = vars -> { Integer c = compare(left.eval(vars), right.eval(vars)); return c != null && c > 0; }; }
+                else return res;
+            }
+        }
+
+        private Expr parseAdditive() {
+            Expr res = parseUnary();
+            while (true) {
+                Expr left = res;
+                if (accept("+")) {
+                    Expr right = parseUnary();
+                    res = vars -> {
+                        Object a = left.eval(vars), b = right.eval(vars);
+                        if (a instanceof String || b instanceof String) return toStr(a) + toStr(b);
+                        return toNumber(a) + toNumber(b);
+                    };
+                } else if (accept("-")) {
+                    Expr right = parseUnary();
+                    res = vars -> toNumber(left.eval(vars)) - toNumber(right.eval(vars));
+                } else return res;
+            }
+        }
+
+        private Expr parseUnary() {
+            if (accept("!")) {
+                Expr operand = parseUnary();
+                return vars -> !isTruthy(operand.eval(vars));
+            }
+            if (accept("-")) {
+                Expr operand = parseUnary();
+                return vars -> -toNumber(operand.eval(vars));
+            }
+            return parsePostfix();
+        }
+
+        private Expr parsePostfix() {
+            Expr res = parsePrimary();
+            while (accept(".")) {
+                Expr target = res;
+                String name = identifier();
+                if ("length".equals(name)) {
+                    res = vars -> {
+                        Object v = target.eval(vars);
+                        if (!(v instanceof String)) throw new IllegalArgumentException("'length' of " + toStr(v) + " (not a string)");
+                        return (double) ((String) v).length();
+                    };
+                } else if (methods.contains(name)) {
+                    expect("(");
+                    List<Expr> args = new ArrayList<>();
+                    if (!accept(")")) {
+                        do args.add(parseExpr()); while (accept(","));
+                        expect(")");
+                    }
+                    res = vars -> {
+                        Object v = target.eval(vars);
+                        List<Object> values = new ArrayList<>(args.size());
+                        for (Expr arg : args)
+                            values.add(arg.eval(vars));
+                        return invoke(name, v, values);
+                    };
+                } else {
+                    throw error("unsupported property or method '" + name + "'");
+                }
+            }
+            return res;
+        }
+
+        private Expr parsePrimary() {
+            if (accept("(")) {
+                Expr res = parseExpr();
+                expect(")");
+                return res;
+            }
+            skipWhitespace();
+            if (atEnd()) throw error("unexpected end");
+            char c = src.charAt(pos);
+            if (c == '"' || c == '\'') {
+                String value = stringLiteral(c);
+                return vars -> value;
+            }
+            if (Character.isDigit(c) || (c == '.' && pos + 1 < src.length() && Character.isDigit(src.charAt(pos + 1)))) {
+                int start = pos;
+                while (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '.')) pos++;
+                tokenEnd = pos;
+                try {
+                    Double value = Double.parseDouble(src.substring(start, pos));
+                    return vars -> value;
+                } catch (NumberFormatException e) {
+                    pos = start;
+                    throw error("invalid number");
+                }
+            }
+            String name = identifier();
+            if (name == null) throw error("unexpected '" + c + "'");
+            if ("true".equals(name) || "false".equals(name)) {
+                Boolean value = Boolean.valueOf(name);
+                return vars -> value;
+            }
+            if (isKeyword(name)) throw error("unsupported keyword '" + name + "'");
+            return vars -> {
+                Object value = vars.get(name);
+                if (value == null) throw new IllegalArgumentException("'" + name + "' is not defined");
+                return value;
+            };
+        }
+
+        private String stringLiteral(char quote) {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (true) {
+                if (atEndOfSource()) throw error("unterminated string");
+                char c = src.charAt(pos++);
+                if (c == quote) break;
+                if (c == '\n') throw error("unterminated string");
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (atEndOfSource()) throw error("unterminated string");
+                char e = src.charAt(pos++);
+                switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'u':
+                    if (pos + 4 > src.length()) throw error("invalid escape");
+                    try {
+                        sb.append((char) Integer.parseInt(src.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("invalid escape");
+                    }
+                    pos += 4;
+                    break;
+                default: sb.append(e); // \\, \', \", ...
+                }
+            }
+            tokenEnd = pos;
+            return sb.toString();
+        }
+
+        /** @return identifier at current position (and moves behind it), or `null` */
+        private String identifier() {
+            skipWhitespace();
+            if (atEnd() || !Character.isJavaIdentifierStart(src.charAt(pos))) return null;
+            int start = pos;
+            while (pos < src.length() && Character.isJavaIdentifierPart(src.charAt(pos))) pos++;
+            tokenEnd = pos;
+            return src.substring(start, pos);
+        }
+
+        private static boolean isKeyword(String name) {
+            switch (name) {
+            case "true": case "false": case "null": case "undefined": case "var": case "let": case "const": case "function": case "new":
+            case "typeof": case "instanceof": case "in": case "if": case "else": case "return": case "this":
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        private boolean accept(String token) {
+            skipWhitespace();
+            if (!src.startsWith(token, pos)) return false;
+            pos += token.length();
+            tokenEnd = pos;
+            return true;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) throw error("'" + token + "' expected");
+        }
+
+        private boolean atEnd() {
+            skipWhitespace();
+            return pos >= src.length();
+        }
+
+        private boolean atEndOfSource() {
+            return pos >= src.length();
+        }
+
+        /** Skips whitespace and comments. */
+        private void skipWhitespace() {
+            while (pos < src.length()) {
+                char c = src.charAt(pos);
+                if (Character.isWhitespace(c)) pos++;
+                else if (src.startsWith("//", pos)) while (pos < src.length() && src.charAt(pos) != '\n') pos++;
+                else if (src.startsWith("/*", pos)) {
+                    int end = src.indexOf("*/", pos + 2);
+                    if (end < 0) throw error("unterminated comment");
+                    pos = end + 2;
+                } else break;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.labun.buildnumber;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/** Persistent cache of commit counts, stored in the Git directory (see {@link #getCommonGitDir(File)}).
+ *  Entries are keyed by commit SHA-1 plus the counting parameters (see {@link #paramsKey(String, String, String)}).
+ *  <p>
+ *  File format: one entry per line, <code>&lt;sha1> &lt;count> &lt;paramsKey></code>. Oldest entries are dropped when the cache grows too big. */
+class CommitsCountCache {
+
+    /** Sub-directory of the Git directory for all files written by "JGit Build Number". */
+    static final String DIRECTORY_NAME = "jgit-buildnumber";
+
+    private static final String FILE_NAME = "commits-count.cache";
+    private static final int MAX_ENTRIES_PER_KEY = 1000;
+
+    private final File file;
+
+    /** key: paramsKey, value: commit - commits count (in insertion order, oldest first) */
+    private Map<String, LinkedHashMap<ObjectId, Integer>> entries = new HashMap<>();
+
+    /** entries added since last load */
+    private Map<String, LinkedHashMap<ObjectId, Integer>> added = new HashMap<>();
+
+    CommitsCountCache(File gitDir) {
+        file = new File(new File(getCommonGitDir(gitDir), DIRECTORY_NAME), FILE_NAME);
+        entries = load(file);
+    }
+
+    /** Linked worktrees (`git worktree add`) have their own Git directory, but share objects and refs with the main one
+     *  (referenced by the `commondir` file). Files describing the shared history are therefore stored in the main Git directory.
+     *  @return common Git directory, or the given one if it isn't a linked worktree */
+    static File getCommonGitDir(File gitDir) {
+        File commonDirFile = new File(gitDir, "commondir");
+        if (!commonDirFile.isFile()) return gitDir;
+        try {
+            String path = new String(Files.readAllBytes(commonDirFile.toPath()), StandardCharsets.UTF_8).trim();
+            File commonDir = new File(path);
+            if (!commonDir.isAbsolute()) commonDir = new File(gitDir, path);
+            return commonDir.isDirectory() ? commonDir.getCanonicalFile() : gitDir;
+        } catch (IOException e) {
+            return gitDir;
+        }
+    }
+
+    /** @return key for counting parameters; empty string if all commits get counted */
+    static String paramsKey(String countCommitsSinceInclusive, String countCommitsSinceExclusive, String countCommitsInPath) {
+        if (countCommitsSinceInclusive == null && countCommitsSinceExclusive == null && countCommitsInPath == null) return "";
+        return "inPath=" + nullToEmpty(countCommitsInPath) + ",sinceInclusive=" + nullToEmpty(countCommitsSinceInclusive) + ",sinceExclusive="
+            + nullToEmpty(countCommitsSinceExclusive);
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    Integer get(AnyObjectId commit, String paramsKey) {
+        Map<ObjectId, Integer> counts = entries.get(paramsKey);
+        return counts == null ? null : counts.get(commit);
+    }
+
+    /** @return `true` if there are counts for these counting parameters (for any commit) */
+    boolean hasEntries(String paramsKey) {
+        Map<ObjectId, Integer> counts = entries.get(paramsKey);
+        return counts != null && !counts.isEmpty();
+    }
+
+    void put(AnyObjectId commit, String paramsKey, int count) {
+        if (paramsKey.indexOf('\n') >= 0 || paramsKey.indexOf('\r') >= 0) return; // cannot be stored in line based format
+        put(entries, commit.copy(), paramsKey, count);
+        put(added, commit.copy(), paramsKey, count);
+    }
+
+    private static void put(Map<String, LinkedHashMap<ObjectId, Integer>> map, ObjectId commit, String paramsKey, int count) {
+        LinkedHashMap<ObjectId, Integer> counts = map.computeIfAbsent(paramsKey, k -> new LinkedHashMap<>());
+        counts.remove(commit); // moves the entry to the end
+        counts.put(commit, count);
+    }
+
+    /** Writes the cache, if new entries have been added. Entries written meanwhile by other processes (e.g. parallel builds) are preserved.
+     *  Concurrent readers always see a complete file (atomic rename). */
+    void save() throws IOException {
+        if (added.isEmpty()) return;
+
+        Map<String, LinkedHashMap<ObjectId, Integer>> merged = load(file);
+        for (Map.Entry<String, LinkedHashMap<ObjectId, Integer>> e : added.entrySet())
+            for (Map.Entry<ObjectId, Integer> count : e.getValue().entrySet())
+                put(merged, count.getKey(), e.getKey(), count.getValue());
+
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile(FILE_NAME, ".tmp", file.getParentFile());
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, LinkedHashMap<ObjectId, Integer>> e : merged.entrySet()) {
+                    int skip = e.getValue().size() - MAX_ENTRIES_PER_KEY;
+                    for (Map.Entry<ObjectId, Integer> count : e.getValue().entrySet()) {
+                        if (skip-- > 0) continue; // drop oldest
+                        writer.write(count.getKey().name() + " " + count.getValue() + " " + e.getKey());
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        entries = merged;
+        added = new HashMap<>();
+    }
+
+    /** @return cache content; empty if the file doesn't exist or cannot be read (the file will be rewritten on save) */
+    private static Map<String, LinkedHashMap<ObjectId, Integer>> load(File file) {
+        Map<String, LinkedHashMap<ObjectId, Integer>> res = new HashMap<>();
+        if (!file.isFile()) return res;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 3 || !ObjectId.isId(parts[0])) continue; // skip garbage
+                put(res, ObjectId.fromString(parts[0]), parts[2], Integer.parseInt(parts[1]));
+            }
+        } catch (IOException | RuntimeException e) {
+            res.clear();
+        }
+        return res;
+    }
+}
@@ -0,0 +1,249 @@
+package com.labun.buildnumber;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/** Commit counts exported from a complete clone, to count commits in shallow clones (see {@link Parameters#getCommitsCountManifest()}).
+ *  <p>
+ *  In a shallow clone, JGit treats the boundary commits (listed in `.git/shallow`) as root commits, so that a history walk counts
+ *  only the fetched commits. The manifest contains every commit reachable from the exported revisions with the number of commits reachable
+ *  from it, and its parents. The shallow history is walked until commits of the manifest are reached; the commits reachable from them are
+ *  taken from the manifest (count of a single commit, or union of the ancestors of several commits). Thus the result is exact, including
+ *  merges and several boundary commits, as long as all boundary commits are contained in the manifest.
+ *  <p>
+ *  Counts of `countCommitsInPath(s)` depend on history simplification and cannot be combined this way; they are exported for the
+ *  exported revisions only and used if HEAD is one of them.
+ *  <p>
+ *  File format (text): a header line, then one line per commit (parents before children),
+ *  <code>c &lt;sha1> &lt;count> &lt;parent line indices separated by ',', or '-'></code>, then one line per path count,
+ *  <code>p &lt;sha1> &lt;count> &lt;paramsKey></code> (see {@link CommitsCountCache#paramsKey(String, String, String)}). */
+public class CommitsCountManifest {
+
+    private static final String HEADER = "# jgit-buildnumber commits count manifest 1";
+    private static final int[] NO_PARENTS = {};
+
+    private static class Commit extends ObjectIdOwnerMap.Entry {
+        final int index;
+
+        Commit(AnyObjectId id, int index) {
+            super(id);
+            this.index = index;
+        }
+    }
+
+    private final ObjectIdOwnerMap<Commit> commits = new ObjectIdOwnerMap<>();
+    /** per commit index */
+    private final List<Integer> counts = new ArrayList<>();
+    /** per commit index */
+    private final List<int[]> parents = new ArrayList<>();
+    /** key: paramsKey, value: commit - count */
+    private final Map<String, Map<ObjectId, Integer>> pathCounts = new HashMap<>();
+
+    private CommitsCountManifest() {
+    }
+
+    /** @return number of commits in the manifest (with counts of all commits) */
+    public int size() {
+        return counts.size();
+    }
+
+    /** @throws IOException if the file cannot be read or has a wrong format */
+    public static CommitsCountManifest load(File file) throws IOException {
+        CommitsCountManifest res = new CommitsCountManifest();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) throw new IOException("not a commits count manifest: " + file);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 4);
+                if (parts.length < 4 || !ObjectId.isId(parts[1])) throw new IOException("invalid line in " + file + ": " + line);
+                ObjectId id = ObjectId.fromString(parts[1]);
+                int count = Integer.parseInt(parts[2]);
+                if (parts[0].equals("c")) {
+                    res.add(id, count, parseParents(parts[3], res.size()));
+                } else if (parts[0].equals("p")) {
+                    res.pathCounts.computeIfAbsent(parts[3], k -> new HashMap<>()).put(id, count);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid commits count manifest " + file + ": " + e.getMessage());
+        }
+        return res;
+    }
+
+    private static int[] parseParents(String s, int size) {
+        if (s.equals("-")) return NO_PARENTS;
+        String[] parts = s.split(",");
+        int[] res = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            res[i] = Integer.parseInt(parts[i]);
+            if (res[i] < 0 || res[i] >= size) throw new NumberFormatException("parent " + res[i] + " not defined before");
+        }
+        return res;
+    }
+
+    private void add(AnyObjectId id, int count, int[] commitParents) {
+        commits.add(new Commit(id, counts.size()));
+        counts.add(count);
+        parents.add(commitParents);
+    }
+
+    /** Exports all commits reachable from the given revisions, and counts for the given paths at these revisions.
+     *  Cost: one history traversal, plus one traversal of the merged branch per merge commit.
+     *  @param revisions e.g. "HEAD", "main", "v1.0"
+     *  @param paths as for `countCommitsInPath`, may be empty
+     *  @throws IllegalStateException if the repository is a shallow clone */
+    public static void export(Repository repo, List<String> revisions, List<String> paths, File file) throws IOException {
+        CommitsCountManifest res = new CommitsCountManifest();
+        List<RevCommit> tips = new ArrayList<>();
+        try (RevWalk walk = new RevWalk(repo); RevWalk mergeWalk = new RevWalk(repo)) {
+            if (!walk.getObjectReader().getShallowCommits().isEmpty()) throw new IllegalStateException("cannot export from a shallow clone: " + repo.getDirectory());
+            walk.setRetainBody(false);
+            mergeWalk.setRetainBody(false);
+            walk.sort(RevSort.TOPO, true);
+            walk.sort(RevSort.REVERSE, true); // parents first
+            for (String revision : revisions) {
+                ObjectId id = repo.resolve(revision);
+                if (id == null) throw new IllegalArgumentException("revision '" + revision + "' not found");
+                RevCommit tip = walk.parseCommit(id);
+                tips.add(tip);
+                walk.markStart(tip);
+            }
+            for (RevCommit c : walk) {
+                RevCommit[] cParents = c.getParents();
+                int[] indices = new int[cParents.length];
+                for (int i = 0; i < cParents.length; i++)
+                    indices[i] = res.commits.get(cParents[i]).index;
+                int count = 1;
+                if (cParents.length > 0) count += res.counts.get(indices[0]);
+                if (cParents.length > 1) { // commits reachable from merged parents, but not from first parent
+                    mergeWalk.reset();
+                    for (int i = 1; i < cParents.length; i++)
+                        mergeWalk.markStart(mergeWalk.parseCommit(cParents[i]));
+                    mergeWalk.markUninteresting(mergeWalk.parseCommit(cParents[0]));
+                    while (mergeWalk.next() != null)
+                        count++;
+                }
+                res.add(c, count, indices);
+            }
+        }
+        if (!paths.isEmpty()) {
+            for (RevCommit tip : tips) {
+                try (PathCommitsCounter counter = new PathCommitsCounter(repo, paths, new AtomicLong())) {
+                    for (Map.Entry<String, Integer> e : counter.count(tip).entrySet())
+                        res.pathCounts.computeIfAbsent(CommitsCountCache.paramsKey(null, null, e.getKey()), k -> new HashMap<>()).put(tip.copy(), e.getValue());
+                }
+            }
+        }
+        res.save(file);
+    }
+
+    private void save(File file) throws IOException {
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        Commit[] byIndex = new Commit[size()];
+        for (Commit c : commits)
+            byIndex[c.index] = c;
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < byIndex.length; i++) {
+                line.setLength(0);
+                line.append("c ").append(byIndex[i].name()).append(' ').append(counts.get(i)).append(' ');
+                int[] p = parents.get(i);
+                if (p.length == 0) line.append('-');
+                for (int j = 0; j < p.length; j++)
+                    line.append(j > 0 ? "," : "").append(p[j]);
+                writer.write(line.toString());
+                writer.newLine();
+            }
+            for (Map.Entry<String, Map<ObjectId, Integer>> e : pathCounts.entrySet())
+                for (Map.Entry<ObjectId, Integer> count : e.getValue().entrySet()) {
+                    writer.write("p " + count.getKey().name() + " " + count.getValue() + " " + e.getKey());
+                    writer.newLine();
+                }
+        }
+    }
+
+    /** @return count for the given commit and counting parameters, as exported; `null` if not contained */
+    Integer get(AnyObjectId commit, String paramsKey) {
+        if (paramsKey.isEmpty()) {
+            Commit c = commits.get(commit);
+            return c == null ? null : counts.get(c.index);
+        }
+        Map<ObjectId, Integer> map = pathCounts.get(paramsKey);
+        return map == null ? null : map.get(commit);
+    }
+
+    /** Counts all commits reachable from `head` in a shallow clone: commits not contained in the manifest are walked (until commits
+     *  of the manifest are reached), commits reachable from those are taken from the manifest.
+     *  @param commitsWalked counter, incremented for each commit walked
+     *  @return number of commits; -1 if a shallow boundary commit (or a missing commit) is not contained in the manifest */
+    int countAllCommits(Repository repo, AnyObjectId head, AtomicLong commitsWalked) throws IOException {
+        Set<ObjectId> shallowCommits;
+        List<Integer> reached = new ArrayList<>();
+        int res = 0;
+        try (RevWalk walk = new RevWalk(repo)) {
+            walk.setRetainBody(false);
+            shallowCommits = walk.getObjectReader().getShallowCommits();
+            Set<RevCommit> seen = new HashSet<>();
+            Deque<RevCommit> pending = new ArrayDeque<>();
+            RevCommit start = walk.parseCommit(head);
+            seen.add(start);
+            pending.add(start);
+            RevCommit c;
+            while ((c = pending.poll()) != null) {
+                Commit known = commits.get(c);
+                if (known != null) {
+                    reached.add(known.index);
+                    continue;
+                }
+                if (shallowCommits.contains(c)) return -1; // parents unknown
+                res++;
+                commitsWalked.incrementAndGet();
+                for (RevCommit p : c.getParents()) {
+                    if (!seen.add(p)) continue;
+                    walk.parseHeaders(p);
+                    pending.add(p);
+                }
+            }
+        } catch (MissingObjectException e) {
+            return -1;
+        }
+        if (reached.size() == 1) return res + counts.get(reached.get(0));
+
+        // union of the commits reachable from the reached ones
+        BitSet union = new BitSet(size());
+        Deque<Integer> stack = new ArrayDeque<>(reached);
+        Integer index;
+        while ((index = stack.poll()) != null) {
+            if (union.get(index)) continue;
+            union.set(index);
+            for (int p : parents.get(index))
+                if (!union.get(p)) stack.push(p);
+        }
+        return res + union.cardinality();
+    }
+}
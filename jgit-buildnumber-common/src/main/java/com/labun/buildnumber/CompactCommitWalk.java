@@ -0,0 +1,337 @@
+package com.labun.buildnumber;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/** History walk for counting commits, with compact state per commit instead of `RevCommit` objects.
+ *  <p>
+ *  A `RevWalk` keeps a `RevCommit`, its parents array, and a `RevTree` per commit until it is closed (about 150 bytes per commit).
+ *  Here, commits are numbered in the order they are seen, and only int arrays are kept: SHA-1s (in pages, so that growing doesn't copy them)
+ *  and a hash table of them. That is all {@link #count(AnyObjectId)} and {@link #countSinceKnown} need (about 30 bytes per commit).
+ *  {@link #countSince} additionally keeps the numbers of the parents, and flags and in-degree (number of children not yet produced)
+ *  per commit (about 55 bytes per commit).
+ *  Commit bodies are read once and not retained.
+ *  <p>
+ *  The order of `countSince` is exactly that of a `RevWalk` with `RevSort.TOPO` (see `countCommitsSinceInclusive` parameter):
+ *  commits are first collected in commit date order (as by JGit's `PendingGenerator` with `DateRevQueue`, same order of commits
+ *  with equal commit times), then sorted topologically (as by `TopoSortGenerator`).
+ *  <p>
+ *  Shallow commits are not handled (walked by `RevWalk`, see `BuildNumberExtractor`). An instance is used for one walk. Not thread-safe. */
+class CompactCommitWalk implements AutoCloseable {
+
+    /** commits per page of {@link #ids} */
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private static final int SEEN = 1 << 30;
+    private static final int TOPO_DELAY = 1 << 29;
+    private static final int IN_DEGREE = TOPO_DELAY - 1;
+
+    private final ObjectReader reader;
+    private final AtomicLong commitsWalked;
+    private final MutableObjectId idBuffer = new MutableObjectId();
+    private final int[] rawId = new int[5];
+
+    /** SHA-1s by commit number, 5 ints each, in pages of 2^{@link #PAGE_BITS} commits */
+    private int[][] ids = new int[16][];
+    /** open addressing hash table: commit number + 1; 0 for a free slot */
+    private int[] table = new int[1 << PAGE_BITS];
+    private int commits;
+
+    // only for `countSince`
+    /** per commit: {@link #SEEN}, {@link #TOPO_DELAY} flags and in-degree */
+    private int[] state;
+    /** per seen commit: offset of its parents in {@link #parents} */
+    private int[] parentsOffset;
+    /** per seen commit: number of parents, followed by their commit numbers (duplicates included, as in `RevCommit.getParents()`) */
+    private int[] parents;
+    private int parentsLength;
+
+    /** commit date queue, see {@link #push(int, int)} */
+    private int queueHead = -1;
+    private int queueHeadTime;
+    private long[] heapKeys = new long[64];
+    private int[] heapCommits = new int[64];
+    private int heapSize;
+    private int sequence;
+
+    /** @param commitsWalked counter, incremented for each commit returned by the walk */
+    CompactCommitWalk(Repository repo, AtomicLong commitsWalked) {
+        this.reader = repo.newObjectReader();
+        this.commitsWalked = commitsWalked;
+    }
+
+    @Override
+    public void close() {
+        reader.close();
+    }
+
+    /** Counts all commits reachable from `head` (in no particular order). */
+    int count(AnyObjectId head) throws IOException {
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = add(head);
+        int res = 0;
+        while (stackSize > 0) {
+            byte[] raw = read(stack[--stackSize]);
+            res++;
+            for (int ptr = 46; raw[ptr] == 'p'; ptr += 48) { // see `RevCommit.parseCanonical`: "tree <SHA-1>\n", "parent <SHA-1>\n"...
+                int known = commits;
+                int p = add(raw, ptr + 7);
+                if (p < known) continue; // seen before
+                if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+                stack[stackSize++] = p;
+            }
+        }
+        commitsWalked.addAndGet(res);
+        return res;
+    }
+
+    /** Counts all commits reachable from `head`, using the known count of an ancestor: the walk doesn't go beyond commits with a known
+     *  count. If it ends at exactly one such commit, without reaching a root commit, all commits walked are descendants of that commit,
+     *  i.e. not reachable from it, so that its count plus the commits walked is exact (regardless of commit times).
+     *  @param knownCounts count of all commits reachable from a commit; `null` if not known
+     *  @return -1 if the walk reaches a root commit or more than one commit with a known count (the result would not be exact) */
+    int countSinceKnown(AnyObjectId head, Function<AnyObjectId, Integer> knownCounts) throws IOException {
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = add(head);
+        int known = -1;
+        int res = 0;
+        try {
+            while (stackSize > 0) {
+                int c = stack[--stackSize];
+                idBuffer.fromRaw(ids[c >>> PAGE_BITS], 5 * (c & PAGE_MASK));
+                Integer count = knownCounts.apply(idBuffer);
+                if (count != null) {
+                    if (known >= 0) return -1; // each commit is walked once, so this is another one
+                    known = count;
+                    continue;
+                }
+                byte[] raw = read(c);
+                res++;
+                if (raw[46] != 'p') return -1; // root commit
+                for (int ptr = 46; raw[ptr] == 'p'; ptr += 48) {
+                    int commitsBefore = commits;
+                    int p = add(raw, ptr + 7);
+                    if (p < commitsBefore) continue; // seen before
+                    if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+                    stack[stackSize++] = p;
+                }
+            }
+            return known < 0 ? -1 : known + res;
+        } finally {
+            commitsWalked.addAndGet(res);
+        }
+    }
+
+    /** Counts commits from `head` in topological order, until `ancestor` is reached.
+     *  @param ancestor SHA-1 (complete or abbreviated) of the last commit to count
+     *  @param inclusive `true` if the ancestor itself gets counted
+     *  @return -1 if `ancestor` is not reachable from `head` */
+    int countSince(AnyObjectId head, AbbreviatedObjectId ancestor, boolean inclusive) throws IOException {
+        state = new int[1 << PAGE_BITS];
+        parentsOffset = new int[1 << PAGE_BITS];
+        parents = new int[1 << PAGE_BITS];
+
+        // commit date order
+        int start = add(head);
+        push(start, see(start));
+        int[] order = new int[1 << PAGE_BITS];
+        int orderLength = 0;
+        int c;
+        while ((c = pop()) >= 0) {
+            int offset = parentsOffset[c];
+            for (int i = 1; i <= parents[offset]; i++) {
+                int p = parents[offset + i];
+                if ((state[p] & SEEN) == 0) push(p, see(p));
+            }
+            if (orderLength == order.length) order = Arrays.copyOf(order, orderLength + (orderLength >> 1));
+            order[orderLength++] = c;
+        }
+
+        // topological order: a commit is delayed until all its children are produced, then produced right after its last child
+        for (int i = 0; i < orderLength; i++) {
+            int offset = parentsOffset[order[i]];
+            for (int j = 1; j <= parents[offset]; j++)
+                state[parents[offset + j]]++;
+        }
+        int[] unpopped = new int[64];
+        int unpoppedSize = 0;
+        int next = 0;
+        int res = 0;
+        for (;;) {
+            if (unpoppedSize > 0) c = unpopped[--unpoppedSize];
+            else if (next < orderLength) c = order[next++];
+            else return -1;
+            if ((state[c] & IN_DEGREE) > 0) {
+                state[c] |= TOPO_DELAY;
+                continue;
+            }
+            int offset = parentsOffset[c];
+            for (int j = 1; j <= parents[offset]; j++) {
+                int p = parents[offset + j];
+                if ((--state[p] & IN_DEGREE) == 0 && (state[p] & TOPO_DELAY) != 0) {
+                    state[p] &= ~TOPO_DELAY;
+                    if (unpoppedSize == unpopped.length) unpopped = Arrays.copyOf(unpopped, unpoppedSize * 2);
+                    unpopped[unpoppedSize++] = p;
+                }
+            }
+            commitsWalked.incrementAndGet();
+            if (inclusive) res++;
+            if (ancestor.prefixCompare(ids[c >>> PAGE_BITS], 5 * (c & PAGE_MASK)) == 0) return res;
+            if (!inclusive) res++;
+        }
+    }
+
+    private byte[] read(int c) throws IOException {
+        idBuffer.fromRaw(ids[c >>> PAGE_BITS], 5 * (c & PAGE_MASK));
+        return reader.open(idBuffer, Constants.OBJ_COMMIT).getCachedBytes();
+    }
+
+    /** Reads the commit, stores its parents (added as commits, not yet seen). @return commit time */
+    private int see(int c) throws IOException {
+        byte[] raw = read(c);
+        int count = 0;
+        int ptr = 46;
+        for (; raw[ptr] == 'p'; ptr += 48)
+            count++;
+        if (parentsLength + count + 1 > parents.length)
+            parents = Arrays.copyOf(parents, Math.max(parentsLength + count + 1, parents.length + (parents.length >> 1)));
+        int offset = parentsLength;
+        parentsLength += count + 1;
+        parents[offset] = count;
+        for (int i = 0; i < count; i++)
+            parents[offset + 1 + i] = add(raw, 46 + 48 * i + 7);
+        if (commits > state.length) {
+            int capacity = Math.max(commits, state.length + (state.length >> 1));
+            state = Arrays.copyOf(state, capacity);
+            parentsOffset = Arrays.copyOf(parentsOffset, capacity);
+        }
+        state[c] |= SEEN;
+        parentsOffset[c] = offset;
+
+        // see `RevCommit.parseCanonical`
+        ptr = RawParseUtils.committer(raw, ptr);
+        if (ptr < 0) return 0;
+        ptr = RawParseUtils.nextLF(raw, ptr, '>');
+        return RawParseUtils.parseBase10(raw, ptr, null);
+    }
+
+    private int add(AnyObjectId id) {
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        id.copyRawTo(raw, 0);
+        for (int w = 0; w < 5; w++)
+            rawId[w] = NB.decodeInt32(raw, 4 * w);
+        return add(rawId);
+    }
+
+    /** @param ptr position of a SHA-1 in hex */
+    private int add(byte[] raw, int ptr) {
+        for (int w = 0; w < 5; w++)
+            rawId[w] = RawParseUtils.parseHexInt32(raw, ptr + 8 * w);
+        return add(rawId);
+    }
+
+    /** @return number of the commit with SHA-1 `id`, added if not yet known */
+    private int add(int[] id) {
+        int mask = table.length - 1;
+        int slot = id[1] & mask; // like `AnyObjectId.hashCode()`: SHA-1s are evenly distributed
+        for (int n; (n = table[slot]) != 0; slot = (slot + 1) & mask) {
+            int[] page = ids[(n - 1) >>> PAGE_BITS];
+            int o = 5 * ((n - 1) & PAGE_MASK);
+            if (page[o] == id[0] && page[o + 1] == id[1] && page[o + 2] == id[2] && page[o + 3] == id[3] && page[o + 4] == id[4]) return n - 1;
+        }
+        int c = commits++;
+        int pageIndex = c >>> PAGE_BITS;
+        if (pageIndex == ids.length) ids = Arrays.copyOf(ids, pageIndex * 2);
+        if (ids[pageIndex] == null) ids[pageIndex] = new int[5 << PAGE_BITS];
+        System.arraycopy(id, 0, ids[pageIndex], 5 * (c & PAGE_MASK), 5);
+        table[slot] = c + 1;
+        if (commits > (table.length >> 1) + (table.length >> 2)) rehash(); // load factor 0.75
+        return c;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int c = 0; c < commits; c++) {
+            int slot = ids[c >>> PAGE_BITS][5 * (c & PAGE_MASK) + 1] & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = c + 1;
+        }
+    }
+
+    /** Adds a commit to the commit date queue. Same order as JGit's `DateRevQueue`: newer commits first; a commit with the same time as
+     *  others is inserted before them, but never before the current head of the queue. The head is kept apart from a max heap of the others,
+     *  whose keys are the commit time (high int) and an insertion sequence number (low int). */
+    private void push(int c, int time) {
+        if (queueHead < 0) {
+            queueHead = c;
+            queueHeadTime = time;
+            return;
+        }
+        if (time > queueHeadTime) { // new head; the old one comes next, before all others with its time
+            int old = queueHead;
+            int oldTime = queueHeadTime;
+            queueHead = c;
+            queueHeadTime = time;
+            c = old;
+            time = oldTime;
+        }
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            heapCommits = Arrays.copyOf(heapCommits, heapSize * 2);
+        }
+        long key = ((long) time << 32) | (sequence++ & 0xffffffffL);
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKeys[parent] >= key) break;
+            heapKeys[i] = heapKeys[parent];
+            heapCommits[i] = heapCommits[parent];
+            i = parent;
+        }
+        heapKeys[i] = key;
+        heapCommits[i] = c;
+    }
+
+    /** @return head of the commit date queue; -1 if empty */
+    private int pop() {
+        int res = queueHead;
+        if (res < 0) return res;
+        if (heapSize == 0) {
+            queueHead = -1;
+            return res;
+        }
+        queueHead = heapCommits[0];
+        queueHeadTime = (int) (heapKeys[0] >> 32);
+        long key = heapKeys[--heapSize];
+        int c = heapCommits[heapSize];
+        int i = 0;
+        for (;;) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapKeys[child + 1] > heapKeys[child]) child++;
+            if (key >= heapKeys[child]) break;
+            heapKeys[i] = heapKeys[child];
+            heapCommits[i] = heapCommits[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapCommits[i] = c;
+        return res;
+    }
+}
@@ -0,0 +1,306 @@
+package com.labun.buildnumber;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+import org.eclipse.jgit.submodule.SubmoduleWalk.IgnoreSubmoduleMode;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.SkipWorkTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/** Checks if differences exist between working tree, index, and HEAD.
+ *  <p>
+ *  Gives the same answer as `git.status().call().isClean()` (negated), but doesn't collect the complete sets of added, changed, untracked, ... files.
+ *  Instead it stops at the first difference found. Comparisons use stat data (size, modification time) first,
+ *  file content is only hashed if stat data is not conclusive (see {@link IndexDiffFilter}).
+ *  Submodules are checked as by `setIgnoreSubmodules` with their `ignore` parameter (see {@link #isAnySubmoduleDirty(TreeFilter)}).
+ *  <p>
+ *  A clean working tree is the worst case, since all files have to be examined. With `parallelism` > 1, the top-level folders are
+ *  checked in parallel (on a fork-join pool), each with its own `TreeWalk`; all top-level files are checked as one more part.
+ *  <p>
+ *  With a `path`, only the entries of index and working tree inside this path are examined (and the folders inside it are the parts
+ *  checked in parallel), so that the cost depends on the size of this part of the working tree. */
+class DirtyChecker {
+
+    private static final int TREE = 0;
+    private static final int INDEX = 1;
+    private static final int WORKDIR = 2;
+
+    private final Repository repo;
+    private final boolean ignoreUntracked;
+    private final int parallelism;
+    private final String path;
+    private final AtomicLong filesScanned;
+    /** paths of submodules with `ignore = all`, whose entries are no differences */
+    private Set<String> ignoredSubmodules = Collections.emptySet();
+
+    DirtyChecker(Repository repo, boolean ignoreUntracked, int parallelism) {
+        this(repo, ignoreUntracked, parallelism, null, new AtomicLong());
+    }
+
+    /** @param ignoreUntracked if `true`, untracked files (not ignored, but not in index either) don't make the working tree dirty
+     *  @param parallelism number of threads to check the working tree with; 1 for checking in the calling thread
+     *  @param path relative path (with `/` as separator, without trailing `/`) of the folder or file to check; `null` for the whole working tree
+     *  @param filesScanned counter of the files examined (in HEAD, index, or working tree), increased when a part of the check is finished */
+    DirtyChecker(Repository repo, boolean ignoreUntracked, int parallelism, String path, AtomicLong filesScanned) {
+        this.repo = repo;
+        this.ignoreUntracked = ignoreUntracked;
+        this.parallelism = parallelism;
+        this.path = path;
+        this.filesScanned = filesScanned;
+    }
+
+    /** @param head HEAD commit; `null` for a repository without commits */
+    boolean isDirty(AnyObjectId head) throws IOException {
+        DirCache dirCache = repo.readDirCache();
+        RevTree headTree = parseTree(head);
+        TreeFilter pathFilter = path != null ? PathFilter.create(path) : TreeFilter.ALL;
+        boolean submodules = hasSubmodules(dirCache);
+        if (submodules) ignoredSubmodules = findIgnoredSubmodules();
+
+        boolean dirty;
+        if (parallelism <= 1) {
+            dirty = isDirty(dirCache, headTree, pathFilter, new AtomicBoolean());
+        } else {
+            List<TreeFilter> parts = split(dirCache, headTree, pathFilter);
+            AtomicBoolean found = new AtomicBoolean(); // lets the other parts stop as soon as one difference is found
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                dirty = pool.submit(() -> parts.parallelStream().anyMatch(part -> {
+                    try {
+                        return isDirty(dirCache, headTree, part, found);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Dirty check interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+                throw new IOException(e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        return dirty || (submodules && isAnySubmoduleDirty(pathFilter));
+    }
+
+    private RevTree parseTree(AnyObjectId commit) throws IOException {
+        if (commit == null) return null;
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            return revWalk.parseCommit(commit).getTree();
+        }
+    }
+
+    /** @return path filters for the top-level folders (one per folder) and the top-level files (one for all of them) of HEAD, index, and working tree;
+     *  with a `path`, for the folders and files directly inside it (or the `path` itself, if it is a file) */
+    private List<TreeFilter> split(DirCache dirCache, RevTree headTree, TreeFilter pathFilter) throws IOException {
+        List<TreeFilter> parts = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        try (TreeWalk walk = createTreeWalk(dirCache, headTree)) {
+            walk.setFilter(pathFilter);
+            while (walk.next()) {
+                if (walk.getRawMode(TREE) == FileMode.TYPE_MISSING && walk.getRawMode(INDEX) == FileMode.TYPE_MISSING
+                    && (ignoreUntracked || walk.getTree(WORKDIR, WorkingTreeIterator.class).isEntryIgnored()))
+                    continue; // nothing to check there
+                boolean folder = false;
+                for (int i = 0; i < walk.getTreeCount(); i++)
+                    folder |= FileMode.TREE.equals(walk.getRawMode(i));
+                if (folder && path != null && walk.getPathString().length() <= path.length()) walk.enterSubtree(); // parent of `path`, or `path` itself
+                else if (folder) parts.add(PathFilter.create(walk.getPathString()));
+                else files.add(walk.getPathString());
+            }
+        }
+        if (!files.isEmpty()) parts.add(PathFilterGroup.createFromStrings(files));
+        return parts;
+    }
+
+    /** Checks a part of the working tree (defined by `part` filter). Stops when `found` is set by another part. */
+    private boolean isDirty(DirCache dirCache, RevTree headTree, TreeFilter part, AtomicBoolean found) throws IOException {
+        FileCounter counter = new FileCounter();
+        try (TreeWalk walk = createTreeWalk(dirCache, headTree)) {
+            walk.setRecursive(true);
+
+            List<TreeFilter> filters = new ArrayList<>();
+            if (part != TreeFilter.ALL) filters.add(part);
+            filters.add(counter);
+            filters.add(new SkipWorkTreeFilter(INDEX));
+            if (ignoreUntracked) filters.add(TRACKED);
+            filters.add(new IndexDiffFilter(INDEX, WORKDIR));
+            walk.setFilter(AndTreeFilter.create(filters));
+
+            while (!found.get() && walk.next()) {
+                if (isDifference(walk)) {
+                    found.set(true);
+                    return true;
+                }
+            }
+        } finally {
+            filesScanned.addAndGet(counter.count); // once per part, not per file: the parts run in parallel
+        }
+        return false;
+    }
+
+    /** @return non-recursive TreeWalk over HEAD tree, index, and working tree; with its own `ObjectReader`, so that it can be used in its own thread */
+    private TreeWalk createTreeWalk(DirCache dirCache, RevTree headTree) throws IOException {
+        TreeWalk walk = new TreeWalk(repo);
+        walk.setOperationType(OperationType.CHECKIN_OP);
+        if (headTree != null) walk.addTree(headTree);
+        else walk.addTree(new EmptyTreeIterator());
+        walk.addTree(new DirCacheIterator(dirCache));
+        FileTreeIterator workingTree = new FileTreeIterator(repo);
+        walk.addTree(workingTree);
+        workingTree.setDirCacheIterator(walk, INDEX);
+        return walk;
+    }
+
+    /** Same classification as in {@link org.eclipse.jgit.lib.IndexDiff#diff()}, for an entry accepted by {@link IndexDiffFilter}. */
+    private boolean isDifference(TreeWalk walk) throws IOException {
+        AbstractTreeIterator tree = walk.getTree(TREE, AbstractTreeIterator.class);
+        DirCacheIterator index = walk.getTree(INDEX, DirCacheIterator.class);
+        WorkingTreeIterator workingTree = walk.getTree(WORKDIR, WorkingTreeIterator.class);
+
+        if (index != null) {
+            DirCacheEntry entry = index.getDirCacheEntry();
+            if (entry != null && entry.getStage() > 0) return true; // conflict
+        }
+        if (ignoredSubmodules.contains(walk.getPathString()) && (isGitLink(tree) || isGitLink(index) || isGitLink(workingTree))) return false;
+
+        if (tree != null) {
+            if (index == null) return true; // removed
+            if (!tree.idEqual(index) || tree.getEntryRawMode() != index.getEntryRawMode()) return true; // changed
+        } else {
+            if (index != null) return true; // added
+            if (workingTree != null && !workingTree.isEntryIgnored()) return !ignoreUntracked; // untracked
+        }
+
+        if (index != null) {
+            if (workingTree == null) return true; // missing
+            if (workingTree.isModified(index.getDirCacheEntry(), true, walk.getObjectReader())) return true; // modified
+        }
+        return false;
+    }
+
+    /** Includes all entries, counts files. Used by a single TreeWalk (one thread). */
+    private static class FileCounter extends TreeFilter {
+        long count;
+
+        @Override
+        public boolean include(TreeWalk walk) {
+            if (!walk.isSubtree()) count++;
+            return true;
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return false;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
+    }
+
+    /** Excludes working tree entries which are neither in HEAD nor in index (untracked files and whole untracked folders). */
+    private static final TreeFilter TRACKED = new TreeFilter() {
+        @Override
+        public boolean include(TreeWalk walk) {
+            return walk.getRawMode(TREE) != FileMode.TYPE_MISSING || walk.getRawMode(INDEX) != FileMode.TYPE_MISSING;
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return false;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
+    };
+
+    private static boolean isGitLink(AbstractTreeIterator iterator) {
+        return iterator != null && iterator.getEntryRawMode() == FileMode.TYPE_GITLINK;
+    }
+
+    private static boolean hasSubmodules(DirCache dirCache) {
+        for (int i = 0; i < dirCache.getEntryCount(); i++)
+            if (dirCache.getEntry(i).getFileMode() == FileMode.GITLINK) return true;
+        return false;
+    }
+
+    private Set<String> findIgnoredSubmodules() throws IOException {
+        Set<String> res = new HashSet<>();
+        try (SubmoduleWalk submodules = SubmoduleWalk.forIndex(repo)) {
+            while (submodules.next())
+                if (getIgnoreMode(submodules) == IgnoreSubmoduleMode.ALL) res.add(submodules.getPath());
+        }
+        return res;
+    }
+
+    /** @return `ignore` parameter of the submodule in `.gitmodules` (or `.git/config`) */
+    private static IgnoreSubmoduleMode getIgnoreMode(SubmoduleWalk submodules) throws IOException {
+        try {
+            return submodules.getModulesIgnore();
+        } catch (ConfigInvalidException e) {
+            throw new IOException("Invalid 'ignore' parameter of submodule " + submodules.getPath(), e);
+        }
+    }
+
+    /** Submodule checks, same as in {@link org.eclipse.jgit.lib.IndexDiff#diff()} with `ignoreSubmoduleMode` of the submodule's `ignore`
+     *  parameter (as by Git; `StatusCommand` of JGit only takes `ignore = all` from there): a submodule is dirty if its HEAD differs from
+     *  the commit recorded in index (unless `all`), or if its working tree is dirty (unless `all` or `dirty`; untracked files: unless `untracked`).
+     *  @param pathFilter submodules to check */
+    private boolean isAnySubmoduleDirty(TreeFilter pathFilter) throws IOException {
+        try (SubmoduleWalk submodules = SubmoduleWalk.forIndex(repo)) {
+            submodules.setFilter(pathFilter);
+            while (submodules.next()) {
+                IgnoreSubmoduleMode mode = getIgnoreMode(submodules);
+                if (mode == IgnoreSubmoduleMode.ALL) continue;
+                try (Repository subRepo = submodules.getRepository()) {
+                    if (subRepo == null) continue; // not initialized
+                    ObjectId subHead = subRepo.resolve("HEAD");
+                    if (subHead != null && !subHead.equals(submodules.getObjectId())) return true;
+                    if (mode == IgnoreSubmoduleMode.DIRTY) continue;
+                    // untracked files of the submodule are its changes, also for `getUncommittedChanges()` of the main repository
+                    boolean subIgnoreUntracked = mode == IgnoreSubmoduleMode.UNTRACKED;
+                    if (new DirtyChecker(subRepo, subIgnoreUntracked, parallelism, null, filesScanned).isDirty(submodules.getObjectId())) return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Metrics of one extraction: durations of phases (open, refs, dirty, tag, describe, commitsCount, format, total) in milliseconds, 
+ *  and counters (commits walked, refs peeled, files scanned). Thread-safe, since phases may run in parallel.
+ *  <p>
+ *  Phases are additionally emitted as JDK Flight Recorder events (`com.labun.buildnumber.Phase`), if JFR is available (Java 11+, 8u262+)
+ *  and initialized (i.e. a recording has been started). Otherwise the event class is not loaded: its registration costs ~100 ms of startup. */
+public class ExtractionMetrics {
+
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    final AtomicLong commitsWalked = new AtomicLong();
+    final AtomicLong refsPeeled = new AtomicLong();
+    final AtomicLong filesScanned = new AtomicLong();
+
+    private final String repository;
+    /** phase name - duration in ms, in order of completion */
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    ExtractionMetrics(String repository) {
+        this.repository = repository;
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /** Running phase; records its duration on {@link #close()}. */
+    class Phase implements AutoCloseable {
+        private final String name;
+        private final long start = System.currentTimeMillis();
+        private final Object event;
+
+        private Phase(String name) {
+            this.name = name;
+            this.event = JFR_AVAILABLE && jdk.jfr.FlightRecorder.isInitialized() ? PhaseEvent.begin(name, repository) : null;
+        }
+
+        @Override
+        public void close() {
+            if (event != null) PhaseEvent.commit(event);
+            add(name, System.currentTimeMillis() - start);
+        }
+    }
+
+    Phase startPhase(String name) {
+        return new Phase(name);
+    }
+
+    /** Adds duration to the phase (a phase may be executed multiple times, e.g. `format`). */
+    synchronized void add(String phase, long millis) {
+        phases.merge(phase, millis, Long::sum);
+    }
+
+    /** @return phase name - duration in ms */
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    /** @return counter name - value */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> res = new LinkedHashMap<>();
+        res.put("commitsWalked", commitsWalked.get());
+        res.put("refsPeeled", refsPeeled.get());
+        res.put("filesScanned", filesScanned.get());
+        return res;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"repository\": ").append(jsonString(repository)).append(",\n  \"phases\": ");
+        appendJsonObject(sb, getPhases());
+        sb.append(",\n  \"counters\": ");
+        appendJsonObject(sb, getCounters());
+        return sb.append("\n}\n").toString();
+    }
+
+    private static void appendJsonObject(StringBuilder sb, Map<String, Long> values) {
+        sb.append('{');
+        String separator = "";
+        for (Map.Entry<String, Long> e : values.entrySet()) {
+            sb.append(separator).append("\n    ").append(jsonString(e.getKey())).append(": ").append(e.getValue());
+            separator = ",";
+        }
+        sb.append(values.isEmpty() ? "}" : "\n  }");
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /** Writes metrics as JSON (see {@link #toJson()}), creating parent directories if required. */
+    public void writeJson(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String toString() {
+        return "phases (ms): " + getPhases() + ", counters: " + getCounters();
+    }
+}
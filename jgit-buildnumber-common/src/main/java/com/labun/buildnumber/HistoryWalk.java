@@ -0,0 +1,149 @@
+package com.labun.buildnumber;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevFlagSet;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import lombok.Getter;
+
+/** Computes `describe` and `commitsCount` (all commits reachable from HEAD) in a single history traversal.
+ *  <p>
+ *  `describe` is the same as `git.describe().setLong(true).setAlways(true).call()`: same algorithm as JGit's `DescribeCommand`
+ *  (same traverse order, max. 10 candidate tags, same cut-off), but tags are taken from the {@link TagIndex} instead of being peeled again.
+ *  While searching for the nearest tag, commits are counted. If the search stops before the whole history has been traversed,
+ *  counting continues from HEAD on the same `RevWalk`: commits already seen are parsed (no object database reads) and just counted again.
+ *  <p>
+ *  Not thread-safe (like `RevWalk`). */
+class HistoryWalk extends RevWalk {
+
+    /** as in `DescribeCommand` */
+    private static final int MAX_CANDIDATES = 10;
+
+    private final TagIndex tagIndex;
+    private final AtomicLong commitsWalked;
+
+    /** number of commits reachable from HEAD; -1 if history is incomplete (missing objects), or if not counted */
+    private @Getter int commitsCount = -1;
+
+    /** @param commitsWalked counter, incremented for each commit returned by the walk */
+    HistoryWalk(Repository repo, TagIndex tagIndex, AtomicLong commitsWalked) {
+        super(repo);
+        this.tagIndex = tagIndex;
+        this.commitsWalked = commitsWalked;
+        setRetainBody(false);
+    }
+
+    /** Candidate tag, see `DescribeCommand`. */
+    private class Candidate {
+        final String tag;
+        final RevFlag flag;
+        /** number of commits reachable from HEAD, but not from the tag */
+        int depth;
+
+        Candidate(RevCommit commit, String tag, RevFlagSet allFlags) {
+            this.tag = tag;
+            this.flag = newFlag(tag);
+            allFlags.add(flag);
+            carry(flag);
+            commit.add(flag);
+            commit.carry(flag); // flags are carried to parents before `next()` returns, i.e. already done for this commit
+        }
+
+        boolean reaches(RevCommit c) {
+            return c.has(flag);
+        }
+    }
+
+    /** @param head commit to describe; must not have been walked before
+     *  @param count if `true`, all commits reachable from `head` get counted, see {@link #getCommitsCount()}
+     *  @return `tag-depth-gAbbreviatedSha1`, or abbreviated SHA-1 if no annotated tag is reachable */
+    String describe(RevCommit head, boolean count) throws IOException {
+        String headTag = tagIndex.getDescribeTag(head);
+        if (headTag != null) {
+            if (count) countFromStart(head);
+            return longDescription(headTag, 0, head);
+        }
+
+        RevFlagSet allFlags = new RevFlagSet();
+        List<Candidate> candidates = new ArrayList<>();
+        boolean cutOff = false;
+        int walked = 0;
+        markStart(head);
+
+        int seen = 0;
+        RevCommit c;
+        while ((c = next()) != null) {
+            walked++;
+            if (!c.hasAny(allFlags)) {
+                // a tag dominating this commit is always preferable to a tag on this commit
+                String tag = tagIndex.getDescribeTag(c);
+                if (tag != null) {
+                    Candidate candidate = new Candidate(c, tag, allFlags);
+                    candidates.add(candidate);
+                    candidate.depth = seen;
+                }
+            }
+            for (Candidate candidate : candidates)
+                if (!candidate.reaches(c)) candidate.depth++;
+            if (candidates.size() >= MAX_CANDIDATES) break;
+            seen++;
+        }
+
+        // no more candidates, but depths have to be completed
+        while ((c = next()) != null) {
+            walked++;
+            if (c.hasAll(allFlags)) {
+                // no point in visiting further from here
+                for (RevCommit p : c.getParents())
+                    if (!p.has(RevFlag.SEEN)) {
+                        p.add(RevFlag.SEEN);
+                        cutOff = true;
+                    }
+            } else {
+                for (Candidate candidate : candidates)
+                    if (!candidate.reaches(c)) candidate.depth++;
+            }
+        }
+        commitsWalked.addAndGet(walked);
+
+        if (count) {
+            if (cutOff) countFromStart(head);
+            else commitsCount = walked;
+        }
+
+        if (candidates.isEmpty()) return getObjectReader().abbreviate(head).name();
+        Candidate best = candidates.get(0);
+        for (Candidate candidate : candidates)
+            if (candidate.depth < best.depth) best = candidate;
+        return longDescription(best.tag, best.depth, head);
+    }
+
+    private String longDescription(String tag, int depth, RevCommit head) throws IOException {
+        return String.format("%s-%d-g%s", tag, depth, getObjectReader().abbreviate(head).name());
+    }
+
+    /** Counts all commits reachable from `head`, starting a new walk. */
+    private void countFromStart(RevCommit head) throws IOException {
+        reset();
+        markStart(head);
+        int res = 0;
+        try {
+            while (next() != null)
+                res++;
+        } catch (MissingObjectException e) {
+            // history incomplete (e.g. objects of a shallow clone removed), return -1 to indicate shallow
+            commitsWalked.addAndGet(res);
+            return;
+        }
+        commitsWalked.addAndGet(res);
+        commitsCount = res;
+    }
+}
@@ -0,0 +1,83 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+
+/** Values of expensive properties extracted by the last build, used if the current values cannot be extracted within `extractionTimeout`
+ *  (see {@link Parameters#getExtractionTimeout()}). Stored in the Git directory of the working tree (`.git/jgit-buildnumber/last-result.properties`),
+ *  since HEAD of linked worktrees differs.
+ *  <p>
+ *  File format: Java properties, key: property name, followed by counting parameters if any (see {@link #key(String, String)}),
+ *  value: <code>&lt;sha1 of HEAD> &lt;property value></code>. */
+class LastResult {
+
+    private static final String FILE_NAME = "last-result.properties";
+
+    private final File file;
+
+    /** Value of a property, together with the commit it has been extracted for. */
+    static class Value {
+        final String commit;
+        final String value;
+
+        Value(String commit, String value) {
+            this.commit = commit;
+            this.value = value;
+        }
+    }
+
+    LastResult(File gitDir) {
+        file = new File(new File(gitDir, CommitsCountCache.DIRECTORY_NAME), FILE_NAME);
+    }
+
+    /** @param paramsKey see {@link CommitsCountCache#paramsKey(String, String, String)}; empty for properties without parameters */
+    static String key(String property, String paramsKey) {
+        return paramsKey.isEmpty() ? property : property + " " + paramsKey;
+    }
+
+    /** @return last value; `null` if there is none or the file cannot be read */
+    Value get(String key) {
+        String value = load().getProperty(key);
+        int space = value != null ? value.indexOf(' ') : -1;
+        return space < 0 ? null : new Value(value.substring(0, space), value.substring(space + 1));
+    }
+
+    /** Stores the value, if changed. Values stored meanwhile by other processes are preserved; concurrent readers always see
+     *  a complete file (atomic rename). Synchronized, since phases may run in parallel. */
+    synchronized void put(String key, AnyObjectId commit, String value) throws IOException {
+        Properties properties = load();
+        String entry = commit.name() + " " + value;
+        if (entry.equals(properties.getProperty(key))) return;
+        properties.setProperty(key, entry);
+
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile(FILE_NAME, ".tmp", file.getParentFile());
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                properties.store(out, "values of the last build, see parameter 'extractionTimeout'");
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** @return file content; empty if the file doesn't exist or cannot be read (the file will be rewritten on put) */
+    private Properties load() {
+        Properties res = new Properties();
+        if (!file.isFile()) return res;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            res.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            res.clear();
+        }
+        return res;
+    }
+}
@@ -0,0 +1,184 @@
+package com.labun.buildnumber;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.lang.model.SourceVersion;
+
+/** Writes the extracted properties to the files configured with `outputPropertiesFile`, `outputJavaClass` (see {@link Parameters#getOutputPropertiesFile()}).
+ *  <p>
+ *  A file is only written if its content has changed, so that its modification time doesn't make incremental compilers and packaging steps
+ *  consider everything depending on it as stale. Changes of `outputVolatileProperties` alone (e.g. `buildDate`) don't count as a change.
+ *  Files are written atomically (temporary file and rename), so that concurrent readers never see a partial file. */
+public class OutputFiles {
+
+    private final Parameters params;
+    private final Logger logger;
+
+    public OutputFiles(Parameters params, Logger logger) {
+        this.params = params;
+        this.logger = logger;
+    }
+
+    /** @param results namespace - property name - value; main namespace (constants of the Java class) first
+     *  @return files which have been (re)written; empty if nothing is configured or nothing has changed */
+    public List<File> write(Map<String, Map<String, String>> results) throws IOException {
+        List<String> volatileProperties = split(params.getOutputVolatileProperties());
+        List<File> res = new ArrayList<>();
+
+        File propertiesFile = params.getOutputPropertiesFile();
+        if (propertiesFile != null) {
+            List<String> volatilePrefixes = new ArrayList<>();
+            for (String namespace : results.keySet())
+                for (String property : volatileProperties)
+                    volatilePrefixes.add(toProperties(Collections.singletonMap(namespace + "." + property, "")).trim()); // escaped "<key>="
+            if (writeIfChanged(propertiesFile, toProperties(flatten(results)), StandardCharsets.ISO_8859_1, volatilePrefixes)) res.add(propertiesFile);
+        }
+
+        String javaClass = params.getOutputJavaClass();
+        if (javaClass != null) {
+            if (!SourceVersion.isName(javaClass)) throw new IllegalArgumentException("parameter 'outputJavaClass' is not a valid class name: '" + javaClass + "'");
+            if (params.getOutputJavaDirectory() == null) throw new IllegalArgumentException("parameter 'outputJavaDirectory' is required for 'outputJavaClass'");
+            File javaFile = new File(params.getOutputJavaDirectory(), javaClass.replace('.', '/') + ".java");
+            List<String> volatilePrefixes = new ArrayList<>();
+            for (String property : volatileProperties)
+                volatilePrefixes.add("public static final String " + toConstantName(property) + " = ");
+            if (writeIfChanged(javaFile, toJavaClass(javaClass, results), StandardCharsets.UTF_8, volatilePrefixes)) res.add(javaFile);
+        }
+        return res;
+    }
+
+    private static List<String> split(String list) {
+        List<String> res = new ArrayList<>();
+        if (list == null) return res;
+        for (String s : list.split(","))
+            if (!s.trim().isEmpty()) res.add(s.trim());
+        return res;
+    }
+
+    /** @return `<namespace>.<property>` - value, sorted by property within each namespace */
+    public static Map<String, String> flatten(Map<String, Map<String, String>> results) {
+        Map<String, String> res = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, String>> result : results.entrySet())
+            for (Map.Entry<String, String> property : new TreeMap<>(result.getValue()).entrySet())
+                res.put(result.getKey() + "." + property.getKey(), property.getValue());
+        return res;
+    }
+
+    /** Writes the file atomically, unless its lines are equal to the existing ones, apart from lines starting with one of `volatilePrefixes`
+     *  (ignoring indentation) in both versions.
+     *  @return `true` if the file has been written */
+    public boolean writeIfChanged(File file, String content, Charset charset, Collection<String> volatilePrefixes) throws IOException {
+        if (file.isFile()) {
+            List<String> oldLines = Files.readAllLines(file.toPath(), charset);
+            if (isUnchanged(oldLines, Arrays.asList(content.split("\n", -1)), volatilePrefixes)) {
+                if (params.getVerbose()) logger.log("unchanged: " + file);
+                return false;
+            }
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            Files.write(tmp.toPath(), content.getBytes(charset));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        if (params.getVerbose()) logger.log("written: " + file);
+        return true;
+    }
+
+    private static boolean isUnchanged(List<String> oldLines, List<String> newLines, Collection<String> volatilePrefixes) {
+        if (newLines.get(newLines.size() - 1).isEmpty()) newLines = newLines.subList(0, newLines.size() - 1); // readAllLines: no empty last line
+        if (oldLines.size() != newLines.size()) return false;
+        for (int i = 0; i < newLines.size(); i++) {
+            String oldLine = oldLines.get(i);
+            String newLine = newLines.get(i);
+            if (oldLine.equals(newLine)) continue;
+            boolean isVolatile = false;
+            for (String prefix : volatilePrefixes)
+                isVolatile |= oldLine.trim().startsWith(prefix) && newLine.trim().startsWith(prefix);
+            if (!isVolatile) return false;
+        }
+        return true;
+    }
+
+    /** Same escaping as {@link Properties#store(java.io.OutputStream, String)} (ISO 8859-1 with unicode escapes), without the date comment. */
+    public static String toProperties(Map<String, String> properties) throws IOException {
+        StringBuilder res = new StringBuilder();
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            Properties single = new Properties();
+            single.setProperty(property.getKey(), property.getValue());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            single.store(bytes, null);
+            String stored = new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+            res.append(stored.substring(stored.indexOf('\n') + 1)); // skip date comment
+        }
+        return res.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    /** Class with a `String` constant per property, e.g. `COMMITS_COUNT`; additional namespaces as nested classes, e.g. `BuildInfo.git_ui.BRANCH`. */
+    static String toJavaClass(String className, Map<String, Map<String, String>> results) {
+        int dot = className.lastIndexOf('.');
+        String simpleName = className.substring(dot + 1);
+        StringBuilder res = new StringBuilder("// Generated by JGit Build Number. Do not edit.\n");
+        if (dot > 0) res.append("package ").append(className, 0, dot).append(";\n");
+        res.append("\n/** Git metadata extracted by JGit Build Number. */\npublic final class ").append(simpleName).append(" {\n\n");
+        boolean nested = false;
+        for (Map.Entry<String, Map<String, String>> result : results.entrySet()) {
+            String indent = nested ? "        " : "    ";
+            if (nested) res.append("\n    /** Namespace `").append(result.getKey()).append("`. */\n    public static final class ").append(result.getKey()).append(" {\n");
+            Map<String, String> constants = new TreeMap<>();
+            for (Map.Entry<String, String> property : result.getValue().entrySet())
+                constants.put(toConstantName(property.getKey()), property.getValue()); // e.g. `commitsCount.a-b`, `commitsCount.a_b`: last one wins
+            for (Map.Entry<String, String> constant : constants.entrySet()) {
+                res.append(indent).append("public static final String ").append(constant.getKey()).append(" = ");
+                appendJavaString(res, constant.getValue());
+                res.append(";\n");
+            }
+            if (nested) res.append("\n        private ").append(result.getKey()).append("() {\n        }\n    }\n");
+            nested = true;
+        }
+        return res.append("\n    private ").append(simpleName).append("() {\n    }\n}\n").toString();
+    }
+
+    /** Non-ASCII characters as unicode escapes (independent of the source encoding of the compiler), control characters as octal escapes. */
+    private static void appendJavaString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\%03o", (int) c));
+            else if (c > 0x7e) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    /** Camel case to upper snake case, other characters not allowed in Java identifiers (or shell variable names) replaced by `_`, e.g. `commitsCount.core` -> `COMMITS_COUNT_CORE`. */
+    public static String toConstantName(String name) {
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && (Character.isLowerCase(name.charAt(i - 1)) || Character.isDigit(name.charAt(i - 1)))) res.append('_');
+            res.append(c < 0x80 && Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : '_');
+        }
+        if (res.length() > 0 && Character.isDigit(res.charAt(0))) res.insert(0, '_');
+        return res.toString();
+    }
+}
@@ -19,6 +19,21 @@ public interface Parameters {
     /** Value for `dirty` property. Default: "dirty". */
     String getDirtyValue();
 
+    /** If `true`, untracked files (neither ignored nor added to index) don't make the working tree dirty. 
+     *  Besides, untracked folders don't need to be scanned then. Default: `false`. */
+    Boolean getDirtyIgnoreUntracked();
+
+    /** Number of threads to check the working tree for the `dirty` property with. With a value > 1, top-level folders are checked in parallel.
+     *  Useful for big working trees on machines with many cores; a clean working tree is the worst case, since all files have to be examined. 
+     *  Default: 1. */
+    Integer getDirtyCheckParallelism();
+
+    /** Relative path to a folder or a file in Git repo (or absolute path inside the working tree). Only this part of index and working tree 
+     *  is checked for the `dirty` property, e.g. the same path as `countCommitsInPath`, so that changes elsewhere in the repo don't make the build dirty, 
+     *  and the check time depends on the size of this part rather than on the size of the repo. Submodules are only checked if they are inside this path. 
+     *  Default: not set (whole working tree is checked). */
+    String getDirtyCheckPath();
+
     /** Length of abbreviated SHA-1 for `shortRevision` and `shortParent` properties, min. 0, max. 40. Default: 7. */
     Integer getShortRevisionLength();
 
@@ -54,10 +69,29 @@ public interface Parameters {
      *  <p><i>Note: The commit specified with {@link #getCountCommitsSinceInclusive()}, {@link #getCountCommitsSinceExclusive()} 
      *  has to be among the commits remaining after applying `countCommitsInPath` parameter. */
     String getCountCommitsInPath();
+
+    /** Comma separated list of paths to count commits in, as with `countCommitsInPath`, e.g. "core, web, docs/". Counts are published 
+     *  as separate properties `commitsCount.<path>` (path without trailing `/`), e.g. `git.commitsCount.core`. All paths are counted 
+     *  in one history traversal (see {@link PathCommitsCounter}). Paths are relative to the Git working tree; absolute paths (inside the working tree) 
+     *  are accepted, too. Cannot be combined with `countCommitsSinceInclusive`, `countCommitsSinceExclusive`.<br>
+     *  Default: not set (no per-path counts). */
+    String getCountCommitsInPaths();
+
+    /** Cache commit counts in Git directory (`.git/jgit-buildnumber/`), keyed by commit and `countCommits...` parameters.
+     *  If all commits get counted, the history is only walked until the first commit with cached count, so that
+     *  the execution time depends on the number of new commits rather than on repository size. Default: `true`. */
+    Boolean getCacheCommitsCount();
+
+    /** Commits count manifest exported from a complete clone (Maven goal `export-commits-count-manifest`), used in shallow clones
+     *  (`git clone --depth ...`): only the fetched commits are walked, the counts of older commits are taken from the manifest 
+     *  (see {@link CommitsCountManifest}). Applies to `commitsCount` without `countCommitsSince...`, and to per-path counts if HEAD has been exported.
+     *  Ignored in complete clones. Default: not set (in a shallow clone, only the fetched commits are counted). */
+    File getCommitsCountManifest();
     
-    /** JavaScript expression to format/compose the `buildNumber` property. Uses JS engine from JDK. 
+    /** JavaScript expression to format/compose the `buildNumber` property. 
      * All extracted properties are exposed to JavaScript as global String variables (names without "git" namespace). 
-     * JavaScript engine is only initialized if `buildNumberFormat` is provided.
+     * The expression is evaluated by a built-in engine supporting the subset of JavaScript typically used here (see {@link BuildNumberFormat});
+     * other expressions are evaluated with JS engine from JDK (see `useJavaScriptEngine`).
      * <p>
      * Example:
      * <pre>branch + "." + commitsCount + "/" + commitDate + "/" + shortRevision + (dirty.length > 0 ? "-" + dirty : "");</pre> 
@@ -72,22 +106,87 @@ public interface Parameters {
      * */
     String getBuildNumberFormat();
 
+    /** Comma separated list of properties to extract and publish, e.g. "shortRevision, dirty, buildNumber". 
+     * Expensive properties (`tag`, `describe`, `commitsCount`, `dirty`) are only computed if they are requested, or if `buildNumber` is requested 
+     * and depends on them (i.e. they are referenced in `buildNumberFormat`, or are part of the default build number).<br>
+     * Default: not set (all properties get extracted). */
+    String getRequestedProperties();
+
+    /** Always evaluate `buildNumberFormat` with JS engine from JDK (Nashorn; not available in Java 15+), instead of the built-in engine. 
+     *  Default: `false` (JS engine is only used if `buildNumberFormat` is not supported by the built-in engine). */
+    Boolean getUseJavaScriptEngine();
+
     /** Directory to start searching Git root from, should contain `.git` directory
      *  or be a subdirectory of such directory. Default: project directory (Maven: `${project.basedir}`, Ant: `${basedir}`, Gradle: `projectDir`). */
     File getRepositoryDirectory();
 
+    /** Comma separated list of additional Git repositories to extract properties from, as `[name=]directory`, e.g. "lib=../lib, ../ui". 
+     *  Properties of an additional repository are published with namespace `name`, default: `<namespace>_<directory name>` 
+     *  (non-identifier characters replaced by `_`), e.g. `git_ui`. Relative directories are resolved against `repositoryDirectory`.
+     *  All repositories are extracted concurrently (see {@link BatchExtraction}). Counting parameters (`countCommits...`) and `metricsFile` 
+     *  apply to the main repository only.<br>
+     *  Default: not set (main repository only). */
+    String getRepositoryDirectories();
+
+    /** Extract properties from the (initialized) Git submodules of the main repository too, as with `repositoryDirectories`. 
+     *  Namespace: `<namespace>_<submodule path>` (non-identifier characters replaced by `_`), e.g. `git_libs_core`. Default: `false`. */
+    Boolean getIncludeSubmodules();
+
     /** Setting this parameter to `false` allows to re-read metadata from Git repo in every submodule of a Maven multi-module project, 
      * not only in the root one. Has no effect for Ant or Gradle. Default: `true`. */
     Boolean getRunOnlyAtExecutionRoot();
 
+    /** Extract independent data (dirty flag, tag, describe, commits count) concurrently, so that the execution time is determined 
+     *  by the slowest of them instead of their sum. The extracted properties are the same as in sequential mode. Default: `false`. */
+    Boolean getParallel();
+
+    /** Max. time in milliseconds (since start of the extraction) to wait for the expensive properties `tag`, `describe`, `commitsCount` 
+     *  (and per-path commit counts), e.g. for IDE builds (Eclipse/m2e runs the plugin on every incremental build). If a property isn't extracted 
+     *  in time, its value of the last build of this working tree is used (stored in `.git/jgit-buildnumber/`, see {@link LastResult}), 
+     *  while the extraction continues in the background, so that the next build gets the current value. Without such value (first build), 
+     *  the extraction is awaited. Cheap properties (`revision`, `branch`, `dirty`, ...) are always extracted. Implies `parallel`. 
+     *  Default: not set (no timeout). */
+    Integer getExtractionTimeout();
+
+    /** Keep the Git repository open and the extracted properties in memory for subsequent builds in the same JVM (Gradle daemon, Eclipse/m2e,
+     *  Maven daemon), until a file system watcher reports a change in Git directory (`HEAD`, `index`, `packed-refs`, `shallow`, `refs/heads/`, `refs/tags/`)
+     *  or, if `dirty` is required, in a not ignored directory of the working tree (see {@link RepositoryWatchCache}).
+     *  Useless for single builds in a fresh JVM. Default: `false`. */
+    Boolean getWatchRepository();
+
     /** Setting this parameter to 'true' will skip extraction of Git metadata and creation of buildNumber. Default: `false`. */
     Boolean getSkip();
 
+    /** File to write metrics of the extraction to, as JSON: time spent in phases (open, refs, dirty, tag, describe, commitsCount, format, total; 
+     *  in milliseconds) and counters (commits walked, refs peeled, files scanned). Default: not set (no metrics file). */
+    File getMetricsFile();
+
+    /** File to write all extracted properties to, as `<namespace>.<property>=<value>` (e.g. for filtered resources or packaging). 
+     *  The file is written atomically, and only if its content has changed (see `outputVolatileProperties`), so that its modification time 
+     *  doesn't make downstream build steps stale (see {@link OutputFiles}). Default: not set (no properties file). */
+    File getOutputPropertiesFile();
+
+    /** Fully qualified name of a Java class to generate into `outputJavaDirectory`, with a `String` constant per property, e.g. `BuildInfo.COMMITS_COUNT`
+     *  (additional repositories as nested classes, e.g. `BuildInfo.git_ui.BRANCH`). Written like `outputPropertiesFile`.
+     *  Default: not set (no Java class). */
+    String getOutputJavaClass();
+
+    /** Source directory to generate `outputJavaClass` into. Default: Maven: `${project.build.directory}/generated-sources/jgit-buildnumber` 
+     *  (added as compile source root), Gradle: `build/generated/sources/jgit-buildnumber`; Ant and command line: not set (required for `outputJavaClass`). */
+    File getOutputJavaDirectory();
+
+    /** Comma separated list of properties whose changes alone don't cause `outputPropertiesFile` and `outputJavaClass` to be rewritten, e.g. "buildDate". 
+     *  These files then keep the old values until another property changes. Default: not set (all properties are compared). */
+    String getOutputVolatileProperties();
+
     /** Print more information during build (e.g. parameters, all extracted properties, execution times). Default: `false`. */
     Boolean getVerbose();
 
     void setNamespace(String param);
     void setDirtyValue(String param);
+    void setDirtyIgnoreUntracked(Boolean param);
+    void setDirtyCheckParallelism(Integer param);
+    void setDirtyCheckPath(String param);
     void setShortRevisionLength(Integer param);
     void setGitDateFormat(String param);
     void setBuildDateFormat(String param);
@@ -95,10 +194,25 @@ public interface Parameters {
     void setCountCommitsSinceInclusive(String param);
     void setCountCommitsSinceExclusive(String param);
     void setCountCommitsInPath(String param);
+    void setCountCommitsInPaths(String param);
+    void setCacheCommitsCount(Boolean param);
+    void setCommitsCountManifest(File param);
     void setBuildNumberFormat(String param);
+    void setRequestedProperties(String param);
+    void setUseJavaScriptEngine(Boolean param);
     void setRepositoryDirectory(File param);
+    void setRepositoryDirectories(String param);
+    void setIncludeSubmodules(Boolean param);
     void setRunOnlyAtExecutionRoot(Boolean param);
+    void setParallel(Boolean param);
+    void setExtractionTimeout(Integer param);
+    void setWatchRepository(Boolean param);
     void setSkip(Boolean param);
+    void setMetricsFile(File param);
+    void setOutputPropertiesFile(File param);
+    void setOutputJavaClass(String param);
+    void setOutputJavaDirectory(File param);
+    void setOutputVolatileProperties(String param);
     void setVerbose(Boolean param);
     //@formatter:on
 
@@ -108,20 +222,36 @@ public interface Parameters {
     default void validateAndSetParameterValues() {
         if (getNamespace() == null || !SourceVersion.isName(getNamespace())) setNamespace("git");
         if (getDirtyValue() == null) setDirtyValue("dirty");
+        if (getDirtyIgnoreUntracked() == null) setDirtyIgnoreUntracked(false);
+        if (getDirtyCheckParallelism() == null || getDirtyCheckParallelism() < 1) setDirtyCheckParallelism(1);
         if (getShortRevisionLength() == null || getShortRevisionLength() < 0 || getShortRevisionLength() > 40) setShortRevisionLength(7);
         if (getGitDateFormat() == null) setGitDateFormat("yyyy-MM-dd");
         if (getBuildDateFormat() == null) setBuildDateFormat("yyyy-MM-dd HH:mm:ss");
+        if (getCacheCommitsCount() == null) setCacheCommitsCount(true);
+        if (getUseJavaScriptEngine() == null) setUseJavaScriptEngine(false);
         if (getRepositoryDirectory() == null) setRepositoryDirectory(new File("."));
+        if (getIncludeSubmodules() == null) setIncludeSubmodules(false);
         if (getRunOnlyAtExecutionRoot() == null) setRunOnlyAtExecutionRoot(true);
+        if (getParallel() == null) setParallel(false);
+        if (getExtractionTimeout() != null && getExtractionTimeout() < 0) setExtractionTimeout(null);
+        if (getWatchRepository() == null) setWatchRepository(false);
         if (getSkip() == null) setSkip(false);
         if (getVerbose() == null) setVerbose(false);
     }
 
     default String asString() {
-        return "namespace=" + getNamespace() + ", dirtyValue=" + getDirtyValue() + ", shortRevisionLength=" + getShortRevisionLength() + ", gitDateFormat="
-            + getGitDateFormat() + ", buildDateFormat=" + getBuildDateFormat() + ", dateFormatTimeZone=" + getDateFormatTimeZone()
-            + ", countCommitsSinceInclusive=" + getCountCommitsSinceInclusive() + ", countCommitsSinceExclusive=" + getCountCommitsSinceExclusive()
-            + ", countCommitsInPath=" + getCountCommitsInPath() + ", buildNumberFormat=" + getBuildNumberFormat() + ", repositoryDirectory="
-            + getRepositoryDirectory() + ", runOnlyAtExecutionRoot=" + getRunOnlyAtExecutionRoot() + ", skip=" + getSkip() + ", verbose=" + getVerbose();
+        return "namespace=" + getNamespace() + ", dirtyValue=" + getDirtyValue() + ", dirtyIgnoreUntracked=" + getDirtyIgnoreUntracked()
+            + ", dirtyCheckParallelism=" + getDirtyCheckParallelism() + ", dirtyCheckPath=" + getDirtyCheckPath() + ", shortRevisionLength="
+            + getShortRevisionLength() + ", gitDateFormat=" + getGitDateFormat() + ", buildDateFormat=" + getBuildDateFormat()
+            + ", dateFormatTimeZone=" + getDateFormatTimeZone() + ", countCommitsSinceInclusive=" + getCountCommitsSinceInclusive()
+            + ", countCommitsSinceExclusive=" + getCountCommitsSinceExclusive() + ", countCommitsInPath=" + getCountCommitsInPath()
+            + ", countCommitsInPaths=" + getCountCommitsInPaths() + ", cacheCommitsCount=" + getCacheCommitsCount() + ", commitsCountManifest="
+            + getCommitsCountManifest() + ", buildNumberFormat=" + getBuildNumberFormat() + ", requestedProperties=" + getRequestedProperties()
+            + ", useJavaScriptEngine=" + getUseJavaScriptEngine() + ", repositoryDirectory=" + getRepositoryDirectory() + ", repositoryDirectories="
+            + getRepositoryDirectories() + ", includeSubmodules=" + getIncludeSubmodules() + ", runOnlyAtExecutionRoot=" + getRunOnlyAtExecutionRoot()
+            + ", parallel=" + getParallel() + ", extractionTimeout=" + getExtractionTimeout() + ", watchRepository=" + getWatchRepository()
+            + ", skip=" + getSkip() + ", metricsFile=" + getMetricsFile() + ", outputPropertiesFile=" + getOutputPropertiesFile()
+            + ", outputJavaClass=" + getOutputJavaClass() + ", outputJavaDirectory=" + getOutputJavaDirectory() + ", outputVolatileProperties="
+            + getOutputVolatileProperties() + ", verbose=" + getVerbose();
     }
 }
@@ -0,0 +1,210 @@
+package com.labun.buildnumber;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/** Counts commits affecting each of several paths, with one tree diff per commit for all paths.
+ *  <p>
+ *  Counts are the same as those of a `RevWalk` with tree filter `PathFilter(path)` and `ANY_DIFF` per path (see `countCommitsInPath`).
+ *  Such a walk simplifies history: a merge commit which doesn't change the path compared to one of its parents is skipped,
+ *  and only this parent is followed; the parents of a merge parent which didn't contain the path at all are ignored. Thus each path has
+ *  its own traversal of the history. These traversals are simulated here on commits parsed only once (one `RevWalk` as commit pool),
+ *  in the same order as `RevWalk` (commit time, descending), while the differences between a commit and its parents are computed once for all paths
+ *  (one `TreeWalk` over the commit and parent trees, filtered by all paths) and reused by all traversals.
+ *  <p>
+ *  Not thread-safe. */
+class PathCommitsCounter implements AutoCloseable {
+
+    private final RevWalk walk;
+    private final List<PathFilter> paths = new ArrayList<>();
+    private final TreeFilter filter;
+    private final AtomicLong commitsWalked;
+    private final Map<RevCommit, Diff> diffs = new HashMap<>();
+
+    /** @param paths relative paths in Git repo, as for `countCommitsInPath`
+     *  @param commitsWalked counter, incremented for each commit visited (by each path traversal) */
+    PathCommitsCounter(Repository repo, List<String> paths, AtomicLong commitsWalked) {
+        this.walk = new RevWalk(repo);
+        walk.setRetainBody(false);
+        for (String path : paths)
+            this.paths.add(PathFilter.create(path));
+        this.filter = AndTreeFilter.create(PathFilterGroup.create(this.paths), TreeFilter.ANY_DIFF);
+        this.commitsWalked = commitsWalked;
+    }
+
+    @Override
+    public void close() {
+        walk.close();
+    }
+
+    /** @return path (as given to constructor, without trailing `/`) - number of commits affecting the path; -1 if history is incomplete (missing objects) */
+    Map<String, Integer> count(AnyObjectId head) throws IOException {
+        RevCommit headCommit = walk.parseCommit(head);
+        Map<String, Integer> res = new LinkedHashMap<>();
+        for (int i = 0; i < paths.size(); i++) {
+            int count;
+            try {
+                count = count(headCommit, i);
+            } catch (MissingObjectException e) {
+                count = -1; // e.g. objects of a shallow clone removed
+            }
+            res.put(paths.get(i).getPath(), count);
+        }
+        return res;
+    }
+
+    /** Simulates `RevWalk` with `TreeRevFilter` (JGit 5.x) for one path: `PendingGenerator` order, inclusion, and parent rewriting. */
+    private int count(RevCommit head, int path) throws IOException {
+        PriorityQueue<Pending> queue = new PriorityQueue<>();
+        Set<RevCommit> seen = new HashSet<>();
+        Set<RevCommit> withoutParents = new HashSet<>(); // parents cut off by simplification
+        int sequence = 0;
+        seen.add(head);
+        queue.add(new Pending(head, sequence++));
+
+        int res = 0;
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            RevCommit c = pending.commit;
+            commitsWalked.incrementAndGet();
+            RevCommit[] parents = withoutParents.contains(c) ? new RevCommit[0] : c.getParents();
+
+            boolean include;
+            if (parents.length == 0) {
+                include = TreeWalk.forPath(walk.getObjectReader(), paths.get(path).getPath(), c.getTree()) != null;
+            } else {
+                Diff diff = diff(c);
+                if (parents.length == 1) {
+                    include = diff.changed(path, 0);
+                } else {
+                    include = true;
+                    for (int i = 0; i < parents.length; i++) {
+                        if (!diff.changed(path, i)) { // same as this parent: follow only this one
+                            parents = new RevCommit[] { parents[i] };
+                            include = false;
+                            break;
+                        }
+                        if (diff.onlyAdded(path, i)) withoutParents.add(parents[i]);
+                    }
+                }
+            }
+            if (include) res++;
+
+            for (RevCommit p : parents) {
+                if (!seen.add(p)) continue;
+                walk.parseHeaders(p);
+                queue.add(new Pending(p, sequence++));
+            }
+        }
+        return res;
+    }
+
+    /** Entry of the pending queue, ordered like `DateRevQueue`: newest first, insertion order for equal commit times. */
+    private static class Pending implements Comparable<Pending> {
+        final RevCommit commit;
+        final int sequence;
+
+        Pending(RevCommit commit, int sequence) {
+            this.commit = commit;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            int res = Integer.compare(other.commit.getCommitTime(), commit.getCommitTime());
+            return res != 0 ? res : Integer.compare(sequence, other.sequence);
+        }
+    }
+
+    /** For each path and parent: whether the path differs between parent and commit, and whether all differences are additions. */
+    private static class Diff {
+        final int parents;
+        final BitSet changed = new BitSet();
+        final BitSet notAdded = new BitSet();
+
+        Diff(int parents) {
+            this.parents = parents;
+        }
+
+        boolean changed(int path, int parent) {
+            return changed.get(path * parents + parent);
+        }
+
+        boolean onlyAdded(int path, int parent) {
+            return !notAdded.get(path * parents + parent);
+        }
+    }
+
+    private Diff diff(RevCommit c) throws IOException {
+        Diff res = diffs.get(c);
+        if (res != null) return res;
+
+        RevCommit[] parents = c.getParents();
+        res = new Diff(parents.length);
+        try (TreeWalk tw = new TreeWalk(walk.getObjectReader())) {
+            for (RevCommit p : parents) {
+                walk.parseHeaders(p);
+                tw.addTree(p.getTree());
+            }
+            tw.addTree(c.getTree());
+            tw.setFilter(filter);
+            tw.setRecursive(false); // depending on path, differences are evaluated per top level entry or per file, see below
+
+            while (tw.next()) {
+                boolean enter = false;
+                for (int path = 0; path < paths.size(); path++) {
+                    PathFilter pathFilter = paths.get(path);
+                    // like `TreeRevFilter`: paths with `/` are walked recursively (differences per file), other paths aren't (top level entry)
+                    boolean recursive = pathFilter.shouldBeRecursive();
+                    boolean count;
+                    if (!recursive) {
+                        count = tw.getDepth() == 0 && tw.getPathString().equals(pathFilter.getPath());
+                    } else if (tw.isSubtree()) {
+                        enter |= pathFilter.include(tw); // on the way to or inside the path
+                        count = false;
+                    } else {
+                        String entry = tw.getPathString();
+                        count = entry.equals(pathFilter.getPath()) || entry.startsWith(pathFilter.getPath() + "/");
+                    }
+                    if (count) add(res, tw, path);
+                }
+                if (enter) tw.enterSubtree();
+            }
+        }
+        diffs.put(c, res);
+        return res;
+    }
+
+    /** Evaluates the current entry like `TreeRevFilter`. */
+    private static void add(Diff diff, TreeWalk tw, int path) {
+        int commit = diff.parents;
+        int mode = tw.getRawMode(commit);
+        for (int i = 0; i < diff.parents; i++) {
+            int parentMode = tw.getRawMode(i);
+            if (mode == parentMode && tw.idEqual(i, commit)) continue;
+            diff.changed.set(path * diff.parents + i);
+            if (!(parentMode == FileMode.TYPE_MISSING && mode != FileMode.TYPE_MISSING)) diff.notAdded.set(path * diff.parents + i);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.labun.buildnumber;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** JDK Flight Recorder event for an extraction phase. Only loaded if JFR is available and initialized (see {@link ExtractionMetrics}),
+ *  therefore accessed through static methods with `Object` types only. */
+@Name("com.labun.buildnumber.Phase")
+@Label("Extraction Phase")
+@Category("JGit Build Number")
+@Description("Phase of Git metadata extraction")
+class PhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Repository")
+    String repository;
+
+    static Object begin(String phase, String repository) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.repository = repository;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object event) {
+        ((PhaseEvent) event).commit(); // also ends the event
+    }
+}
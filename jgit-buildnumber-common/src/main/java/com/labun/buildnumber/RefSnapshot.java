@@ -0,0 +1,337 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/** Immutable snapshot of branches and tags (`refs/heads/`, `refs/tags/`) of a repository, parsed once from `packed-refs` and loose refs
+ *  and shared by all extractions in this JVM (see {@link #get(File)}). JGit parses the complete `packed-refs` again for each repository
+ *  instance (i.e. each extraction without `watchRepository`) as soon as a packed ref is looked up, e.g. HEAD's branch after `git gc`,
+ *  which is expensive if CI fetches thousands of branches and tags.
+ *  <p>
+ *  A snapshot stays valid until `packed-refs` (size, modification time) or a loose ref directory (`refs/heads/`, `refs/tags/` and their
+ *  sub-directories; modification time) changes: Git and JGit update refs by renaming a lock file, which modifies the directory.
+ *  Snapshots of files modified within the last seconds may miss changes (same timestamp), therefore they are used, but not cached.
+ *  Not supported (no snapshot, JGit is used instead): symbolic refs below `refs/heads/`, `refs/tags/`, and unreadable refs.
+ *  <p>
+ *  Refs are stored in flat arrays like {@link TagIndex}: names sorted (UTF-8, concatenated, with offsets), ids and peeled ids (20 bytes each),
+ *  about 55 bytes per ref, compared to about 160 bytes per ref held by JGit's `RefDirectory` (`ObjectIdRef` with name and ids; measured with 20,000 tags). */
+class RefSnapshot {
+
+    /** modification time granularity of file systems (FAT: 2 s), plus safety margin */
+    private static final long RACY_MILLIS = 3000;
+    /** max. number of cached snapshots (repositories), least recently used are dropped */
+    private static final int MAX_CACHED = 16;
+
+    /** peel state: peeled id unknown (loose tag, or `packed-refs` without peeled trait), has to be peeled with the object database */
+    static final byte UNKNOWN = 0;
+    /** peel state: not an annotated tag, peeled id is the id itself */
+    static final byte NOT_ANNOTATED = 1;
+    /** peel state: annotated tag, peeled id stored */
+    static final byte PEELED = 2;
+
+    /** key: canonical common Git directory; access order for LRU eviction */
+    private static final Map<File, RefSnapshot> cache = new LinkedHashMap<File, RefSnapshot>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, RefSnapshot> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private final Stat stat;
+    private final int count;
+    private final byte[] names;
+    /** `count + 1` offsets in {@link #names} */
+    private final int[] nameOffsets;
+    private final byte[] ids;
+    private final byte[] peeledIds;
+    private final byte[] peelStates;
+
+    /** Resolved HEAD of a working tree. */
+    static class Head {
+        final ObjectId objectId;
+        /** short branch name; empty if HEAD is detached */
+        final String branch;
+
+        Head(ObjectId objectId, String branch) {
+            this.objectId = objectId;
+            this.branch = branch;
+        }
+    }
+
+    private RefSnapshot(Stat stat, Map<String, Entry> refs) {
+        this.stat = stat;
+        count = refs.size();
+        List<Entry> entries = new ArrayList<>(refs.values());
+        entries.sort((a, b) -> compare(a.name, 0, a.name.length, b.name)); // byte order, used by binary search
+        int namesLength = 0;
+        for (Entry entry : entries)
+            namesLength += entry.name.length;
+        names = new byte[namesLength];
+        nameOffsets = new int[count + 1];
+        ids = new byte[count * Constants.OBJECT_ID_LENGTH];
+        peeledIds = new byte[count * Constants.OBJECT_ID_LENGTH];
+        peelStates = new byte[count];
+        int i = 0, offset = 0;
+        for (Entry entry : entries) {
+            System.arraycopy(entry.name, 0, names, offset, entry.name.length);
+            nameOffsets[i] = offset;
+            offset += entry.name.length;
+            entry.id.copyRawTo(ids, i * Constants.OBJECT_ID_LENGTH);
+            if (entry.peeledId != null) entry.peeledId.copyRawTo(peeledIds, i * Constants.OBJECT_ID_LENGTH);
+            peelStates[i] = entry.peelState;
+            i++;
+        }
+        nameOffsets[count] = offset;
+    }
+
+    /** @param commonGitDir see {@link CommitsCountCache#getCommonGitDir(File)}
+     *  @return cached snapshot, if refs haven't changed since it has been parsed; otherwise a new snapshot; `null` if refs cannot be
+     *  read into a snapshot (JGit has to be used) */
+    static RefSnapshot get(File commonGitDir) {
+        try {
+            File key = commonGitDir.getCanonicalFile();
+            RefSnapshot cached;
+            synchronized (cache) {
+                cached = cache.get(key);
+            }
+            if (cached != null && cached.stat.isUnchanged(key)) return cached;
+
+            RefSnapshot res = parse(key);
+            if (res == null) return null;
+            if (!res.stat.isRacy()) {
+                synchronized (cache) {
+                    cache.put(key, res);
+                }
+            }
+            return res;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** @return new snapshot, not cached; `null` if not supported (see class comment) */
+    static RefSnapshot parse(File commonGitDir) throws IOException {
+        Stat stat = new Stat(commonGitDir); // before reading, so that changes while reading invalidate the snapshot
+        Map<String, Entry> refs = new HashMap<>();
+        File packedRefs = new File(commonGitDir, Constants.PACKED_REFS);
+        if (packedRefs.isFile()) parsePackedRefs(Files.readAllBytes(packedRefs.toPath()), refs);
+        for (String prefix : Arrays.asList(Constants.R_HEADS, Constants.R_TAGS))
+            if (!readLooseRefs(new File(commonGitDir, prefix), prefix, refs)) return null;
+        return new RefSnapshot(stat, refs);
+    }
+
+    /** Format: optional header `# pack-refs with: <traits>`, lines `<sha1> <name>`, each optionally followed by `^<peeled sha1>`. */
+    private static void parsePackedRefs(byte[] data, Map<String, Entry> refs) {
+        boolean peeledTags = false, fullyPeeled = false;
+        Entry last = null;
+        int pos = 0;
+        while (pos < data.length) {
+            int end = pos;
+            while (end < data.length && data[end] != '\n')
+                end++;
+            int lineEnd = end > pos && data[end - 1] == '\r' ? end - 1 : end;
+            if (data[pos] == '#') {
+                String header = new String(data, pos, lineEnd - pos, StandardCharsets.UTF_8);
+                if (header.startsWith("# pack-refs with:")) {
+                    List<String> traits = Arrays.asList(header.substring("# pack-refs with:".length()).trim().split(" "));
+                    peeledTags = traits.contains("peeled");
+                    fullyPeeled = traits.contains("fully-peeled");
+                }
+            } else if (data[pos] == '^') {
+                if (last != null && lineEnd - pos - 1 == Constants.OBJECT_ID_STRING_LENGTH) {
+                    last.peeledId = ObjectId.fromString(data, pos + 1);
+                    last.peelState = PEELED;
+                }
+            } else if (lineEnd - pos > Constants.OBJECT_ID_STRING_LENGTH + 1 && data[pos + Constants.OBJECT_ID_STRING_LENGTH] == ' ') {
+                String name = new String(data, pos + Constants.OBJECT_ID_STRING_LENGTH + 1, lineEnd - pos - Constants.OBJECT_ID_STRING_LENGTH - 1,
+                    StandardCharsets.UTF_8);
+                boolean tag = name.startsWith(Constants.R_TAGS);
+                last = null;
+                if (tag || name.startsWith(Constants.R_HEADS)) {
+                    last = new Entry(name, ObjectId.fromString(data, pos), fullyPeeled || (peeledTags && tag) ? NOT_ANNOTATED : UNKNOWN);
+                    refs.put(name, last);
+                }
+            }
+            pos = end + 1;
+        }
+    }
+
+    /** Loose refs override packed ones. Lock files (`*.lock`) are skipped.
+     *  @return `false` if a ref cannot be read or is symbolic */
+    private static boolean readLooseRefs(File dir, String prefix, Map<String, Entry> refs) throws IOException {
+        String[] fileNames = dir.list();
+        if (fileNames == null) return true;
+        for (String fileName : fileNames) {
+            File file = new File(dir, fileName);
+            if (file.isDirectory()) {
+                if (!readLooseRefs(file, prefix + fileName + "/", refs)) return false;
+            } else if (!fileName.endsWith(".lock")) {
+                byte[] content = Files.readAllBytes(file.toPath());
+                if (content.length < Constants.OBJECT_ID_STRING_LENGTH || !ObjectId.isId(new String(content, 0, Constants.OBJECT_ID_STRING_LENGTH,
+                    StandardCharsets.US_ASCII))) return false; // symbolic, or being written
+                String name = prefix + fileName;
+                refs.put(name, new Entry(name, ObjectId.fromString(content, 0), prefix.startsWith(Constants.R_HEADS) ? NOT_ANNOTATED : UNKNOWN));
+            }
+        }
+        return true;
+    }
+
+    private static class Entry {
+        final byte[] name;
+        final ObjectId id;
+        ObjectId peeledId;
+        byte peelState;
+
+        Entry(String name, ObjectId id, byte peelState) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.id = id;
+            this.peelState = peelState;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** @return approx. heap size of the snapshot's arrays in bytes */
+    long memoryUsage() {
+        return names.length + nameOffsets.length * 4L + ids.length + peeledIds.length + peelStates.length + 5 * 16;
+    }
+
+    /** @return index of the ref (binary search); negative if not found */
+    private int indexOf(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(names, nameOffsets[mid], nameOffsets[mid + 1], key);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** Compares UTF-8 names as unsigned bytes. */
+    private static int compare(byte[] data, int start, int end, byte[] key) {
+        int length = end - start;
+        for (int i = 0; i < length && i < key.length; i++) {
+            int cmp = (data[start + i] & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return length - key.length;
+    }
+
+    /** @param name full name, e.g. `refs/tags/v1.0`
+     *  @return id the ref points to; `null` if there is no such branch or tag */
+    ObjectId getObjectId(String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : ObjectId.fromRaw(ids, index * Constants.OBJECT_ID_LENGTH);
+    }
+
+    /** @param name full name, e.g. `refs/tags/v1.0`
+     *  @return id of the object the (annotated) tag points to, or the id itself if it's not an annotated tag; `null` if there is no such ref
+     *  or the peeled id is unknown (see {@link #UNKNOWN}) */
+    ObjectId getPeeledObjectId(String name) {
+        int index = indexOf(name);
+        if (index < 0) return null;
+        switch (peelStates[index]) {
+        case NOT_ANNOTATED:
+            return ObjectId.fromRaw(ids, index * Constants.OBJECT_ID_LENGTH);
+        case PEELED:
+            return ObjectId.fromRaw(peeledIds, index * Constants.OBJECT_ID_LENGTH);
+        default:
+            return null;
+        }
+    }
+
+    /** Reads `HEAD` of the working tree (not cached: a small file, which differs between linked worktrees).
+     *  @param gitDir Git directory of the working tree
+     *  @return `null` if HEAD cannot be resolved with this snapshot (e.g. unborn branch, or not a branch) */
+    Head readHead(File gitDir) throws IOException {
+        File file = new File(gitDir, Constants.HEAD);
+        if (!file.isFile()) return null;
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        if (content.startsWith("ref: ")) {
+            String target = content.substring("ref: ".length()).trim();
+            ObjectId id = target.startsWith(Constants.R_HEADS) ? getObjectId(target) : null;
+            return id == null ? null : new Head(id, Repository.shortenRefName(target));
+        }
+        return ObjectId.isId(content) ? new Head(ObjectId.fromString(content), "") : null;
+    }
+
+    /** Stat data of the files refs are read from: size and modification time of `packed-refs`, modification times of loose ref directories. */
+    private static class Stat {
+        private final long time = System.currentTimeMillis();
+        /** -1 if there is no `packed-refs` */
+        private final long packedRefsSize;
+        private final long packedRefsModified;
+        /** path of loose ref directory (relative to common Git directory) - modification time */
+        private final Map<String, Long> directories = new HashMap<>();
+        /** latest modification time of all files */
+        private long lastModified;
+
+        Stat(File commonGitDir) throws IOException {
+            File packedRefs = new File(commonGitDir, Constants.PACKED_REFS);
+            if (packedRefs.isFile()) {
+                BasicFileAttributes attributes = Files.readAttributes(packedRefs.toPath(), BasicFileAttributes.class);
+                packedRefsSize = attributes.size();
+                packedRefsModified = attributes.lastModifiedTime().toMillis();
+            } else {
+                packedRefsSize = -1;
+                packedRefsModified = 0;
+            }
+            lastModified = packedRefsModified;
+            for (String prefix : Arrays.asList(Constants.R_HEADS, Constants.R_TAGS))
+                addTree(new File(commonGitDir, prefix), prefix);
+        }
+
+        private void addTree(File dir, String path) {
+            if (!dir.isDirectory()) return;
+            long modified = dir.lastModified();
+            directories.put(path, modified);
+            lastModified = Math.max(lastModified, modified);
+            String[] names = dir.list();
+            if (names == null) return;
+            for (String name : names) {
+                File file = new File(dir, name);
+                if (file.isDirectory()) addTree(file, path + name + "/");
+            }
+        }
+
+        /** @return `true` if `packed-refs` and the loose ref directories are unchanged (new sub-directories modify their parent) */
+        boolean isUnchanged(File commonGitDir) throws IOException {
+            File packedRefs = new File(commonGitDir, Constants.PACKED_REFS);
+            if (packedRefs.isFile() != (packedRefsSize >= 0)) return false;
+            if (packedRefsSize >= 0) {
+                BasicFileAttributes attributes = Files.readAttributes(packedRefs.toPath(), BasicFileAttributes.class);
+                if (attributes.size() != packedRefsSize || attributes.lastModifiedTime().toMillis() != packedRefsModified) return false;
+            }
+            for (String prefix : Arrays.asList(Constants.R_HEADS, Constants.R_TAGS))
+                if (new File(commonGitDir, prefix).isDirectory() != directories.containsKey(prefix)) return false;
+            for (Map.Entry<String, Long> e : directories.entrySet()) {
+                File dir = new File(commonGitDir, e.getKey());
+                if (dir.lastModified() != e.getValue() || !dir.isDirectory()) return false;
+            }
+            return true;
+        }
+
+        /** @return `true` if a file has been modified shortly before the snapshot, so that further changes may not be detected */
+        boolean isRacy() {
+            return lastModified >= time - RACY_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/** Parameters for an additional repository of a {@link BatchExtraction}: copy of the main parameters,
+ *  with own repository directory and namespace, without parameters which apply to the main repository only. */
+@Getter
+@Setter
+class RepositoryParameters implements Parameters {
+
+    private String namespace;
+    private String dirtyValue;
+    private Boolean dirtyIgnoreUntracked;
+    private Integer dirtyCheckParallelism;
+    private String dirtyCheckPath;
+    private Integer shortRevisionLength;
+    private String gitDateFormat;
+    private String buildDateFormat;
+    private String dateFormatTimeZone;
+    private String countCommitsSinceInclusive;
+    private String countCommitsSinceExclusive;
+    private String countCommitsInPath;
+    private String countCommitsInPaths;
+    private Boolean cacheCommitsCount;
+    private File commitsCountManifest;
+    private String buildNumberFormat;
+    private Boolean useJavaScriptEngine;
+    private String requestedProperties;
+    private File repositoryDirectory;
+    private String repositoryDirectories;
+    private Boolean includeSubmodules;
+    private Boolean runOnlyAtExecutionRoot;
+    private Boolean parallel;
+    private Integer extractionTimeout;
+    private Boolean watchRepository;
+    private Boolean skip;
+    private File metricsFile;
+    private File outputPropertiesFile;
+    private String outputJavaClass;
+    private File outputJavaDirectory;
+    private String outputVolatileProperties;
+    private Boolean verbose;
+
+    RepositoryParameters(Parameters main, File repositoryDirectory, String namespace) {
+        this.namespace = namespace;
+        this.dirtyValue = main.getDirtyValue();
+        this.dirtyIgnoreUntracked = main.getDirtyIgnoreUntracked();
+        this.dirtyCheckParallelism = main.getDirtyCheckParallelism();
+        this.shortRevisionLength = main.getShortRevisionLength();
+        this.gitDateFormat = main.getGitDateFormat();
+        this.buildDateFormat = main.getBuildDateFormat();
+        this.dateFormatTimeZone = main.getDateFormatTimeZone();
+        // dirtyCheckPath, countCommits...: paths and commits of the main repository
+        this.cacheCommitsCount = main.getCacheCommitsCount();
+        // commitsCountManifest: exported from the main repository
+        this.buildNumberFormat = main.getBuildNumberFormat();
+        this.useJavaScriptEngine = main.getUseJavaScriptEngine();
+        this.requestedProperties = main.getRequestedProperties();
+        this.repositoryDirectory = repositoryDirectory;
+        // repositoryDirectories, includeSubmodules: no nested batches
+        this.runOnlyAtExecutionRoot = main.getRunOnlyAtExecutionRoot();
+        this.parallel = main.getParallel();
+        this.extractionTimeout = main.getExtractionTimeout();
+        this.watchRepository = main.getWatchRepository();
+        this.skip = false;
+        // metricsFile: written for main repository
+        // output...: written for main repository, with properties of all repositories
+        this.verbose = main.getVerbose();
+        validateAndSetParameterValues();
+    }
+}
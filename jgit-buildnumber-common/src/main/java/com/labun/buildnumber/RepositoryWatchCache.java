@@ -0,0 +1,302 @@
+package com.labun.buildnumber;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+
+/** In-process cache of open repositories and of values extracted from them (`dirty` flag, extracted properties), for long-lived processes
+ *  (Gradle daemon, Eclipse/m2e, Maven daemon). See {@link Parameters#getWatchRepository()}.
+ *  <p>
+ *  Cached values stay valid until a {@link WatchService} reports a change of `HEAD`, `index`, `packed-refs`, `shallow`, `refs/heads/**`, `refs/tags/**`,
+ *  or (once {@link Entry#watchWorkTree()} has been called) of a not ignored directory of the working tree. A value computed while a change
+ *  happened is not stored (see {@link Entry#getGeneration()}).
+ *  <p>
+ *  Repositories are reference counted: {@link #open(File)} increments the use count, callers have to {@link Repository#close()} it;
+ *  the cache holds one reference until the entry is evicted (least recently used, max. {@link #MAX_REPOSITORIES}) or the cache is closed. */
+public class RepositoryWatchCache implements AutoCloseable {
+
+    static final int MAX_REPOSITORIES = 16;
+
+    /** names of watched files in Git directory; all other files there (`ORIG_HEAD`, `*.lock`, `jgit-buildnumber/`, ...) are irrelevant */
+    private static final Set<String> GIT_DIR_FILES = new HashSet<>(Arrays.asList(Constants.HEAD, "index", Constants.PACKED_REFS, Constants.SHALLOW));
+
+    private static RepositoryWatchCache shared;
+
+    private final WatchService watchService;
+    /** more than one watch per key if repositories share a directory (linked worktrees: common Git directory) */
+    private final Map<WatchKey, List<Watch>> watches = new HashMap<>();
+    /** key: canonical Git directory; access order for LRU eviction */
+    private final Map<File, Entry> entries = new LinkedHashMap<File, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Entry> eldest) {
+            if (size() <= MAX_REPOSITORIES) return false;
+            eldest.getValue().close();
+            return true;
+        }
+    };
+
+    /** @return cache shared by all extractions in this JVM; closed at JVM shutdown */
+    public static synchronized RepositoryWatchCache getShared() throws IOException {
+        if (shared == null) {
+            RepositoryWatchCache cache = new RepositoryWatchCache();
+            Runtime.getRuntime().addShutdownHook(new Thread(cache::close, "jgit-buildnumber-watch-cache-close"));
+            shared = cache;
+        }
+        return shared;
+    }
+
+    public RepositoryWatchCache() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /** Opens the repository (or returns the already opened one), and processes pending file system events.
+     *  @return entry with repository, whose use count has been incremented */
+    synchronized Entry open(File gitDir) throws IOException {
+        processEvents();
+        File key = gitDir.getCanonicalFile();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Repository repository = new RepositoryBuilder().setGitDir(key).setMustExist(true).build();
+            entry = new Entry(repository);
+            try {
+                entry.watchGitDir();
+            } catch (IOException e) {
+                entry.close();
+                throw e;
+            }
+            entries.put(key, entry);
+        } else if (!entry.gitDirWatched) {
+            entry.watchGitDir(); // a directory was created or deleted in refs/
+        }
+        entry.repository.incrementOpen();
+        return entry;
+    }
+
+    private synchronized void processEvents() {
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            List<Watch> keyWatches = watches.getOrDefault(key, Collections.emptyList());
+            for (WatchEvent<?> event : key.pollEvents())
+                for (Watch watch : keyWatches)
+                    watch.handle(event);
+            if (!key.reset()) { // directory deleted
+                watches.remove(key);
+                for (Watch watch : keyWatches)
+                    watch.entry.invalidate();
+            }
+        }
+    }
+
+    private WatchKey register(Path dir, Entry entry, Set<String> names, Set<String> ignoredNames, boolean workTree) throws IOException {
+        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY); // same key if already registered
+        List<Watch> keyWatches = watches.computeIfAbsent(key, k -> new ArrayList<>());
+        keyWatches.removeIf(watch -> watch.entry == entry);
+        keyWatches.add(new Watch(entry, names, ignoredNames, workTree));
+        entry.keys.add(key);
+        return key;
+    }
+
+    /** Removes the entry's watch of the key, cancels the key if not watched by others. */
+    private void unregister(WatchKey key, Entry entry) {
+        List<Watch> keyWatches = watches.getOrDefault(key, Collections.emptyList());
+        keyWatches.removeIf(watch -> watch.entry == entry);
+        if (keyWatches.isEmpty()) {
+            watches.remove(key);
+            key.cancel();
+        }
+    }
+
+    /** Closes all repositories (as far as not used any more) and the watch service. */
+    @Override
+    public synchronized void close() {
+        for (Entry entry : entries.values())
+            entry.close();
+        entries.clear();
+        watches.clear();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // ignore, nothing to release any more
+        }
+    }
+
+    /** Watched directory. Relevant events are {@link #names} (or all events but {@link #ignoredNames}, if `null`), and overflows. */
+    private static class Watch {
+        final Entry entry;
+        final Set<String> names;
+        final Set<String> ignoredNames;
+        final boolean workTree;
+
+        Watch(Entry entry, Set<String> names, Set<String> ignoredNames, boolean workTree) {
+            this.entry = entry;
+            this.names = names;
+            this.ignoredNames = ignoredNames;
+            this.workTree = workTree;
+        }
+
+        void handle(WatchEvent<?> event) {
+            if (event.kind() != OVERFLOW) {
+                String name = event.context().toString();
+                if (names != null ? !names.contains(name) : ignoredNames.contains(name)) return;
+            }
+            entry.invalidate();
+            // a new (not ignored) directory must be watched, too
+            if (event.kind() != ENTRY_MODIFY) {
+                if (workTree) entry.workTreeWatched = false;
+                else if (names == null) entry.gitDirWatched = false;
+            }
+        }
+    }
+
+    /** Open repository with cached values. */
+    class Entry {
+        final Repository repository;
+        /** key: `dirtyIgnoreUntracked` and `dirtyCheckPath` */
+        private final Map<String, Boolean> dirtyFlags = new ConcurrentHashMap<>();
+        /** key: parameters, see {@link Parameters#asString()} */
+        private final Map<String, Map<String, String>> results = new ConcurrentHashMap<>();
+        private final Set<WatchKey> keys = new HashSet<>();
+        private volatile long generation;
+        private boolean gitDirWatched;
+        private boolean workTreeWatched;
+
+        Entry(Repository repository) {
+            this.repository = repository;
+        }
+
+        /** @return counter of changes; take it before reading the repository and pass it to {@link #put(String, Object, long)} */
+        long getGeneration() {
+            return generation;
+        }
+
+        Boolean getDirty(String key) {
+            return get(dirtyFlags, key);
+        }
+
+        /** Stores the `dirty` flag, unless the repository has changed since `generation` was taken. */
+        void putDirty(String key, boolean dirty, long generation) {
+            put(dirtyFlags, key, dirty, generation);
+        }
+
+        Map<String, String> getResult(String key) {
+            return get(results, key);
+        }
+
+        /** Stores the extracted properties, unless the repository has changed since `generation` was taken. */
+        void putResult(String key, Map<String, String> result, long generation) {
+            put(results, key, result, generation);
+        }
+
+        private <V> V get(Map<String, V> values, String key) {
+            synchronized (RepositoryWatchCache.this) {
+                processEvents();
+                return values.get(key);
+            }
+        }
+
+        private <V> void put(Map<String, V> values, String key, V value, long generation) {
+            synchronized (RepositoryWatchCache.this) {
+                processEvents();
+                if (generation == this.generation) values.put(key, value);
+            }
+        }
+
+        private void invalidate() {
+            dirtyFlags.clear();
+            results.clear();
+            generation++;
+        }
+
+        private void watchGitDir() throws IOException {
+            File gitDir = repository.getDirectory();
+            File commonGitDir = CommitsCountCache.getCommonGitDir(gitDir);
+            register(gitDir.toPath(), this, GIT_DIR_FILES, null, false);
+            if (!commonGitDir.equals(gitDir)) register(commonGitDir.toPath(), this, GIT_DIR_FILES, null, false);
+            for (String refs : Arrays.asList(Constants.R_HEADS, Constants.R_TAGS)) {
+                Path refsDir = new File(commonGitDir, refs).toPath();
+                if (!Files.isDirectory(refsDir)) continue;
+                try (Stream<Path> dirs = Files.walk(refsDir)) {
+                    for (Iterator<Path> it = dirs.filter(Files::isDirectory).iterator(); it.hasNext();)
+                        register(it.next(), this, null, Collections.emptySet(), false);
+                }
+            }
+            gitDirWatched = true;
+        }
+
+        /** Watches all not ignored directories of the working tree (required for cached `dirty` flag). Events of ignored entries
+         *  (e.g. `target/`, `build/`) are irrelevant. Has to be called before the working tree is checked.
+         *  @throws IOException e.g. if the limit of watches is reached (Linux: `fs.inotify.max_user_watches`); the directories
+         *  already registered are not watched any more */
+        void watchWorkTree() throws IOException {
+            synchronized (RepositoryWatchCache.this) {
+                if (workTreeWatched || repository.isBare()) return;
+                Map<String, Set<String>> ignoredNames = new LinkedHashMap<>(); // key: directory relative to working tree
+                ignoredNames.put("", new HashSet<>(Collections.singleton(Constants.DOT_GIT)));
+                try (TreeWalk walk = new TreeWalk(repository)) {
+                    walk.addTree(new FileTreeIterator(repository));
+                    while (walk.next()) {
+                        String path = walk.getPathString();
+                        String parent = path.lastIndexOf('/') >= 0 ? path.substring(0, path.lastIndexOf('/')) : "";
+                        if (walk.getTree(0, WorkingTreeIterator.class).isEntryIgnored()) {
+                            ignoredNames.get(parent).add(walk.getNameString());
+                        } else if (walk.isSubtree()) {
+                            ignoredNames.put(path, new HashSet<>());
+                            walk.enterSubtree();
+                        }
+                    }
+                }
+                File workTree = repository.getWorkTree();
+                List<WatchKey> registered = new ArrayList<>();
+                try {
+                    for (Map.Entry<String, Set<String>> dir : ignoredNames.entrySet())
+                        registered.add(register(new File(workTree, dir.getKey()).toPath(), this, null, dir.getValue(), true));
+                } catch (IOException e) {
+                    for (WatchKey key : registered) {
+                        unregister(key, this);
+                        keys.remove(key);
+                    }
+                    throw e;
+                }
+                workTreeWatched = true;
+            }
+        }
+
+        private void close() {
+            for (WatchKey key : keys)
+                unregister(key, this);
+            keys.clear();
+            dirtyFlags.clear();
+            results.clear();
+            repository.close();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/** Reverse index of tags: peeled commit → tag names. Stored in the Git directory (`.git/jgit-buildnumber/tags.index`, see
+ *  {@link CommitsCountCache#getCommonGitDir(File)}) and only rebuilt if refs have changed, i.e. if the fingerprint of `packed-refs` and
+ *  loose tag refs (paths, sizes, modification times) differs. Files modified within the last seconds may still change unnoticed
+ *  (same size and timestamp), therefore an index built from such "racy" files is used, but not stored.
+ *  <p>
+ *  File format (big-endian): magic, version, fingerprint (20 bytes), entry count `n`, `n` peeled commit ids (20 bytes each, sorted;
+ *  entries with equal ids sorted by tag name), `n` tagger dates (milliseconds; {@link #LIGHTWEIGHT} for lightweight tags),
+ *  `n + 1` offsets of tag names (relative to start of names), tag names (UTF-8).
+ *  <p>
+ *  Lookups are binary searches on the raw bytes, without creating objects for non-matching tags. */
+class TagIndex {
+
+    private static final String FILE_NAME = "tags.index";
+    private static final int MAGIC = 0x4A42_5449; // "JBTI"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + Constants.OBJECT_ID_LENGTH + 4;
+    /** modification time granularity of file systems (FAT: 2 s), plus safety margin */
+    private static final long RACY_MILLIS = 3000;
+    /** tagger date of lightweight tags (which have no tagger) */
+    private static final long LIGHTWEIGHT = Long.MIN_VALUE;
+
+    private final byte[] data;
+    private final int count;
+    private final int idsOffset;
+    private final int datesOffset;
+    private final int offsetsOffset;
+    private final int namesOffset;
+
+    /** `true` if the index has been rebuilt (refs have changed since the index was written) */
+    final boolean rebuilt;
+
+    private TagIndex(byte[] data, boolean rebuilt) {
+        this.data = data;
+        this.rebuilt = rebuilt;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) throw new IllegalArgumentException("invalid header");
+        count = buffer.getInt(HEADER_SIZE - 4);
+        if (count < 0 || HEADER_SIZE + count * (Constants.OBJECT_ID_LENGTH + 8L + 4L) + 4 > data.length) throw new IllegalArgumentException("invalid count");
+        idsOffset = HEADER_SIZE;
+        datesOffset = idsOffset + count * Constants.OBJECT_ID_LENGTH;
+        offsetsOffset = datesOffset + count * 8;
+        namesOffset = offsetsOffset + (count + 1) * 4;
+        if (namesOffset + nameOffset(count) != data.length) throw new IllegalArgumentException("invalid size");
+    }
+
+    /** Loads the stored index, or rebuilds (and stores) it if refs have changed or the stored index cannot be read.
+     *  @param refsPeeled counter, incremented for each tag peeled while rebuilding
+     *  @throws IOException if refs cannot be read (errors on storing the index are ignored) */
+    static TagIndex open(Repository repo, File gitDir, AtomicLong refsPeeled) throws IOException {
+        File commonGitDir = CommitsCountCache.getCommonGitDir(gitDir);
+        File file = new File(new File(commonGitDir, CommitsCountCache.DIRECTORY_NAME), FILE_NAME);
+        long now = System.currentTimeMillis();
+        Fingerprint fingerprint = new Fingerprint(commonGitDir);
+
+        if (file.isFile()) {
+            try {
+                byte[] data = Files.readAllBytes(file.toPath());
+                if (data.length >= HEADER_SIZE && fingerprint.equals(data, 8)) return new TagIndex(data, false);
+            } catch (IOException | IllegalArgumentException e) {
+                // rebuild
+            }
+        }
+
+        byte[] data = build(repo, fingerprint, refsPeeled);
+        if (fingerprint.lastModified < now - RACY_MILLIS) {
+            try {
+                file.getParentFile().mkdirs();
+                File tmp = File.createTempFile(FILE_NAME, ".tmp", file.getParentFile());
+                try {
+                    Files.write(tmp.toPath(), data);
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    tmp.delete();
+                }
+            } catch (IOException e) {
+                // e.g. read only file system; the index is only an optimization
+            }
+        }
+        return new TagIndex(data, true);
+    }
+
+    private static byte[] build(Repository repo, Fingerprint fingerprint, AtomicLong refsPeeled) throws IOException {
+        List<Ref> refs = repo.getRefDatabase().getRefsByPrefix(Constants.R_TAGS);
+        Entry[] entries = new Entry[refs.size()];
+        int namesLength = 0;
+        try (RevWalk walk = new RevWalk(repo)) {
+            for (int i = 0; i < entries.length; i++) {
+                Ref peeled = repo.getRefDatabase().peel(refs.get(i));
+                refsPeeled.incrementAndGet();
+                ObjectId id = peeled.getObjectId();
+                long date = LIGHTWEIGHT;
+                if (peeled.getPeeledObjectId() != null) { // annotated tag
+                    id = peeled.getPeeledObjectId();
+                    PersonIdent tagger = walk.parseTag(peeled.getObjectId()).getTaggerIdent();
+                    date = tagger != null ? tagger.getWhen().getTime() : 0;
+                }
+                entries[i] = new Entry(id, date, peeled.getName().substring(Constants.R_TAGS.length()).getBytes(StandardCharsets.UTF_8));
+                namesLength += entries[i].name.length;
+            }
+        }
+        Arrays.sort(entries);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + entries.length * (Constants.OBJECT_ID_LENGTH + 8 + 4) + 4 + namesLength);
+        buffer.putInt(MAGIC).putInt(VERSION).put(fingerprint.digest).putInt(entries.length);
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        for (Entry entry : entries) {
+            entry.id.copyRawTo(raw, 0);
+            buffer.put(raw);
+        }
+        for (Entry entry : entries)
+            buffer.putLong(entry.date);
+        int offset = 0;
+        for (Entry entry : entries) {
+            buffer.putInt(offset);
+            offset += entry.name.length;
+        }
+        buffer.putInt(offset);
+        for (Entry entry : entries)
+            buffer.put(entry.name);
+        return buffer.array();
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final ObjectId id;
+        final long date;
+        final byte[] name;
+        final String nameString;
+
+        Entry(ObjectId id, long date, byte[] name) {
+            this.id = id;
+            this.date = date;
+            this.name = name;
+            this.nameString = new String(name, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int res = id.compareTo(other.id);
+            return res != 0 ? res : nameString.compareTo(other.nameString); // same order as TreeSet<String> before
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    private int nameOffset(int index) {
+        int p = offsetsOffset + index * 4;
+        return ((data[p] & 0xff) << 24) | ((data[p + 1] & 0xff) << 16) | ((data[p + 2] & 0xff) << 8) | (data[p + 3] & 0xff);
+    }
+
+    private long date(int index) {
+        int p = datesOffset + index * 8;
+        long res = 0;
+        for (int i = 0; i < 8; i++)
+            res = (res << 8) | (data[p + i] & 0xff);
+        return res;
+    }
+
+    private String name(int index) {
+        int start = nameOffset(index), end = nameOffset(index + 1);
+        return new String(data, namesOffset + start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /** @return index of the first entry with this id (binary search); index of the next greater id if there is none */
+    private int first(AnyObjectId commit) {
+        int low = 0, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (commit.compareTo(data, idsOffset + mid * Constants.OBJECT_ID_LENGTH) > 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private boolean matches(int index, AnyObjectId commit) {
+        return index < count && commit.compareTo(data, idsOffset + index * Constants.OBJECT_ID_LENGTH) == 0;
+    }
+
+    /** @return names of tags pointing (peeled) to the commit, sorted, separated with `;`; empty string if there are none */
+    String getTagNames(AnyObjectId commit) {
+        StringBuilder sb = null;
+        for (int i = first(commit); matches(i, commit); i++) {
+            if (sb == null) sb = new StringBuilder();
+            else sb.append(';');
+            sb.append(name(i));
+        }
+        return sb == null ? "" : sb.toString();
+    }
+
+    /** Same choice as `git describe` (JGit `DescribeCommand`) without `--tags`: only annotated tags count, the newest one wins
+     *  (by tagger date; first by name if dates are equal).
+     *  @return name of the annotated tag to describe the commit with; `null` if there is none */
+    String getDescribeTag(AnyObjectId commit) {
+        int best = -1;
+        for (int i = first(commit); matches(i, commit); i++) {
+            long date = date(i);
+            if (date != LIGHTWEIGHT && (best < 0 || date > date(best))) best = i;
+        }
+        return best < 0 ? null : name(best);
+    }
+
+    /** Stat data of the files tags are read from: `packed-refs` and loose refs under `refs/tags/`. */
+    private static class Fingerprint {
+        final byte[] digest;
+        /** latest modification time of all files */
+        long lastModified;
+
+        Fingerprint(File commonGitDir) throws IOException {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            add(md, new File(commonGitDir, Constants.PACKED_REFS), Constants.PACKED_REFS);
+            addTree(md, new File(commonGitDir, Constants.R_TAGS), Constants.R_TAGS);
+            digest = md.digest();
+        }
+
+        private void addTree(MessageDigest md, File dir, String path) throws IOException {
+            String[] names = dir.list();
+            if (names == null) return;
+            Arrays.sort(names); // stable order
+            for (String name : names) {
+                File file = new File(dir, name);
+                if (file.isDirectory()) addTree(md, file, path + name + "/");
+                else add(md, file, path + name);
+            }
+        }
+
+        private void add(MessageDigest md, File file, String path) throws IOException {
+            if (!file.isFile()) return;
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            long modified = attributes.lastModifiedTime().toMillis();
+            lastModified = Math.max(lastModified, modified);
+            md.update(path.getBytes(StandardCharsets.UTF_8));
+            md.update(ByteBuffer.allocate(17).put((byte) 0).putLong(attributes.size()).putLong(modified).array());
+        }
+
+        boolean equals(byte[] data, int offset) {
+            for (int i = 0; i < digest.length; i++)
+                if (data[offset + i] != digest[i]) return false;
+            return true;
+        }
+    }
+}
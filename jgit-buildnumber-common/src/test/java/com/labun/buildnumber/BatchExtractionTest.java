@@ -0,0 +1,117 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Additional repositories of {@link BatchExtraction}: namespaces, directories relative to the main repository, submodules. */
+public class BatchExtractionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File main, libA, libB;
+    private RevCommit mainHead, libAHead, libBHead;
+
+    @Before
+    public void createRepositories() throws Exception {
+        main = new File(folder.getRoot(), "main");
+        libA = new File(folder.getRoot(), "lib-a");
+        libB = new File(folder.getRoot(), "lib.b");
+        mainHead = init(main);
+        libAHead = init(libA);
+        libBHead = init(libB);
+    }
+
+    /** Namespaces given or derived from the directory name; directories relative to the main repository or absolute. */
+    @Test
+    public void extractAdditionalRepositories() throws Exception {
+        TestParameters params = new TestParameters(main);
+        params.setRequestedProperties("revision");
+        params.setRepositoryDirectories(" ../lib-a , , other = " + libB.getAbsolutePath());
+        List<String> log = new ArrayList<>();
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, log::add)) {
+            BatchExtraction batch = new BatchExtraction(params, extractor, log::add);
+            assertEquals(mainHead.name(), extractor.extract().get("revision"));
+            Map<String, Map<String, String>> results = batch.getResults();
+            assertEquals(Arrays.asList("git_lib_a", "other"), new ArrayList<>(results.keySet()));
+            assertEquals(libAHead.name(), results.get("git_lib_a").get("revision"));
+            assertEquals(libBHead.name(), results.get("other").get("revision"));
+        }
+        assertEquals(params.getRepositoryDirectories(), 2, BatchExtraction.getNamespaces(params).size());
+    }
+
+    @Test
+    public void invalidNamespaces() throws Exception {
+        for (String repositoryDirectories : new String[] { "1lib=../lib-a", "a b=../lib-a", "git=../lib-a", "lib=../lib-a,lib=../lib.b",
+            "../lib-a,git_lib_a=../lib.b" }) {
+            TestParameters params = new TestParameters(main);
+            params.setRepositoryDirectories(repositoryDirectories);
+            try {
+                BatchExtraction.getNamespaces(params);
+                fail(repositoryDirectories);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /** Same entries mean different repositories if the main repository differs (relative directories), and vice versa. */
+    @Test
+    public void canonicalRepositoryDirectories() throws Exception {
+        TestParameters params = new TestParameters(main);
+        params.setRepositoryDirectories("../lib-a, b = " + new File(main, "../lib.b").getPath());
+        List<String> expected = Arrays.asList(libA.getCanonicalPath(), "b=" + libB.getCanonicalPath());
+        assertEquals(expected, BatchExtraction.getCanonicalRepositoryDirectories(params));
+
+        TestParameters other = new TestParameters(new File(main, "sub"));
+        other.setRepositoryDirectories("../../lib-a,b=../../lib.b");
+        assertEquals(expected, BatchExtraction.getCanonicalRepositoryDirectories(other));
+
+        other.setRepositoryDirectories(params.getRepositoryDirectories());
+        assertNotEquals(expected, BatchExtraction.getCanonicalRepositoryDirectories(other));
+    }
+
+    /** Initialized submodules are extracted (namespace derived from the path), not initialized ones skipped. */
+    @Test
+    public void includeSubmodules() throws Exception {
+        try (Git git = Git.open(main)) {
+            git.submoduleAdd().setPath("libs/sub").setURI(libA.toURI().toString()).call().close();
+            git.submoduleAdd().setPath("libs/missing").setURI(libB.toURI().toString()).call().close();
+            git.commit().setMessage("submodules").call();
+        }
+        FileUtils.delete(new File(main, "libs/missing"), FileUtils.RECURSIVE);
+
+        TestParameters params = new TestParameters(main);
+        params.setRequestedProperties("revision");
+        params.setIncludeSubmodules(true);
+        List<String> log = new ArrayList<>();
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, log::add)) {
+            Map<String, Map<String, String>> results = new BatchExtraction(params, extractor, log::add).getResults();
+            assertEquals(Arrays.asList("git_libs_sub"), new ArrayList<>(results.keySet()));
+            assertEquals(libAHead.name(), results.get("git_libs_sub").get("revision"));
+        }
+        assertTrue(log.toString(), log.contains("submodule 'libs/missing' not initialized, skipped"));
+    }
+
+    private static RevCommit init(File dir) throws Exception {
+        try (Git git = Git.init().setDirectory(dir).call()) {
+            return git.commit().setMessage("initial").call();
+        }
+    }
+}
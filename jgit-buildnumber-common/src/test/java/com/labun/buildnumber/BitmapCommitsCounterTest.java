@@ -0,0 +1,119 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Compares {@link BitmapCommitsCounter} with a complete `RevWalk`, for commits with bitmap (branch tips at the time of gc), packed commits
+ *  without bitmap, and commits created after gc (walked until commits with bitmap, also from two branches). */
+public class BitmapCommitsCounterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Repository repo;
+    private TestRepository<Repository> testRepo;
+    private final List<RevCommit> packed = new ArrayList<>();
+    private RevCommit master, feature;
+
+    @Before
+    public void createRepository() throws Exception {
+        repo = FileRepositoryBuilder.create(new File(folder.newFolder(), Constants.DOT_GIT));
+        repo.create();
+        testRepo = new TestRepository<>(repo);
+        master = testRepo.commit().create();
+        packed.add(master);
+        for (int i = 0; i < 40; i++) {
+            if (i % 4 == 0) { // merge of a side branch
+                RevCommit side = testRepo.commit().parent(master).create();
+                packed.add(side);
+                master = testRepo.commit().parent(master).parent(side).create();
+            } else {
+                master = testRepo.commit().parent(master).create();
+            }
+            packed.add(master);
+        }
+        feature = testRepo.commit().parent(packed.get(20)).create();
+        packed.add(feature);
+        testRepo.update(Constants.R_HEADS + Constants.MASTER, master);
+        testRepo.update(Constants.R_HEADS + "feature", feature);
+    }
+
+    @After
+    public void closeRepository() {
+        testRepo.close();
+    }
+
+    @Test
+    public void noBitmaps() throws Exception {
+        assertNull(BitmapCommitsCounter.count(repo, master, null, new AtomicLong()));
+    }
+
+    @Test
+    public void sameAsRevWalk() throws Exception {
+        gc();
+        for (RevCommit commit : packed)
+            assertCount(commit);
+        AtomicLong commitsWalked = new AtomicLong();
+        BitmapCommitsCounter.count(repo, master, null, commitsWalked);
+        assertEquals(0, commitsWalked.get());
+
+        RevCommit n1 = testRepo.commit().parent(master).create();
+        RevCommit s1 = testRepo.commit().parent(packed.get(10)).create(); // branch forked before gc
+        RevCommit merge = testRepo.commit().parent(n1).parent(s1).create();
+        RevCommit both = testRepo.commit().parent(merge).parent(feature).create(); // two commits with bitmap reached
+        for (RevCommit commit : new RevCommit[] { n1, s1, merge, both })
+            assertCount(commit);
+        BitmapCommitsCounter.count(repo, both, null, commitsWalked);
+        assertEquals(4, commitsWalked.get());
+    }
+
+    /** The count of a single reached commit with bitmap is cached (iterating the bitmap costs time), the union of several ones isn't. */
+    @Test
+    public void bitmapCountCached() throws Exception {
+        gc();
+        CommitsCountCache cache = new CommitsCountCache(repo.getDirectory());
+        RevCommit n1 = testRepo.commit().parent(master).create();
+        assertEquals(HistoryWalkTest.countCommits(repo, n1), (int) BitmapCommitsCounter.count(repo, n1, cache, new AtomicLong()));
+        assertEquals(HistoryWalkTest.countCommits(repo, master), (int) cache.get(master, ""));
+
+        cache.put(master, "", 1000); // the cached count is used
+        assertEquals(1001, (int) BitmapCommitsCounter.count(repo, n1, cache, new AtomicLong()));
+
+        RevCommit both = testRepo.commit().parent(n1).parent(feature).create();
+        assertEquals(HistoryWalkTest.countCommits(repo, both), (int) BitmapCommitsCounter.count(repo, both, cache, new AtomicLong()));
+        assertNull(cache.get(feature, ""));
+    }
+
+    /** Packs all objects, with bitmaps for the branch tips. */
+    private void gc() throws Exception {
+        Git.wrap(repo).gc().call();
+        try (ObjectReader reader = repo.newObjectReader()) {
+            assertNotNull(reader.getBitmapIndex());
+            assertNotNull(reader.getBitmapIndex().getBitmap(master));
+            assertNotNull(reader.getBitmapIndex().getBitmap(feature));
+        }
+    }
+
+    private void assertCount(RevCommit commit) throws Exception {
+        assertEquals(commit.name(), HistoryWalkTest.countCommits(repo, commit), (int) BitmapCommitsCounter.count(repo, commit, null, new AtomicLong()));
+    }
+}
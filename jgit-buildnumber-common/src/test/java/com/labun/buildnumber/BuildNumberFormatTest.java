@@ -0,0 +1,149 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Compares the built-in engine ({@link BuildNumberFormat}) with the JS engine of the JDK (Nashorn, Java 8 - 14; skipped without JS engine),
+ *  converted by JavaScript `String(...)`, since Nashorn returns numbers as Java `Double`; numbers are compared with the values required
+ *  by the JavaScript spec. */
+public class BuildNumberFormatTest {
+
+    private static ScriptEngine jsEngine;
+
+    private static final Map<String, String> properties = new LinkedHashMap<>();
+    static {
+        properties.put("branch", "feature/fix-it");
+        properties.put("tag", "");
+        properties.put("describe", "v1.0-3-gabc1234");
+        properties.put("commitsCount", "19");
+        properties.put("shortRevision", "abc1234");
+        properties.put("dirty", "");
+        properties.put("commitDate", "2019-06-24");
+    }
+
+    @BeforeClass
+    public static void findJavaScriptEngine() {
+        jsEngine = new ScriptEngineManager().getEngineByName("JavaScript");
+    }
+
+    @Test
+    public void typicalFormats() throws Exception {
+        assertSameAsJavaScript(
+            "name = (tag.length > 0) ? tag : (branch.length > 0) ? branch : \"UNNAMED\";\n"
+                + "name + \".\" + commitsCount + \".\" + shortRevision + (dirty.length > 0 ? \"-\" + dirty : \"\")",
+            "branch + \".\" + commitsCount + \"/\" + commitDate + \"/\" + shortRevision + (dirty.length > 0 ? \"-\" + dirty : \"\");",
+            "// comment\n tag || branch.replace(\"feature/\", \"\") /* inline */ + \"-\" + shortRevision",
+            "a = 1; b = a + commitsCount\n b");
+    }
+
+    /** Values of `Number::toString` as specified (shortest digits, as by V8), regardless of the Java version: Nashorn of Java 8 and
+     *  `Double.toString` before Java 19 sometimes have more digits, e.g. `4.9e-324`. */
+    @Test
+    public void numbers() {
+        String[][] formats = {
+            { "commitsCount - 1", "18" }, { "\"v\" + (commitsCount - 1)", "v18" }, { "commitsCount - 0.1", "18.9" },
+            { "1 - 0.9", "0.09999999999999998" }, { "0.1 + 0.2", "0.30000000000000004" }, { "-commitsCount", "-19" },
+            { "\"1e21\" - 0", "1e+21" }, { "\"1e-7\" - 0", "1e-7" }, { "\"0.000001\" - 0", "0.000001" }, { "\"123e-20\" - 0", "1.23e-18" },
+            { "\"123456789012345678901234\" - 0", "1.2345678901234569e+23" }, { "\"1152921504606846976\" - 0", "1152921504606847000" },
+            { "\"9007199254740993\" - 0", "9007199254740992" }, { "\"2e23\" - 0", "2e+23" }, { "\"0x1A\" - 0", "26" },
+            { "\" \\u00a012\\n\" - 0", "12" }, { "\"12abc\" - 0", "NaN" }, { "\"\" - 0", "0" }, { "\"-0\" - 0", "0" },
+            { "\"Infinity\" - 0", "Infinity" }, { "\"-Infinity\" - 1", "-Infinity" }, { "true + 1", "2" }, { "describe.length + 0.5", "15.5" },
+            { "\"5e-324\" - 0", "5e-324" }, { "\"2.2250738585072014e-308\" - 0", "2.2250738585072014e-308" },
+            { "\"1.7976931348623157e308\" - 0", "1.7976931348623157e+308" }, { "\"100\" - \"0.001\"", "99.999" } };
+        for (String[] format : formats)
+            assertEquals(format[0], format[1], BuildNumberFormat.compile(format[0]).format(properties));
+    }
+
+    @Test
+    public void stringMethods() throws Exception {
+        assertSameAsJavaScript("branch.toUpperCase()", "\"STRASSE ß\".toLowerCase() + \"ß\".toUpperCase()", "(\"\\u00a0\" + branch + \"\\t\").trim()",
+            "shortRevision.substring(5, 2)", "shortRevision.substring(-1, 3.9)", "shortRevision.substr(2)", "shortRevision.substr(-3, 2)",
+            "describe.substr(-0.5, 3)", "shortRevision.slice(-3)", "shortRevision.slice(2, -1)", "shortRevision.slice(5, 2)",
+            "shortRevision.charAt(-0.5)", "shortRevision.charAt(1.9)", "shortRevision.charAt(100)", "describe.indexOf(\"-\") + 1",
+            "describe.indexOf(\"-\", 5)", "describe.lastIndexOf(\"-\")", "describe.lastIndexOf(\"-\", \"x\")", "describe.lastIndexOf(\"-\", 5)",
+            "describe.indexOf()", "\"undefined\".indexOf()", "branch.replace()", "branch.replace(\"-\", \"_\")", "branch.replace(\"x\", \"_\")",
+            "\"a-b-a\".replace(\"a\", \"[$&]\")", "\"a-b-a\".replace(\"b\", \"$$\")", "\"a-b-a\".replace(\"b\", \"$`\")",
+            "\"a-b-a\".replace(\"b\", \"$'\")", "\"a-b-a\".replace(\"b\", \"$1$\")", "describe.substring(1, describe.indexOf(\"-\"))");
+    }
+
+    @Test
+    public void operators() throws Exception {
+        assertSameAsJavaScript("commitsCount > 5 ? \"many\" : \"few\"", "\"10\" < \"9\"", "commitsCount == 19", "commitsCount === \"19\"",
+            "commitsCount !== 19", "commitsCount != \"19.0\"", "!dirty", "dirty || \"clean\"", "tag && \"tagged\"", "commitsCount >= \"abc\"",
+            "!!branch", "true == 1", "false === 0", "\"\" == 0", "commitsCount <= 19 && commitsCount - 19 || \"zero\"");
+    }
+
+    /** Locale specific case mapping would give "FEATURE/F\u0130X-\u0130T". */
+    @Test
+    public void caseMappingIsLocaleIndependent() throws Exception {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertSameAsJavaScript("branch.toUpperCase()", "\"TITLE\".toLowerCase()");
+            assertEquals("FEATURE/FIX-IT", BuildNumberFormat.compile("branch.toUpperCase()").format(properties));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    /** The caller takes the result of the JS engine instead (see `BuildNumberExtractor#formatBuildNumber`). */
+    @Test
+    public void numericResultIsReturnedAsNumber() {
+        assertEquals(18.0, BuildNumberFormat.compile("commitsCount - 1").evaluate(properties));
+        assertEquals("18", BuildNumberFormat.compile("commitsCount - 1").format(properties));
+    }
+
+    /** The caller falls back to the JS engine, which either fails too (undefined variable) or returns `undefined`. */
+    @Test
+    public void evaluationErrors() {
+        for (String format : Arrays.asList("undefinedVariable + 1", "(commitsCount - 1).length", "(commitsCount - 1).trim()")) {
+            try {
+                BuildNumberFormat.compile(format).format(properties);
+                fail(format);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /** These are evaluated by the JS engine. */
+    @Test
+    public void unsupportedSyntax() {
+        for (String format : Arrays.asList("branch.split(\"/\")[0]", "commitsCount * 2", "\"1\" + 1e3", "if (tag) tag", "branch.replace(/-/g, \"_\")")) {
+            try {
+                BuildNumberFormat.compile(format);
+                fail(format);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("position"));
+            }
+        }
+    }
+
+    private static void assertSameAsJavaScript(String... formats) throws ScriptException {
+        assumeNotNull(jsEngine);
+        List<String> list = Arrays.asList(formats);
+        for (String format : list) {
+            Bindings bindings = jsEngine.createBindings();
+            bindings.putAll(properties);
+            bindings.put("format", format);
+            Object expected = jsEngine.eval("String(eval(format))", bindings);
+            assertEquals(format, expected, BuildNumberFormat.compile(format).format(properties));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Extracts `commitsCount` with {@link CommitsCountCache}, as a CI server would build commits one after the other, and compares the counts
+ *  with a complete `RevWalk`: new commits are only added to the count of a cached ancestor if they all descend from it. */
+public class CommitsCountCacheTest {
+
+    private static final String INCREMENTAL = "counted from cached ancestor";
+    private static final String ALL = "counting all commits";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private Repository repo;
+    private TestRepository<Repository> testRepo;
+
+    @Before
+    public void createRepository() throws Exception {
+        dir = folder.newFolder();
+        repo = FileRepositoryBuilder.create(new File(dir, Constants.DOT_GIT));
+        repo.create();
+        testRepo = new TestRepository<>(repo);
+    }
+
+    @After
+    public void closeRepository() {
+        testRepo.close();
+    }
+
+    @Test
+    public void linearHistory() throws Exception {
+        RevCommit commit = commit(100);
+        assertCount(commit, "commitsCount", null);
+        for (int i = 1; i <= 3; i++) {
+            commit = commit(100 + i, commit);
+            assertCount(commit, i % 2 == 0 ? "commitsCount" : "describe,commitsCount", INCREMENTAL);
+        }
+    }
+
+    @Test
+    public void mergeOfBranchForkedAfterCachedCommit() throws Exception {
+        RevCommit cached = commit(200, commit(100));
+        assertCount(cached, "commitsCount", null);
+        RevCommit feature = commit(400, commit(300, cached));
+        RevCommit main = commit(350, cached);
+        assertCount(commit(500, main, feature), "describe,commitsCount", INCREMENTAL);
+    }
+
+    /** The branch's commits are reachable from the cached commit (ancestors of it) or not (the branch's own ones), which is not known
+     *  without walking the cached commit's history. */
+    @Test
+    public void mergeOfBranchForkedBeforeCachedCommit() throws Exception {
+        RevCommit fork = commit(200, commit(100));
+        RevCommit cached = commit(300, fork);
+        assertCount(cached, "commitsCount", null);
+        RevCommit feature = commit(400, fork);
+        assertCount(commit(500, cached, feature), "commitsCount", ALL);
+
+        // fork point cached too: two cached ancestors
+        RevCommit main = commit(600, fork);
+        assertCount(fork, "commitsCount", null);
+        assertCount(main, "commitsCount", INCREMENTAL);
+        assertCount(commit(700, main, cached), "describe,commitsCount", ALL);
+    }
+
+    /** A `RevWalk` from the merge, with the cached commit uninteresting, would end (6 commits after the last interesting one) before
+     *  the root commit gets uninteresting, and count it again. */
+    @Test
+    public void mergeWithRootBehindSkewedCommits() throws Exception {
+        RevCommit root = commit(800);
+        RevCommit commit = commit(100, root);
+        for (int i = 10; i >= 1; i--)
+            commit = commit(150 + 50 * i, commit);
+        RevCommit cached = commit(1000, commit);
+        assertCount(cached, "commitsCount", null);
+        assertCount(commit(2000, cached, root), "commitsCount", ALL);
+    }
+
+    @Test
+    public void equalCommitTimes() throws Exception {
+        RevCommit cached = commit(100, commit(100));
+        assertCount(cached, "commitsCount", null);
+        RevCommit feature = commit(100, commit(100, cached));
+        RevCommit merge = commit(100, commit(100, commit(100, cached)), feature);
+        assertCount(merge, "describe,commitsCount", INCREMENTAL);
+        assertCount(commit(100, merge), "commitsCount", INCREMENTAL);
+    }
+
+    private RevCommit commit(int time, RevCommit... parents) throws Exception {
+        TestRepository<Repository>.CommitBuilder builder = testRepo.commit().noParents().add("file", String.valueOf(time))
+            .ident(new PersonIdent("A U Thor", "author@example.com", time * 1000L, 0));
+        for (RevCommit parent : parents)
+            builder.parent(parent);
+        return builder.create();
+    }
+
+    /** Extracts `commitsCount` with `head` as HEAD, then again (from the cache).
+     *  @param message expected verbose log message of the first extraction; `null` if no commit is cached */
+    private void assertCount(RevCommit head, String requestedProperties, String message) throws Exception {
+        RefUpdate update = repo.updateRef(Constants.HEAD, true);
+        update.setNewObjectId(head);
+        update.forceUpdate();
+        String expected = String.valueOf(HistoryWalkTest.countCommits(repo, head));
+
+        List<String> log = new ArrayList<>();
+        assertEquals(head.name(), expected, extract(requestedProperties, log).get("commitsCount"));
+        if (message != null) assertTrue(log.toString(), log.stream().anyMatch(msg -> msg.contains(message)));
+        log.clear();
+        assertEquals(head.name(), expected, extract("describe,commitsCount", log).get("commitsCount"));
+        assertTrue(log.toString(), log.stream().anyMatch(msg -> msg.contains("using cached value")));
+    }
+
+    private Map<String, String> extract(String requestedProperties, List<String> log) throws Exception {
+        TestParameters params = new TestParameters(dir);
+        params.setRequestedProperties(requestedProperties);
+        params.setVerbose(true);
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, log::add)) {
+            return extractor.extract();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Exports a {@link CommitsCountManifest} from a complete history, loads it, and counts commits in a shallow clone (simulated by
+ *  `.git/shallow`, boundary commits without parents for history walks) after new commits and merges. */
+public class CommitsCountManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private File manifestFile;
+    private Repository repo;
+    private TestRepository<Repository> testRepo;
+    private int commits;
+    /** exported history */
+    private RevCommit root, a1, a2, b1, merge, tip;
+
+    @Before
+    public void createRepository() throws Exception {
+        dir = folder.newFolder();
+        manifestFile = new File(folder.newFolder(), "manifest/commits-count.txt");
+        repo = FileRepositoryBuilder.create(new File(dir, Constants.DOT_GIT));
+        repo.create();
+        testRepo = new TestRepository<>(repo);
+        root = commit(100);
+        a1 = commit(200, root);
+        a2 = commit(300, a1);
+        b1 = commit(250, root);
+        merge = commit(400, a2, b1);
+        tip = commit(500, merge);
+    }
+
+    @After
+    public void closeRepository() {
+        testRepo.close();
+    }
+
+    /** Counts of all exported commits, and path counts of the exported revisions. */
+    @Test
+    public void exportAndLoad() throws Exception {
+        CommitsCountManifest.export(repo, Arrays.asList("HEAD", a2.name()), Arrays.asList("lib", "missing"), manifestFile);
+        CommitsCountManifest manifest = CommitsCountManifest.load(manifestFile);
+        assertEquals(6, manifest.size());
+        for (RevCommit commit : Arrays.asList(root, a1, a2, b1, merge, tip))
+            assertEquals(commit.name(), HistoryWalkTest.countCommits(repo, commit), (int) manifest.get(commit, ""));
+        assertEquals(countCommits(tip, "lib"), (int) manifest.get(tip, CommitsCountCache.paramsKey(null, null, "lib")));
+        assertEquals(countCommits(a2, "lib"), (int) manifest.get(a2, CommitsCountCache.paramsKey(null, null, "lib")));
+        assertEquals(0, (int) manifest.get(tip, CommitsCountCache.paramsKey(null, null, "missing")));
+        assertNull(manifest.get(merge, CommitsCountCache.paramsKey(null, null, "lib")));
+        assertNull(manifest.get(commit(600, tip), ""));
+    }
+
+    /** New commits on top of an exported one, and a merge of a new branch forked from an exported commit (two boundary commits). */
+    @Test
+    public void countInShallowClone() throws Exception {
+        CommitsCountManifest.export(repo, Collections.singletonList("HEAD"), Collections.emptyList(), manifestFile);
+        RevCommit n1 = commit(600, tip);
+        RevCommit s1 = commit(550, a1);
+        RevCommit head = commit(800, commit(700, n1, s1));
+        int expected = HistoryWalkTest.countCommits(repo, head);
+
+        makeShallow(tip, a1);
+        CommitsCountManifest manifest = CommitsCountManifest.load(manifestFile);
+        AtomicLong commitsWalked = new AtomicLong();
+        assertEquals(expected, manifest.countAllCommits(repo, head, commitsWalked));
+        assertEquals(4, commitsWalked.get());
+        assertEquals(6, manifest.countAllCommits(repo, tip, commitsWalked));
+
+        makeShallow(n1); // boundary commit not exported
+        assertEquals(-1, manifest.countAllCommits(repo, head, commitsWalked));
+    }
+
+    /** `commitsCount` extracted with `commitsCountManifest`; falls back to the fetched commits if the manifest cannot be used. */
+    @Test
+    public void extractInShallowClone() throws Exception {
+        CommitsCountManifest.export(repo, Collections.singletonList("HEAD"), Collections.singletonList("lib"), manifestFile);
+        int expectedInPath = countCommits(tip, "lib");
+        RevCommit head = commit(700, commit(600, tip));
+        int expected = HistoryWalkTest.countCommits(repo, head);
+        makeShallow(merge);
+
+        List<String> log = new ArrayList<>();
+        setHead(head);
+        assertEquals(String.valueOf(expected), extract(null, log));
+        assertTrue(log.toString(), log.contains("commitsCount: using commitsCountManifest"));
+
+        setHead(tip);
+        assertEquals(String.valueOf(expectedInPath), extract("lib", log));
+        setHead(head); // not exported: counted in the shallow history
+        assertEquals(String.valueOf(countCommits(head, "lib")), extract("lib", log));
+
+        Files.write(manifestFile.toPath(), "invalid".getBytes(StandardCharsets.UTF_8));
+        log.clear();
+        assertEquals(String.valueOf(HistoryWalkTest.countCommits(repo, head)), extract(null, log));
+        assertTrue(log.toString(), log.stream().anyMatch(msg -> msg.startsWith("Cannot read commitsCountManifest")));
+    }
+
+    @Test
+    public void invalidManifest() throws Exception {
+        CommitsCountManifest.export(repo, Collections.singletonList("HEAD"), Collections.emptyList(), manifestFile);
+        List<String> lines = Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8);
+        List<List<String>> invalid = new ArrayList<>();
+        invalid.add(lines.subList(1, lines.size())); // no header
+        List<String> parentAfterChild = new ArrayList<>(lines);
+        Collections.swap(parentAfterChild, 1, 2);
+        invalid.add(parentAfterChild);
+        invalid.add(Arrays.asList(lines.get(0), "c " + root.name() + " x -"));
+        invalid.add(Arrays.asList(lines.get(0), "c " + root.name().substring(1) + " 1 -"));
+        for (List<String> content : invalid) {
+            Files.write(manifestFile.toPath(), content, StandardCharsets.UTF_8);
+            try {
+                CommitsCountManifest.load(manifestFile);
+                fail(content.toString());
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    private RevCommit commit(int time, RevCommit... parents) throws Exception {
+        TestRepository<Repository>.CommitBuilder builder = testRepo.commit().ident(new PersonIdent("A U Thor", "author@example.com", time * 1000L, 0));
+        for (RevCommit parent : parents)
+            builder.parent(parent); // tree of first parent
+        if (++commits % 2 == 0) builder.add("lib/file", String.valueOf(commits));
+        RevCommit res = builder.create();
+        setHead(res);
+        return res;
+    }
+
+    private void setHead(RevCommit commit) throws Exception {
+        RefUpdate update = repo.updateRef(Constants.HEAD, true);
+        update.setNewObjectId(commit);
+        update.forceUpdate();
+    }
+
+    /** Writes `.git/shallow` and reopens the repository. */
+    private void makeShallow(RevCommit... boundaryCommits) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (RevCommit commit : boundaryCommits)
+            lines.add(commit.name());
+        Files.write(new File(repo.getDirectory(), Constants.SHALLOW).toPath(), lines, StandardCharsets.US_ASCII);
+        testRepo.close();
+        repo = new FileRepositoryBuilder().setGitDir(repo.getDirectory()).setMustExist(true).build();
+        testRepo = new TestRepository<>(repo);
+    }
+
+    private String extract(String countCommitsInPath, List<String> log) throws Exception {
+        TestParameters params = new TestParameters(dir);
+        params.setRequestedProperties("commitsCount");
+        params.setCommitsCountManifest(manifestFile);
+        params.setCountCommitsInPath(countCommitsInPath);
+        params.setVerbose(true);
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, log::add)) {
+            return extractor.extract().get("commitsCount");
+        }
+    }
+
+    private int countCommits(RevCommit head, String path) throws Exception {
+        try (RevWalk walk = new RevWalk(repo)) {
+            walk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+            walk.markStart(walk.parseCommit(head));
+            int res = 0;
+            while (walk.next() != null)
+                res++;
+            return res;
+        }
+    }
+}
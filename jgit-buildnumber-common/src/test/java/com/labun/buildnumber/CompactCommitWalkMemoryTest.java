@@ -0,0 +1,132 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Heap bound of {@link CompactCommitWalk}: walks a history of {@link #COMMITS} commits in a child JVM with max. heap {@link #MAX_HEAP}, in which
+ *  a `RevWalk` (same order, `RevSort.TOPO`) runs out of memory. `countSince` with a commit not found is the worst case: all commits get sorted
+ *  and walked. For very large histories, see `WalkMemoryStress` in the benchmarks module. */
+public class CompactCommitWalkMemoryTest {
+
+    private static final int COMMITS = 200_000;
+    /** measured with serial GC: `CompactCommitWalk` needs 28 to 32 MB (depending on the Java version), `RevWalk` 44 MB */
+    private static final String MAX_HEAP = "-Xmx38m";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void walkWithinHeapBound() throws Exception {
+        File gitDir = new File(folder.getRoot(), Constants.DOT_GIT);
+        createHistory(gitDir);
+        assertEquals(String.valueOf(COMMITS), walkInChildJvm(gitDir, "compact"));
+        assertNotEquals("RevWalk within " + MAX_HEAP + ", the bound doesn't show a difference", String.valueOf(COMMITS),
+            walkInChildJvm(gitDir, "revwalk"));
+    }
+
+    /** @return last line of output of the child JVM: number of commits walked, or the end of a stack trace */
+    private static String walkInChildJvm(File gitDir, String walk) throws Exception {
+        // same GC on all machines (default depends on number of processors and memory)
+        List<String> command = Arrays.asList(new File(System.getProperty("java.home"), "bin/java").getPath(), MAX_HEAP, "-XX:+UseSerialGC",
+            "-cp", System.getProperty("java.class.path"), CompactCommitWalkMemoryTest.class.getName(), gitDir.getPath(), walk);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null;)
+                output.add(line);
+        }
+        process.waitFor();
+        return output.isEmpty() ? "" : output.get(output.size() - 1);
+    }
+
+    /** Runs in the child JVM. Arguments: Git directory, walk (`compact` or `revwalk`). Prints the number of commits walked. */
+    public static void main(String[] args) throws Exception {
+        WindowCacheConfig cacheConfig = new WindowCacheConfig();
+        cacheConfig.setPackedGitMMAP(true); // pack file windows outside of the heap
+        cacheConfig.install();
+        AtomicLong walked = new AtomicLong();
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(new File(args[0])).setMustExist(true).build()) {
+            ObjectId head = repo.resolve(Constants.HEAD);
+            if (args[1].equals("compact")) {
+                try (CompactCommitWalk walk = new CompactCommitWalk(repo, walked)) {
+                    walk.countSince(head, AbbreviatedObjectId.fromString("0000000"), true); // not found: all commits walked
+                }
+            } else {
+                try (RevWalk walk = new RevWalk(repo)) {
+                    walk.setRetainBody(false);
+                    walk.sort(RevSort.TOPO, true);
+                    walk.markStart(walk.parseCommit(head));
+                    for (RevCommit commit : walk)
+                        walked.incrementAndGet();
+                }
+            }
+        }
+        System.out.println(walked);
+    }
+
+    /** Commits with a tree each (whose blob doesn't exist, it is never read), every 10th one a merge of a side branch of one commit;
+     *  all objects in one pack. */
+    private static void createHistory(File gitDir) throws Exception {
+        try (Repository repo = FileRepositoryBuilder.create(gitDir)) {
+            repo.create();
+            ObjectId head = null;
+            try (PackInserter inserter = ((ObjectDirectory) repo.getObjectDatabase()).newPackInserter()) {
+                inserter.checkExisting(false); // new repository
+                inserter.setCompressionLevel(Deflater.BEST_SPEED);
+                for (int i = 0; i < COMMITS; i++) {
+                    ObjectId side = i % 10 == 8 ? insertCommit(inserter, i++, head) : null;
+                    head = side != null ? insertCommit(inserter, i, head, side) : insertCommit(inserter, i, head);
+                }
+                inserter.flush();
+            }
+            RefUpdate update = repo.updateRef(Constants.HEAD);
+            update.setNewObjectId(head);
+            update.forceUpdate();
+        }
+    }
+
+    private static ObjectId insertCommit(ObjectInserter inserter, int i, ObjectId... parents) throws Exception {
+        TreeFormatter tree = new TreeFormatter();
+        tree.append("file", FileMode.REGULAR_FILE, ObjectId.fromRaw(new int[] { i, 0, 0, 0, 0 }));
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(inserter.insert(tree));
+        for (ObjectId parent : parents)
+            if (parent != null) commit.addParentId(parent);
+        PersonIdent ident = new PersonIdent("A U Thor", "author@example.com", 1500000000000L + i * 60000L, 0);
+        commit.setAuthor(ident);
+        commit.setCommitter(ident);
+        commit.setMessage(String.valueOf(i));
+        return inserter.insert(commit);
+    }
+}
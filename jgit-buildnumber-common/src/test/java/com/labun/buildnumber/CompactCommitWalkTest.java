@@ -0,0 +1,152 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Compares {@link CompactCommitWalk} with a `RevWalk` (all commits; `RevSort.TOPO` for `countSince`, as for `countCommitsSince...`),
+ *  for histories whose commit time order is not the topological one: clock skew, equal commit times, merges. */
+public class CompactCommitWalkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Repository repo;
+    private TestRepository<Repository> testRepo;
+    private int commits;
+
+    @Before
+    public void createRepository() throws Exception {
+        repo = FileRepositoryBuilder.create(new File(folder.newFolder(), Constants.DOT_GIT));
+        repo.create();
+        testRepo = new TestRepository<>(repo);
+    }
+
+    @After
+    public void closeRepository() {
+        testRepo.close();
+    }
+
+    /** Commits older than their parents: a parent is walked after all its (older) children. */
+    @Test
+    public void clockSkew() throws Exception {
+        RevCommit root = commit(1000);
+        RevCommit old = commit(100, root);
+        RevCommit older = commit(50, old);
+        RevCommit side = commit(2000, root);
+        RevCommit sideOld = commit(60, side);
+        RevCommit merge = commit(1500, older, sideOld);
+        assertSameAsRevWalk(root, old, older, side, sideOld, merge, commit(10, merge));
+    }
+
+    /** All commits with the same commit time: walked in the order they are found. */
+    @Test
+    public void equalCommitTimes() throws Exception {
+        RevCommit root = commit(100);
+        RevCommit a1 = commit(100, root);
+        RevCommit a2 = commit(100, a1);
+        RevCommit b1 = commit(100, root);
+        RevCommit b2 = commit(100, b1);
+        RevCommit merge = commit(100, a2, b2);
+        assertSameAsRevWalk(root, a1, a2, b1, b2, merge, commit(100, merge));
+    }
+
+    /** Octopus merge, with one parent given twice and one parent an ancestor of another one. */
+    @Test
+    public void octopusMerge() throws Exception {
+        RevCommit root = commit(100);
+        RevCommit a = commit(200, root);
+        RevCommit b = commit(300, root);
+        RevCommit c = commit(400, a);
+        RevCommit octopus = commit(500, b, c, a, b);
+        assertSameAsRevWalk(root, a, b, c, octopus, commit(600, octopus));
+    }
+
+    /** Side branches merged in a different order than their commit times, and merged again (criss-cross merge). */
+    @Test
+    public void mergesNotInDateOrder() throws Exception {
+        RevCommit root = commit(100);
+        RevCommit late = commit(900, root);
+        RevCommit early = commit(200, root);
+        RevCommit main1 = commit(300, root);
+        RevCommit merge1 = commit(400, main1, late);
+        RevCommit merge2 = commit(500, early, main1);
+        RevCommit crissCross1 = commit(1000, merge1, merge2);
+        RevCommit crissCross2 = commit(600, merge2, merge1);
+        RevCommit head = commit(1100, crissCross2, crissCross1);
+        assertSameAsRevWalk(root, late, early, main1, merge1, merge2, crissCross1, crissCross2, head);
+    }
+
+    /** Commit not found: neither in the history, nor in the repository. */
+    @Test
+    public void countSinceNotFound() throws Exception {
+        RevCommit root = commit(100);
+        RevCommit head = commit(200, commit(150, root));
+        for (boolean inclusive : new boolean[] { true, false })
+            try (CompactCommitWalk walk = new CompactCommitWalk(repo, new AtomicLong())) {
+                assertEquals(-1, walk.countSince(head, AbbreviatedObjectId.fromString("0000000"), inclusive));
+            }
+    }
+
+    private RevCommit commit(int time, RevCommit... parents) throws Exception {
+        TestRepository<Repository>.CommitBuilder builder = testRepo.commit().noParents().add("file", String.valueOf(++commits)) // no equal commits
+            .ident(new PersonIdent("A U Thor", "author@example.com", time * 1000L, 0));
+        for (RevCommit parent : parents)
+            builder.parent(parent);
+        return builder.create();
+    }
+
+    /** Counts from each commit (as HEAD), and since each other commit (ancestor or not, full and abbreviated SHA-1, inclusive and exclusive). */
+    private void assertSameAsRevWalk(RevCommit... commits) throws Exception {
+        for (RevCommit head : commits) {
+            List<ObjectId> order = topoOrder(repo, head);
+            try (CompactCommitWalk walk = new CompactCommitWalk(repo, new AtomicLong())) {
+                assertEquals(head.name(), order.size(), walk.count(head));
+            }
+            for (RevCommit since : commits) {
+                int index = order.indexOf(since);
+                for (int length : new int[] { Constants.OBJECT_ID_STRING_LENGTH, 10 }) {
+                    String message = head.name() + " since " + since.name().substring(0, length);
+                    AbbreviatedObjectId id = AbbreviatedObjectId.fromString(since.name().substring(0, length));
+                    try (CompactCommitWalk walk = new CompactCommitWalk(repo, new AtomicLong())) {
+                        assertEquals(message, index < 0 ? -1 : index + 1, walk.countSince(head, id, true));
+                    }
+                    try (CompactCommitWalk walk = new CompactCommitWalk(repo, new AtomicLong())) {
+                        assertEquals(message, index, walk.countSince(head, id, false));
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return commits reachable from `head`, in the order of `RevSort.TOPO` */
+    private static List<ObjectId> topoOrder(Repository repo, RevCommit head) throws Exception {
+        try (RevWalk walk = new RevWalk(repo)) {
+            walk.sort(RevSort.TOPO, true);
+            walk.markStart(walk.parseCommit(head));
+            List<ObjectId> res = new ArrayList<>();
+            for (RevCommit commit : walk)
+                res.add(commit.copy());
+            return res;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+import org.eclipse.jgit.submodule.SubmoduleWalk.IgnoreSubmoduleMode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Compares {@link DirtyChecker} with JGit's `StatusCommand` (`isClean()`; without untracked files: `getUncommittedChanges()`), for changes
+ *  of tracked, untracked, and ignored files, and of submodules, with and without `dirtyIgnoreUntracked`, `dirtyCheckParallelism`,
+ *  and `dirtyCheckPath`. */
+public class DirtyCheckerTest {
+
+    private static final List<String> PATHS = Arrays.asList(null, "src", "src/main", "src/main/App.java", "docs", "README.md", "build", "missing");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    private interface Change {
+        void apply(Git git) throws Exception;
+    }
+
+    @Test
+    public void sameAsStatusCommand() throws Exception {
+        dir = folder.newFolder();
+        try (Git git = Git.init().setDirectory(dir).call()) {
+            write(".gitignore", "*.log\nbuild/\n");
+            write("README.md", "readme");
+            write("pom.xml", "<project/>");
+            write("src/main/App.java", "class App {}");
+            write("src/main/Util.java", "class Util {}");
+            write("src/test/AppTest.java", "class AppTest {}");
+            write("docs/index.md", "index");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("initial").call();
+
+            Map<String, Change> changes = new LinkedHashMap<>();
+            changes.put("none", g -> {});
+            changes.put("ignored files", g -> {
+                write("src/main/debug.log", "log");
+                write("build/classes/App.class", "class");
+            });
+            changes.put("untracked file", g -> write("src/main/New.java", "class New {}"));
+            changes.put("untracked folder", g -> write("newdir/a/b.txt", "b"));
+            changes.put("empty folder", g -> new File(dir, "src/empty/folder").mkdirs());
+            changes.put("modified file", g -> write("src/main/App.java", "class App { }"));
+            changes.put("modified file, same size", g -> write("src/main/App.java", "class Abc {}"));
+            changes.put("touched file", g -> new File(dir, "src/main/App.java").setLastModified(System.currentTimeMillis() + 10_000));
+            changes.put("executable file", g -> new File(dir, "pom.xml").setExecutable(true));
+            changes.put("staged change", g -> {
+                write("docs/index.md", "changed");
+                g.add().addFilepattern("docs/index.md").call();
+            });
+            changes.put("staged change, reverted in working tree", g -> {
+                write("docs/index.md", "changed");
+                g.add().addFilepattern("docs/index.md").call();
+                write("docs/index.md", "index");
+            });
+            changes.put("added file", g -> {
+                write("src/main/Added.java", "class Added {}");
+                g.add().addFilepattern("src/main/Added.java").call();
+            });
+            changes.put("deleted file", g -> new File(dir, "src/test/AppTest.java").delete());
+            changes.put("removed file", g -> g.rm().addFilepattern("src/main/Util.java").call());
+            changes.put("removed from index, kept as untracked", g -> g.rm().setCached(true).addFilepattern("README.md").call());
+            changes.put("file replaced by folder", g -> {
+                new File(dir, "docs/index.md").delete();
+                write("docs/index.md/index.md", "index");
+            });
+
+            ObjectId head = git.getRepository().resolve(Constants.HEAD);
+            for (Map.Entry<String, Change> change : changes.entrySet()) {
+                git.reset().setMode(ResetType.HARD).call();
+                git.clean().setCleanDirectories(true).setIgnore(false).call();
+                new File(dir, "pom.xml").setExecutable(false);
+                change.getValue().apply(git);
+                assertSameAsStatusCommand(git, head, change.getKey());
+            }
+        }
+    }
+
+    /** Changes in a submodule, with each value of its `ignore` parameter (compared with `setIgnoreSubmodules`, which is what Git does;
+     *  `StatusCommand` only takes `ignore = all` from `.gitmodules`). */
+    @Test
+    public void submodules() throws Exception {
+        File subOrigin = folder.newFolder();
+        try (Git sub = Git.init().setDirectory(subOrigin).call()) {
+            dir = subOrigin;
+            write("a.txt", "a");
+            sub.add().addFilepattern(".").call();
+            sub.commit().setMessage("initial").call();
+        }
+        dir = folder.newFolder();
+        try (Git git = Git.init().setDirectory(dir).call()) {
+            write("README.md", "readme");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("initial").call();
+            git.submoduleAdd().setPath("sub").setURI(subOrigin.toURI().toString()).call().close();
+            git.commit().setMessage("submodule").call();
+
+            Map<String, Change> changes = new LinkedHashMap<>();
+            changes.put("none", g -> {});
+            changes.put("untracked file in submodule", g -> write("sub/new.txt", "new"));
+            changes.put("modified file in submodule", g -> write("sub/a.txt", "b"));
+            changes.put("submodule HEAD moved", g -> {
+                write("sub/a.txt", "b");
+                try (Git sub = Git.wrap(SubmoduleWalk.getSubmoduleRepository(g.getRepository(), "sub"))) {
+                    sub.commit().setAll(true).setMessage("moved").call();
+                }
+            });
+            changes.put("submodule commit staged", g -> {
+                try (Git sub = Git.wrap(SubmoduleWalk.getSubmoduleRepository(g.getRepository(), "sub"))) {
+                    sub.commit().setAllowEmpty(true).setMessage("staged").call();
+                }
+                g.add().addFilepattern("sub").call();
+            });
+
+            for (IgnoreSubmoduleMode mode : IgnoreSubmoduleMode.values()) {
+                git.reset().setMode(ResetType.HARD).call();
+                write(".gitmodules", "[submodule \"sub\"]\n\tpath = sub\n\turl = " + subOrigin.toURI() + "\n\tignore = "
+                    + mode.name().toLowerCase(Locale.ROOT) + "\n");
+                git.add().addFilepattern(".gitmodules").call();
+                git.commit().setMessage(mode.name()).call();
+                ObjectId head = git.getRepository().resolve(Constants.HEAD);
+                ObjectId subHead = git.getRepository().resolve(Constants.HEAD + ":sub");
+                for (Map.Entry<String, Change> change : changes.entrySet()) {
+                    git.reset().setMode(ResetType.HARD).call();
+                    try (Git sub = Git.wrap(SubmoduleWalk.getSubmoduleRepository(git.getRepository(), "sub"))) {
+                        sub.reset().setMode(ResetType.HARD).setRef(subHead.name()).call();
+                        sub.clean().setCleanDirectories(true).call();
+                    }
+                    change.getValue().apply(git);
+                    assertSameAsStatusCommand(git, head, mode + ", " + change.getKey(), Arrays.asList(null, "sub"), mode);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void repositoryWithoutCommits() throws Exception {
+        dir = folder.newFolder();
+        try (Git git = Git.init().setDirectory(dir).call()) {
+            assertSameAsStatusCommand(git, null, "empty");
+            write("src/main/App.java", "class App {}");
+            assertSameAsStatusCommand(git, null, "untracked file");
+            git.add().addFilepattern(".").call();
+            assertSameAsStatusCommand(git, null, "added file");
+        }
+    }
+
+    private void assertSameAsStatusCommand(Git git, ObjectId head, String change) throws Exception {
+        assertSameAsStatusCommand(git, head, change, PATHS, null);
+    }
+
+    /** @param submoduleMode `ignore` parameter of all submodules; `null` for default */
+    private void assertSameAsStatusCommand(Git git, ObjectId head, String change, List<String> paths, IgnoreSubmoduleMode submoduleMode)
+        throws Exception {
+        for (String path : paths) {
+            StatusCommand command = git.status();
+            if (path != null) command.addPath(path);
+            if (submoduleMode != null) command.setIgnoreSubmodules(submoduleMode);
+            Status status = command.call();
+            for (boolean ignoreUntracked : Arrays.asList(false, true)) {
+                boolean expected = ignoreUntracked ? !status.getUncommittedChanges().isEmpty() : !status.isClean();
+                for (int parallelism : Arrays.asList(1, 3)) {
+                    DirtyChecker checker = new DirtyChecker(git.getRepository(), ignoreUntracked, parallelism, path, new AtomicLong());
+                    assertEquals(change + ", path " + path + ", ignoreUntracked " + ignoreUntracked + ", parallelism " + parallelism, expected,
+                        checker.isDirty(head));
+                }
+            }
+        }
+    }
+
+    private void write(String path, String content) throws Exception {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
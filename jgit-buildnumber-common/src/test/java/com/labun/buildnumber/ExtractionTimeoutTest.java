@@ -0,0 +1,121 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** `extractionTimeout`: values of the last build ({@link LastResult}) are used if the extraction takes longer, the current values are
+ *  extracted in the background for the next build. */
+public class ExtractionTimeoutTest {
+
+    /** enough for counting not to be done immediately after the start of the extraction (timeout 0) */
+    private static final int COMMITS = 5000;
+    private static final long BACKGROUND_TIMEOUT_MILLIS = 30_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private Repository repo;
+    private TestRepository<Repository> testRepo;
+    private RevCommit head;
+
+    @Before
+    public void createRepository() throws Exception {
+        dir = folder.newFolder();
+        repo = FileRepositoryBuilder.create(new File(dir, Constants.DOT_GIT));
+        repo.create();
+        testRepo = new TestRepository<>(repo);
+        head = testRepo.commit().create();
+        for (int i = 1; i < COMMITS; i++)
+            head = testRepo.commit().parent(head).create();
+        testRepo.update(Constants.HEAD, head);
+    }
+
+    @After
+    public void closeRepository() {
+        testRepo.close();
+    }
+
+    @Test
+    public void lastValueUsedUntilExtracted() throws Exception {
+        // first build: no last value, waits
+        List<String> log = new ArrayList<>();
+        assertEquals(String.valueOf(COMMITS), extract(0, log, false));
+        assertTrue(log.toString(), log.contains("commitsCount: not extracted within extractionTimeout (0 ms), no value of a previous build, waiting"));
+        assertLastValue(head, COMMITS);
+
+        // new commit: value of the last build, current one extracted in the background
+        RevCommit previous = head;
+        head = testRepo.commit().parent(head).create();
+        testRepo.update(Constants.HEAD, head);
+        log.clear();
+        assertEquals(String.valueOf(COMMITS), extract(0, log, true));
+        assertTrue(log.toString(), log.contains("commitsCount: not extracted within extractionTimeout (0 ms), using stale value of last build (commit "
+            + previous.abbreviate(7).name() + "), extraction continues in the background"));
+        for (long start = System.currentTimeMillis(); !head.name().equals(new LastResult(repo.getDirectory()).get("commitsCount").commit);) {
+            if (System.currentTimeMillis() - start > BACKGROUND_TIMEOUT_MILLIS) throw new AssertionError("not extracted in the background");
+            Thread.sleep(20);
+        }
+        assertLastValue(head, COMMITS + 1);
+
+        // in time: current value
+        log.clear();
+        assertEquals(String.valueOf(COMMITS + 1), extract(60_000, log, false));
+    }
+
+    @Test
+    public void lastResultFile() throws Exception {
+        LastResult lastResult = new LastResult(repo.getDirectory());
+        assertNull(lastResult.get("tag"));
+        String key = LastResult.key("commitsCount", CommitsCountCache.paramsKey(null, null, "src"));
+        assertEquals("commitsCount inPath=src,sinceInclusive=,sinceExclusive=", key);
+        lastResult.put(key, head, "12");
+        lastResult.put("tag", head, "v1 release");
+        LastResult.Value value = new LastResult(repo.getDirectory()).get("tag");
+        assertEquals(head.name(), value.commit);
+        assertEquals("v1 release", value.value);
+        assertEquals("12", lastResult.get(key).value);
+
+        File file = new File(new File(repo.getDirectory(), CommitsCountCache.DIRECTORY_NAME), "last-result.properties");
+        Files.write(file.toPath(), "tag=\\u12".getBytes(StandardCharsets.ISO_8859_1)); // invalid escape
+        assertNull(lastResult.get("tag"));
+        lastResult.put("tag", head, "v2");
+        assertEquals("v2", lastResult.get("tag").value);
+    }
+
+    private String extract(int extractionTimeout, List<String> log, boolean stale) throws Exception {
+        TestParameters params = new TestParameters(dir);
+        params.setRequestedProperties("revision,commitsCount");
+        params.setCacheCommitsCount(false);
+        params.setExtractionTimeout(extractionTimeout);
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, log::add)) {
+            String res = extractor.extract().get("commitsCount");
+            assertEquals(stale, extractor.hasStaleProperties());
+            return res;
+        }
+    }
+
+    private void assertLastValue(RevCommit commit, int count) {
+        LastResult.Value value = new LastResult(repo.getDirectory()).get("commitsCount");
+        assertEquals(commit.name(), value.commit);
+        assertEquals(String.valueOf(count), value.value);
+    }
+}
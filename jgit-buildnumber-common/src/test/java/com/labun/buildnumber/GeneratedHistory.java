@@ -0,0 +1,161 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import lombok.Getter;
+
+/** Generates a repository with a random history (reproducible with the same seed), for comparing history walks with JGit's:
+ *  <ul>
+ *  <li>branches and merges: merges of two or three branches (also of a branch already contained in the other one), with the tree
+ *  of the first parent, of the second parent, or with files of both
+ *  <li>commits with the same commit time as their parent, and with a commit time before their parent's (clock skew)
+ *  <li>files added, modified, deleted, and renamed (also whole folders)
+ *  <li>annotated tags (also several ones on a commit) and lightweight tags
+ *  </ul>
+ *  Only objects and refs are written (loose), HEAD is branch `master` (the last commit), the working tree is empty. */
+class GeneratedHistory implements AutoCloseable {
+
+    static final List<String> FILES = Collections.unmodifiableList(Arrays.asList("README.md", "pom.xml", "src/main/App.java", "src/main/Util.java",
+        "src/test/AppTest.java", "docs/index.md", "docs/old/guide.md", "lib/a/b/c.txt"));
+
+    private final @Getter Repository repository;
+    private final @Getter TestRepository<Repository> testRepository;
+    /** in order of creation: parents before their children */
+    private final @Getter List<RevCommit> commits = new ArrayList<>();
+
+    private final Random random;
+    /** files of each commit's tree */
+    private final Map<RevCommit, Set<String>> files = new HashMap<>();
+
+    /** @param directory working tree directory (the Git directory is created in `.git`) */
+    GeneratedHistory(File directory, long seed, int commitCount) throws Exception {
+        repository = FileRepositoryBuilder.create(new File(directory, Constants.DOT_GIT));
+        repository.create();
+        testRepository = new TestRepository<>(repository);
+        random = new Random(seed);
+
+        List<RevCommit> tips = new ArrayList<>();
+        RevCommit root = testRepository.commit().add("README.md", "readme").add("pom.xml", "pom").message("0").create();
+        files.put(root, new TreeSet<>(Arrays.asList("README.md", "pom.xml")));
+        commits.add(root);
+        tips.add(root);
+
+        for (int i = 1; i < commitCount; i++) {
+            int branch = random.nextInt(tips.size());
+            RevCommit first = tips.get(branch);
+            TestRepository<Repository>.CommitBuilder builder = testRepository.commit().parent(first).message(String.valueOf(i));
+            Set<String> tree = new TreeSet<>(files.get(first));
+
+            List<RevCommit> others = new ArrayList<>(tips);
+            others.removeIf(first::equals);
+            if (!others.isEmpty() && random.nextInt(4) == 0) {
+                Collections.shuffle(others, random);
+                others = others.subList(0, Math.min(others.size(), random.nextInt(5) == 0 ? 2 : 1));
+                for (RevCommit other : others)
+                    builder.parent(other);
+                RevCommit second = others.get(0);
+                switch (random.nextInt(3)) {
+                case 0: // "theirs"
+                    builder.setTopLevelTree(second.getTree());
+                    tree = new TreeSet<>(files.get(second));
+                    break;
+                case 1: // files of both
+                    for (String path : files.get(second))
+                        if (random.nextBoolean()) {
+                            builder.add(path, (RevBlob) testRepository.get(second.getTree(), path));
+                            tree.add(path);
+                        }
+                    break;
+                default: // "ours"
+                }
+                tips.removeAll(others);
+            } else {
+                change(builder, first, tree, i);
+            }
+
+            int tick = random.nextInt(10);
+            builder.tick(tick < 3 ? 0 : tick == 3 ? -100 : 1 + tick);
+            RevCommit commit = builder.create();
+            files.put(commit, tree);
+            commits.add(commit);
+            tips.set(tips.indexOf(first), commit);
+            if (random.nextInt(8) == 0) tips.add(commit); // new branch
+
+            tag(commit, i);
+        }
+
+        for (int i = 0; i < tips.size(); i++)
+            testRepository.update(Constants.R_HEADS + "branch-" + i, tips.get(i));
+        testRepository.update(Constants.R_HEADS + Constants.MASTER, commits.get(commits.size() - 1));
+    }
+
+    /** Adds, modifies, deletes, or renames a file, or renames a folder. */
+    private void change(TestRepository<Repository>.CommitBuilder builder, RevCommit parent, Set<String> tree, int i) throws Exception {
+        List<String> existing = new ArrayList<>(tree);
+        String path = existing.isEmpty() ? null : existing.get(random.nextInt(existing.size()));
+        switch (path == null ? 0 : random.nextInt(5)) {
+        case 0:
+        case 1:
+            path = FILES.get(random.nextInt(FILES.size()));
+            builder.add(path, "content " + i);
+            tree.add(path);
+            break;
+        case 2:
+            builder.rm(path);
+            tree.remove(path);
+            break;
+        case 3:
+            String target = FILES.get(random.nextInt(FILES.size()));
+            if (tree.contains(target)) break;
+            builder.rm(path).add(target, (RevBlob) testRepository.get(parent.getTree(), path));
+            tree.remove(path);
+            tree.add(target);
+            break;
+        default:
+            for (String file : existing) {
+                String renamed = file.startsWith("docs/") ? "documentation/" + file.substring(5)
+                    : file.startsWith("documentation/") ? "docs/" + file.substring(14) : null;
+                if (renamed == null || tree.contains(renamed)) continue;
+                builder.rm(file).add(renamed, (RevBlob) testRepository.get(parent.getTree(), file));
+                tree.remove(file);
+                tree.add(renamed);
+            }
+        }
+    }
+
+    private void tag(RevCommit commit, int i) throws Exception {
+        int kind = random.nextInt(10);
+        if (kind < 2) {
+            testRepository.tick(1); // tagger date
+            testRepository.update(Constants.R_TAGS + "v" + i, testRepository.tag("v" + i, commit));
+            if (kind == 0) {
+                testRepository.tick(1);
+                testRepository.update(Constants.R_TAGS + "release/" + i, testRepository.tag("release/" + i, commit));
+            }
+        } else if (kind == 2) {
+            testRepository.lightweightTag("light-" + i, commit);
+        }
+    }
+
+    @Override
+    public void close() {
+        testRepository.close();
+        repository.close();
+    }
+}
@@ -0,0 +1,149 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Compares {@link HistoryWalk} with JGit's `DescribeCommand` and a plain `RevWalk` (count of all commits), for histories whose traversal order
+ *  is not the topological one: clock skew, equal commit times, and commits behind the cut-off of the tag search. */
+public class HistoryWalkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Repository repo;
+    private TestRepository<Repository> testRepo;
+    private int commits;
+
+    @Before
+    public void createRepository() throws Exception {
+        repo = FileRepositoryBuilder.create(new File(folder.newFolder(), Constants.DOT_GIT));
+        repo.create();
+        testRepo = new TestRepository<>(repo);
+    }
+
+    @After
+    public void closeRepository() {
+        testRepo.close();
+    }
+
+    /** Commits older than their parents: the walk (by commit time) reaches a tagged commit before commits which are not reachable from it. */
+    @Test
+    public void clockSkew() throws Exception {
+        RevCommit root = commit(100);
+        RevCommit tagged = tag("v1", commit(300, root));
+        RevCommit old = commit(50, tagged);
+        RevCommit side = commit(400, root);
+        RevCommit sideTagged = tag("v2", commit(60, side));
+        RevCommit merge = commit(200, old, sideTagged);
+        assertSameAsDescribeCommandAndRevWalk(root, tagged, old, side, sideTagged, merge, commit(500, merge));
+    }
+
+    /** Commits with equal commit times are walked in the order they are found (merges and an octopus merge). */
+    @Test
+    public void equalCommitTimes() throws Exception {
+        RevCommit root = commit(100);
+        RevCommit a1 = tag("v1", commit(100, root));
+        RevCommit a2 = commit(100, a1);
+        RevCommit b1 = commit(100, root);
+        RevCommit b2 = tag("v2", commit(100, b1));
+        RevCommit b3 = commit(100, b2);
+        RevCommit merge = commit(100, a2, b3);
+        RevCommit c1 = commit(100, root);
+        RevCommit octopus = commit(100, merge, c1, a1);
+        assertSameAsDescribeCommandAndRevWalk(root, a1, a2, b1, b2, b3, merge, c1, octopus, commit(100, octopus));
+    }
+
+    /** The walk doesn't go beyond a commit reached by all candidate tags. An older branch, forked before the tagged commit, is merged:
+     *  the commits between fork point and tagged commit are not walked, counting has to start again. */
+    @Test
+    public void commitsBehindCutOff() throws Exception {
+        RevCommit root = commit(100);
+        RevCommit r1 = commit(200, root);
+        RevCommit tagged = tag("v1", commit(300, r1));
+        RevCommit h1 = commit(400, tagged);
+        RevCommit s1 = commit(150, root);
+        RevCommit s2 = commit(160, s1);
+        RevCommit merge = commit(500, h1, s2);
+        assertSameAsDescribeCommandAndRevWalk(root, r1, tagged, h1, s1, s2, merge, commit(600, merge));
+    }
+
+    /** Tags on parallel branches: the search stops at 10 candidates, the nearest tag (on the main line, after 7 merged branches)
+     *  is found after the tags of newer branches. */
+    @Test
+    public void manyCandidateTags() throws Exception {
+        RevCommit base = testRepo.commit().create();
+        for (int i = 0; i < 5; i++)
+            base = testRepo.commit().parent(base).create();
+        RevCommit head = base;
+        List<RevCommit> commits = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            RevCommit side = base;
+            for (int j = 0; j < 3; j++)
+                side = testRepo.commit().parent(side).tick(j == 0 ? i % 2 : 1).create();
+            tag("v" + i, side);
+            head = testRepo.commit().parent(head).parent(side).tick(i % 3 == 0 ? 0 : 1).create();
+            if (i == 6) tag("main", head);
+            commits.add(side);
+            commits.add(head);
+        }
+        assertSameAsDescribeCommandAndRevWalk(commits.toArray(new RevCommit[0]));
+    }
+
+    private RevCommit commit(int time, RevCommit... parents) throws Exception {
+        TestRepository<Repository>.CommitBuilder builder = testRepo.commit().noParents().add("file", String.valueOf(++commits)) // no equal commits
+            .ident(new PersonIdent("A U Thor", "author@example.com", time * 1000L, 0));
+        for (RevCommit parent : parents)
+            builder.parent(parent);
+        return builder.create();
+    }
+
+    /** Adds an annotated tag. */
+    private RevCommit tag(String name, RevCommit commit) throws Exception {
+        testRepo.update(Constants.R_TAGS + name, testRepo.tag(name, commit));
+        return commit;
+    }
+
+    /** Describes each commit (as HEAD) with and without counting. */
+    private void assertSameAsDescribeCommandAndRevWalk(RevCommit... commits) throws Exception {
+        TagIndex tagIndex = TagIndex.open(repo, repo.getDirectory(), new AtomicLong());
+        for (RevCommit commit : commits) {
+            String expected = Git.wrap(repo).describe().setTarget(commit).setLong(true).setAlways(true).call();
+            try (HistoryWalk walk = new HistoryWalk(repo, tagIndex, new AtomicLong())) {
+                assertEquals(commit.name(), expected, walk.describe(walk.parseCommit(commit), true));
+                assertEquals(commit.name(), countCommits(repo, commit), walk.getCommitsCount());
+            }
+            try (HistoryWalk walk = new HistoryWalk(repo, tagIndex, new AtomicLong())) {
+                assertEquals(commit.name(), expected, walk.describe(walk.parseCommit(commit), false));
+                assertEquals(-1, walk.getCommitsCount());
+            }
+        }
+    }
+
+    static int countCommits(Repository repo, RevCommit head) throws Exception {
+        try (RevWalk walk = new RevWalk(repo)) {
+            walk.markStart(walk.parseCommit(head));
+            int res = 0;
+            while (walk.next() != null)
+                res++;
+            return res;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Content of the files written by {@link OutputFiles}, and that they are only written if changed (apart from volatile properties). */
+public class OutputFilesTest {
+
+    private static final long PAST = System.currentTimeMillis() - 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestParameters params;
+    private File propertiesFile;
+    private File javaFile;
+
+    @Before
+    public void createParameters() throws Exception {
+        params = new TestParameters(folder.newFolder());
+        propertiesFile = new File(folder.getRoot(), "out/git.properties");
+        javaFile = new File(folder.getRoot(), "generated/com/example/BuildInfo.java");
+    }
+
+    @Test
+    public void propertiesFile() throws Exception {
+        params.setOutputPropertiesFile(propertiesFile);
+        assertEquals(Collections.singletonList(propertiesFile), write("1", "2024-01-01", "Jörg \"J\"\n"));
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(propertiesFile.toPath())) {
+            properties.load(in);
+        }
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("git.buildDate", "2024-01-01");
+        expected.put("git.commitsCount", "1");
+        expected.put("git.committer", "Jörg \"J\"\n");
+        expected.put("git_ui.branch", "main");
+        assertEquals(expected, properties);
+        assertEquals("git.buildDate=2024-01-01\ngit.commitsCount=1\ngit.committer=J\\u00F6rg \"J\"\\n\ngit_ui.branch=main\n",
+            new String(Files.readAllBytes(propertiesFile.toPath()), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void javaClass() throws Exception {
+        params.setOutputJavaClass("com.example.BuildInfo");
+        params.setOutputJavaDirectory(new File(folder.getRoot(), "generated"));
+        assertEquals(Collections.singletonList(javaFile), write("1", "2024-01-01", "Jörg \"J\"\n"));
+        assertEquals("// Generated by JGit Build Number. Do not edit.\n"
+            + "package com.example;\n"
+            + "\n"
+            + "/** Git metadata extracted by JGit Build Number. */\n"
+            + "public final class BuildInfo {\n"
+            + "\n"
+            + "    public static final String BUILD_DATE = \"2024-01-01\";\n"
+            + "    public static final String COMMITS_COUNT = \"1\";\n"
+            + "    public static final String COMMITTER = \"J\\u00f6rg \\\"J\\\"\\012\";\n"
+            + "\n"
+            + "    /** Namespace `git_ui`. */\n"
+            + "    public static final class git_ui {\n"
+            + "        public static final String BRANCH = \"main\";\n"
+            + "\n"
+            + "        private git_ui() {\n"
+            + "        }\n"
+            + "    }\n"
+            + "\n"
+            + "    private BuildInfo() {\n"
+            + "    }\n"
+            + "}\n", new String(Files.readAllBytes(javaFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void invalidJavaClass() throws Exception {
+        params.setOutputJavaClass("com.example.1BuildInfo");
+        params.setOutputJavaDirectory(folder.getRoot());
+        assertInvalid();
+        params.setOutputJavaClass("com.example.BuildInfo");
+        params.setOutputJavaDirectory(null);
+        assertInvalid();
+    }
+
+    /** Files are rewritten only if a property has changed; a change of a volatile property alone keeps the old file (and old value). */
+    @Test
+    public void writtenOnlyIfChanged() throws Exception {
+        params.setOutputPropertiesFile(propertiesFile);
+        params.setOutputJavaClass("com.example.BuildInfo");
+        params.setOutputJavaDirectory(new File(folder.getRoot(), "generated"));
+        params.setOutputVolatileProperties(" buildDate ,");
+        List<File> both = Arrays.asList(propertiesFile, javaFile);
+
+        assertEquals(both, write("1", "2024-01-01", "A"));
+        assertUnchanged(write("1", "2024-01-01", "A"));
+        assertUnchanged(write("1", "2024-01-02", "A"));
+        assertTrue(new String(Files.readAllBytes(propertiesFile.toPath()), StandardCharsets.ISO_8859_1).contains("git.buildDate=2024-01-01\n"));
+        assertEquals(both, write("2", "2024-01-02", "A"));
+        assertTrue(new String(Files.readAllBytes(propertiesFile.toPath()), StandardCharsets.ISO_8859_1).contains("git.buildDate=2024-01-02\n"));
+        assertUnchanged(write("2", "2024-01-03", "A"));
+        assertEquals(both, write("2", "2024-01-03", "B"));
+
+        params.setOutputVolatileProperties(null);
+        assertEquals(both, write("2", "2024-01-04", "B"));
+    }
+
+    /** @return files written */
+    private List<File> write(String commitsCount, String buildDate, String committer) throws Exception {
+        Map<String, String> main = new LinkedHashMap<>();
+        main.put("commitsCount", commitsCount);
+        main.put("buildDate", buildDate);
+        main.put("committer", committer);
+        Map<String, Map<String, String>> results = new LinkedHashMap<>();
+        results.put("git", main);
+        results.put("git_ui", Collections.singletonMap("branch", "main"));
+        List<File> res = new OutputFiles(params, msg -> {}).write(results);
+        for (File file : res)
+            assertTrue(file.setLastModified(PAST));
+        return res;
+    }
+
+    private void assertUnchanged(List<File> written) {
+        assertEquals(Collections.emptyList(), written);
+        for (File file : Arrays.asList(propertiesFile, javaFile))
+            if (file.exists()) assertEquals(file.getPath(), PAST / 1000, file.lastModified() / 1000);
+    }
+
+    private void assertInvalid() throws Exception {
+        try {
+            write("1", "2024-01-01", "A");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
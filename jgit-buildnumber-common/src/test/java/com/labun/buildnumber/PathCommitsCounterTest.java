@@ -0,0 +1,144 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Compares {@link PathCommitsCounter} with a `RevWalk` per path (tree filter `PathFilter` and `ANY_DIFF`, as for `countCommitsInPath`),
+ *  for each commit of histories with renamed and deleted folders, paths restored by merges, clock skew and equal commit times. */
+public class PathCommitsCounterTest {
+
+    private static final List<String> PATHS = Arrays.asList("README.md", "lib", "lib/x", "api", "api/x");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Repository repo;
+    private TestRepository<Repository> testRepo;
+
+    @Before
+    public void createRepository() throws Exception {
+        repo = FileRepositoryBuilder.create(new File(folder.newFolder(), Constants.DOT_GIT));
+        repo.create();
+        testRepo = new TestRepository<>(repo);
+    }
+
+    @After
+    public void closeRepository() {
+        testRepo.close();
+    }
+
+    /** Folder renamed, renamed back, and deleted. */
+    @Test
+    public void renamedAndDeletedFolder() throws Exception {
+        RevCommit root = commit(100).add("README.md", "readme").add("lib/x", "a").create();
+        RevCommit changed = commit(200, root).add("lib/x", "b").create();
+        RevCommit renamed = commit(300, changed).rm("lib/x").add("api/x", "b").create();
+        RevCommit renamedBack = commit(400, renamed).rm("api/x").add("lib/x", "b").create();
+        RevCommit deleted = commit(500, renamedBack).rm("lib/x").create();
+        assertSameAsRevWalk(root, changed, renamed, renamedBack, deleted, commit(600, deleted).add("README.md", "new").create());
+    }
+
+    /** Folder deleted on one branch, still changed on the other one, restored by the merge. */
+    @Test
+    public void pathRestoredByMerge() throws Exception {
+        RevCommit root = commit(100).add("README.md", "readme").add("lib/x", "a").create();
+        RevCommit deleted = commit(200, root).rm("lib/x").create();
+        RevCommit other = commit(250, deleted).add("README.md", "other").create();
+        RevCommit changed = commit(300, root).add("lib/x", "b").create();
+        RevCommit merge = commit(400, other, changed).add("lib/x", "b").create();
+        RevCommit mergeWithoutPath = commit(450, other, changed).rm("lib/x").create();
+        assertSameAsRevWalk(root, deleted, other, changed, merge, commit(500, merge).add("lib/x", "c").create(), mergeWithoutPath);
+    }
+
+    /** A merge parent without the path: `RevWalk` ignores the history of this parent (where the path has been added and deleted). */
+    @Test
+    public void mergeParentWithoutPath() throws Exception {
+        RevCommit root = commit(100).add("README.md", "readme").create();
+        RevCommit added = commit(200, root).add("lib/x", "a").create();
+        RevCommit deleted = commit(300, added).rm("lib/x").create();
+        RevCommit main = commit(400, root).add("lib/x", "b").create();
+        RevCommit merge = commit(500, main, deleted).add("lib/x", "c").create();
+        assertSameAsRevWalk(root, added, deleted, main, merge);
+        try (PathCommitsCounter counter = new PathCommitsCounter(repo, PATHS, new AtomicLong())) {
+            assertEquals(2, (int) counter.count(merge).get("lib"));
+        }
+    }
+
+    /** Commits older than their parents, on both sides of a merge. */
+    @Test
+    public void clockSkew() throws Exception {
+        RevCommit root = commit(1000).add("README.md", "readme").add("lib/x", "a").create();
+        RevCommit old = commit(100, root).add("lib/x", "b").create();
+        RevCommit older = commit(50, old).add("api/x", "a").create();
+        RevCommit side = commit(2000, root).add("lib/x", "c").create();
+        RevCommit sideOld = commit(60, side).add("README.md", "side").create();
+        RevCommit merge = commit(1500, older, sideOld).add("lib/x", "d").create();
+        assertSameAsRevWalk(root, old, older, side, sideOld, merge, commit(10, merge).rm("api/x").create());
+    }
+
+    /** All commits with the same commit time, with merges and an octopus merge. */
+    @Test
+    public void equalCommitTimes() throws Exception {
+        RevCommit root = commit(100).add("README.md", "readme").add("lib/x", "a").create();
+        RevCommit a1 = commit(100, root).add("lib/x", "b").create();
+        RevCommit a2 = commit(100, a1).add("api/x", "a").create();
+        RevCommit b1 = commit(100, root).add("lib/x", "c").create();
+        RevCommit b2 = commit(100, b1).rm("lib/x").create();
+        RevCommit merge = commit(100, a2, b2).add("lib/x", "d").create();
+        RevCommit c1 = commit(100, root).add("api/x", "b").create();
+        RevCommit octopus = commit(100, merge, c1, a1).create();
+        assertSameAsRevWalk(root, a1, a2, b1, b2, merge, c1, octopus, commit(100, octopus).rm("api/x").create());
+    }
+
+    private TestRepository<Repository>.CommitBuilder commit(int time, RevCommit... parents) throws Exception {
+        TestRepository<Repository>.CommitBuilder builder = testRepo.commit()
+            .ident(new PersonIdent("A U Thor", "author@example.com", time * 1000L, 0));
+        for (RevCommit parent : parents)
+            builder.parent(parent); // tree of first parent
+        return builder;
+    }
+
+    private void assertSameAsRevWalk(RevCommit... commits) throws Exception {
+        try (PathCommitsCounter counter = new PathCommitsCounter(repo, PATHS, new AtomicLong())) {
+            for (RevCommit commit : commits) {
+                Map<String, Integer> expected = new LinkedHashMap<>();
+                for (String path : PATHS)
+                    expected.put(path, countCommits(repo, commit, path));
+                assertEquals(commit.name(), expected, counter.count(commit));
+            }
+        }
+    }
+
+    private static int countCommits(Repository repo, RevCommit head, String path) throws Exception {
+        try (RevWalk walk = new RevWalk(repo)) {
+            walk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+            walk.markStart(walk.parseCommit(head));
+            int res = 0;
+            while (walk.next() != null)
+                res++;
+            return res;
+        }
+    }
+}
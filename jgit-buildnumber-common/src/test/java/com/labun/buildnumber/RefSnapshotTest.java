@@ -0,0 +1,151 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Compares {@link RefSnapshot} with JGit's `RefDatabase`: loose refs, packed refs (with and without peeled ids), loose refs overriding
+ *  packed ones, deleted refs, and HEAD (branch, detached, unborn branch). */
+public class RefSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameAsRefDatabase() throws Exception {
+        try (GeneratedHistory history = new GeneratedHistory(folder.newFolder(), 1, 100)) {
+            Repository repo = history.getRepository();
+            List<RevCommit> commits = history.getCommits();
+            assertSameAsRefDatabase(repo, "loose", false);
+
+            Git.wrap(repo).gc().call();
+            assertTrue(new File(repo.getDirectory(), Constants.PACKED_REFS).isFile());
+            assertSameAsRefDatabase(repo, "packed", true);
+
+            history.getTestRepository().update(Constants.R_HEADS + "branch-0", commits.get(10));
+            history.getTestRepository().update(Constants.R_TAGS + "new", history.getTestRepository().tag("new", commits.get(20)));
+            history.getTestRepository().lightweightTag("release/light", commits.get(30));
+            for (Ref tag : repo.getRefDatabase().getRefsByPrefix(Constants.R_TAGS + "light-"))
+                history.getTestRepository().delete(tag.getName());
+            // like Git, which keeps the packed ref (JGit removes it)
+            writeLooseRef(repo, Constants.R_HEADS + Constants.MASTER, commits.get(10));
+            writeLooseRef(repo, repo.getRefDatabase().getRefsByPrefix(Constants.R_TAGS + "v").get(0).getName(), commits.get(15));
+            assertSameAsRefDatabase(repo, "packed and loose", false);
+
+            // as written by old Git versions
+            File packedRefs = new File(repo.getDirectory(), Constants.PACKED_REFS);
+            List<String> lines = Files.readAllLines(packedRefs.toPath(), StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.startsWith("#") && !line.startsWith("^")).collect(Collectors.toList());
+            Files.write(packedRefs.toPath(), lines, StandardCharsets.UTF_8);
+            assertSameAsRefDatabase(repo, "packed without peeled ids", false);
+
+            RefUpdate update = repo.updateRef(Constants.HEAD, true);
+            update.setNewObjectId(commits.get(50));
+            update.forceUpdate();
+            assertSameAsRefDatabase(repo, "detached HEAD", false);
+
+            repo.updateRef(Constants.HEAD).link(Constants.R_HEADS + "unborn");
+            assertNull(RefSnapshot.parse(repo.getDirectory()).readHead(repo.getDirectory()));
+        }
+    }
+
+    /** A cached snapshot is used until refs change. */
+    @Test
+    public void changesInvalidateCachedSnapshot() throws Exception {
+        try (GeneratedHistory history = new GeneratedHistory(folder.newFolder(), 2, 20)) {
+            Repository repo = history.getRepository();
+            List<RevCommit> commits = history.getCommits();
+            File gitDir = repo.getDirectory();
+
+            List<Runnable> changes = new ArrayList<>();
+            changes.add(() -> update(history, Constants.R_HEADS + "branch-0", commits.get(3)));
+            changes.add(() -> update(history, Constants.R_TAGS + "release/new", commits.get(4)));
+            changes.add(() -> update(history, Constants.R_HEADS + "feature/new", commits.get(5)));
+            changes.add(() -> {
+                try {
+                    Git.wrap(repo).gc().call();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            changes.add(() -> update(history, Constants.R_HEADS + "feature/new", commits.get(6)));
+
+            for (Runnable change : changes) {
+                makeNotRacy(gitDir);
+                RefSnapshot cached = RefSnapshot.get(gitDir);
+                assertSame(cached, RefSnapshot.get(gitDir));
+                change.run();
+                RefSnapshot snapshot = RefSnapshot.get(gitDir);
+                assertNotSame(cached, snapshot);
+                assertSameAsRefDatabase(repo, "changed", false);
+            }
+        }
+    }
+
+    private static void writeLooseRef(Repository repo, String name, RevCommit commit) throws Exception {
+        Files.write(new File(repo.getDirectory(), name).toPath(), (commit.name() + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void update(GeneratedHistory history, String name, RevCommit commit) {
+        try {
+            history.getTestRepository().update(name, commit);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Sets modification times of the files refs are read from to the past (as if the last change happened a while ago). */
+    private static void makeNotRacy(File gitDir) throws Exception {
+        long time = System.currentTimeMillis() - 60_000;
+        new File(gitDir, Constants.PACKED_REFS).setLastModified(time);
+        for (String prefix : new String[] { Constants.R_HEADS, Constants.R_TAGS })
+            try (Stream<Path> files = Files.walk(new File(gitDir, prefix).toPath())) {
+                files.filter(Files::isDirectory).forEach(dir -> dir.toFile().setLastModified(time));
+            }
+    }
+
+    /** @param peeled `true` if peeled ids of all tags must be known (packed refs with trait `peeled`, as written by JGit) */
+    private static void assertSameAsRefDatabase(Repository repo, String state, boolean peeled) throws Exception {
+        RefSnapshot snapshot = RefSnapshot.parse(repo.getDirectory());
+        List<Ref> refs = new ArrayList<>(repo.getRefDatabase().getRefsByPrefix(Constants.R_HEADS));
+        refs.addAll(repo.getRefDatabase().getRefsByPrefix(Constants.R_TAGS));
+        assertEquals(state, refs.size(), snapshot.size());
+        for (Ref ref : refs) {
+            assertEquals(state + ", " + ref.getName(), ref.getObjectId(), snapshot.getObjectId(ref.getName()));
+            Ref peeledRef = repo.getRefDatabase().peel(ref);
+            ObjectId expected = peeledRef.getPeeledObjectId() != null ? peeledRef.getPeeledObjectId() : peeledRef.getObjectId();
+            ObjectId actual = snapshot.getPeeledObjectId(ref.getName());
+            if (peeled && ref.getName().startsWith(Constants.R_TAGS) || actual != null)
+                assertEquals(state + ", " + ref.getName() + " peeled", expected, actual);
+        }
+        assertNull(snapshot.getObjectId(Constants.R_TAGS + "missing"));
+        assertNull(snapshot.getObjectId(Constants.R_HEADS));
+
+        Ref head = repo.exactRef(Constants.HEAD);
+        RefSnapshot.Head snapshotHead = snapshot.readHead(repo.getDirectory());
+        assertEquals(state + ", HEAD", head.getObjectId(), snapshotHead.objectId);
+        assertEquals(state + ", HEAD", head.isSymbolic() ? Repository.shortenRefName(head.getTarget().getName()) : "", snapshotHead.branch);
+    }
+}
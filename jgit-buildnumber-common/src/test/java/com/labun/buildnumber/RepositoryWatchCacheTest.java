@@ -0,0 +1,174 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Invalidation of values cached by {@link RepositoryWatchCache}: by changes of refs and of the working tree, but not by irrelevant files. */
+public class RepositoryWatchCacheTest {
+
+    /** max. time for file system events to arrive */
+    private static final long TIMEOUT_MILLIS = 10_000;
+    /** time to wait for file system events which must not invalidate */
+    private static final long QUIET_MILLIS = 1_000;
+    private static final Map<String, String> RESULT = Collections.singletonMap("revision", "1234");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private Git git;
+    private RepositoryWatchCache cache;
+
+    @Before
+    public void createRepository() throws Exception {
+        dir = folder.newFolder();
+        git = Git.init().setDirectory(dir).call();
+        write(".gitignore", "target/\n");
+        write("src/App.java", "class App {}");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial").call();
+        cache = new RepositoryWatchCache();
+    }
+
+    @After
+    public void close() {
+        cache.close();
+        git.close();
+    }
+
+    @Test
+    public void refChangesInvalidate() throws Exception {
+        RepositoryWatchCache.Entry entry = cache.open(git.getRepository().getDirectory());
+        try {
+            entry.putResult("key", RESULT, entry.getGeneration());
+            write(".git/ORIG_HEAD", "irrelevant");
+            write(".git/jgit-buildnumber/commits.count", "irrelevant");
+            assertStillCached(entry);
+
+            git.commit().setMessage("second").call();
+            assertInvalidated(entry);
+
+            entry.putResult("key", RESULT, entry.getGeneration());
+            git.tag().setName("release/v1").call(); // new directory in refs/tags
+            assertInvalidated(entry);
+
+        } finally {
+            entry.repository.close();
+        }
+
+        entry = cache.open(git.getRepository().getDirectory()); // next extraction: new directory watched
+        try {
+            entry.putResult("key", RESULT, entry.getGeneration());
+            git.tag().setName("release/v2").call();
+            assertInvalidated(entry);
+        } finally {
+            entry.repository.close();
+        }
+    }
+
+    /** A value computed while the repository changed is not stored. */
+    @Test
+    public void staleValueNotStored() throws Exception {
+        RepositoryWatchCache.Entry entry = cache.open(git.getRepository().getDirectory());
+        try {
+            long generation = entry.getGeneration();
+            git.commit().setMessage("second").call();
+            for (long start = System.currentTimeMillis(); entry.getGeneration() == generation;) {
+                entry.getResult("key"); // processes events
+                if (System.currentTimeMillis() - start > TIMEOUT_MILLIS) throw new AssertionError("no event");
+                Thread.sleep(20);
+            }
+            entry.putResult("key", RESULT, generation);
+            entry.putDirty("key", true, generation);
+            assertNull(entry.getResult("key"));
+            assertNull(entry.getDirty("key"));
+        } finally {
+            entry.repository.close();
+        }
+    }
+
+    /** Changes of the working tree invalidate once it is watched; ignored directories are not watched. */
+    @Test
+    public void workTreeChangesInvalidate() throws Exception {
+        RepositoryWatchCache.Entry entry = cache.open(git.getRepository().getDirectory());
+        try {
+            write("target/classes/App.class", "class");
+            entry.watchWorkTree();
+            entry.putDirty("key", false, entry.getGeneration());
+            write("target/classes/App.class", "changed class");
+            assertStillCached(entry);
+
+            write("src/App.java", "class App { }");
+            assertInvalidated(entry);
+
+            entry.putDirty("key", false, entry.getGeneration());
+            write("src/main/Util.java", "class Util {}"); // new directory
+            assertInvalidated(entry);
+
+            entry.watchWorkTree();
+            entry.putDirty("key", false, entry.getGeneration());
+            write("src/main/Util.java", "class Util { }");
+            assertInvalidated(entry);
+        } finally {
+            entry.repository.close();
+        }
+    }
+
+    /** The same entry for the same Git directory; the least recently used one is evicted. */
+    @Test
+    public void leastRecentlyUsedEvicted() throws Exception {
+        File gitDir = git.getRepository().getDirectory();
+        RepositoryWatchCache.Entry entry = cache.open(gitDir);
+        entry.repository.close();
+        RepositoryWatchCache.Entry same = cache.open(new File(dir, "src/../" + Constants.DOT_GIT));
+        same.repository.close();
+        assertSame(entry, same);
+
+        for (int i = 0; i < RepositoryWatchCache.MAX_REPOSITORIES; i++) {
+            try (Git other = Git.init().setDirectory(folder.newFolder()).call()) {
+                cache.open(other.getRepository().getDirectory()).repository.close();
+            }
+        }
+        RepositoryWatchCache.Entry reopened = cache.open(gitDir);
+        reopened.repository.close();
+        assertNotSame(entry, reopened);
+    }
+
+    private void write(String path, String content) throws Exception {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isCached(RepositoryWatchCache.Entry entry) {
+        return entry.getResult("key") != null || entry.getDirty("key") != null;
+    }
+
+    private static void assertInvalidated(RepositoryWatchCache.Entry entry) throws Exception {
+        for (long start = System.currentTimeMillis(); isCached(entry);) {
+            if (System.currentTimeMillis() - start > TIMEOUT_MILLIS) throw new AssertionError("not invalidated");
+            Thread.sleep(20);
+        }
+    }
+
+    private static void assertStillCached(RepositoryWatchCache.Entry entry) throws Exception {
+        Thread.sleep(QUIET_MILLIS);
+        assertEquals(true, isCached(entry));
+    }
+}
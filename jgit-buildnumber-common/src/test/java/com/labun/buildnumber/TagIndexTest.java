@@ -0,0 +1,151 @@
+package com.labun.buildnumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Lookups in {@link TagIndex}, and when the stored index is used, rebuilt, or not stored (racy refs). */
+public class TagIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Repository repo;
+    private TestRepository<Repository> testRepo;
+    private File indexFile;
+    private RevCommit c1, c2, c3;
+    private int changes;
+
+    @Before
+    public void createRepository() throws Exception {
+        repo = FileRepositoryBuilder.create(new File(folder.newFolder(), Constants.DOT_GIT));
+        repo.create();
+        testRepo = new TestRepository<>(repo);
+        indexFile = new File(new File(repo.getDirectory(), CommitsCountCache.DIRECTORY_NAME), "tags.index");
+        c1 = testRepo.commit().create();
+        c2 = testRepo.commit().parent(c1).create();
+        c3 = testRepo.commit().parent(c2).create();
+        tag("v1", c1);
+        testRepo.tick(10);
+        tag("v1-rc", c1); // newer tagger date
+        testRepo.lightweightTag("light", c1);
+        tag("v2-b", c2);
+        tag("v2-a", c2); // same tagger date
+        testRepo.lightweightTag("release/light", c3);
+    }
+
+    @After
+    public void closeRepository() {
+        testRepo.close();
+    }
+
+    @Test
+    public void lookups() throws Exception {
+        TagIndex index = TagIndex.open(repo, repo.getDirectory(), new AtomicLong());
+        assertEquals(6, index.size());
+        assertEquals("light;v1;v1-rc", index.getTagNames(c1));
+        assertEquals("v1-rc", index.getDescribeTag(c1));
+        assertEquals("v2-a;v2-b", index.getTagNames(c2));
+        assertEquals("v2-a", index.getDescribeTag(c2));
+        assertEquals("release/light", index.getTagNames(c3));
+        assertNull(index.getDescribeTag(c3));
+        RevCommit untagged = testRepo.commit().parent(c3).create();
+        assertEquals("", index.getTagNames(untagged));
+        assertNull(index.getDescribeTag(untagged));
+    }
+
+    /** The stored index is used until a tag is added, moved or deleted, or refs are packed. */
+    @Test
+    public void storedUntilTagsChange() throws Exception {
+        AtomicLong refsPeeled = new AtomicLong();
+        assertOpen(true, refsPeeled, 6);
+        assertOpen(false, refsPeeled, 0);
+
+        tag("v3", c3);
+        assertEquals("v3", assertOpen(true, refsPeeled, 7).getDescribeTag(c3));
+        assertOpen(false, refsPeeled, 0);
+
+        testRepo.tick(10);
+        tag("v3", c2); // newer than the other tags of c2; same file size
+        TagIndex index = assertOpen(true, refsPeeled, 7);
+        assertEquals("v3", index.getDescribeTag(c2));
+        assertNull(index.getDescribeTag(c3));
+
+        testRepo.delete(Constants.R_TAGS + "v3");
+        assertEquals("v2-a;v2-b", assertOpen(true, refsPeeled, 6).getTagNames(c2));
+
+        Git.wrap(repo).gc().call();
+        assertTrue(new File(repo.getDirectory(), Constants.PACKED_REFS).isFile());
+        assertEquals("light;v1;v1-rc", assertOpen(true, refsPeeled, 6).getTagNames(c1));
+        assertOpen(false, refsPeeled, 0);
+    }
+
+    /** An index built from refs modified within the last seconds is used, but not stored: a change with same size and modification time
+     *  would go unnoticed. */
+    @Test
+    public void racyIndexNotStored() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            TagIndex index = TagIndex.open(repo, repo.getDirectory(), new AtomicLong());
+            assertTrue(index.rebuilt);
+            assertEquals("v1-rc", index.getDescribeTag(c1));
+            assertFalse(indexFile.exists());
+        }
+    }
+
+    /** A stored index which cannot be read (here: truncated, fingerprint still valid) is rebuilt and stored again. */
+    @Test
+    public void invalidIndexRebuilt() throws Exception {
+        AtomicLong refsPeeled = new AtomicLong();
+        assertOpen(true, refsPeeled, 6);
+        byte[] data = Files.readAllBytes(indexFile.toPath());
+        Files.write(indexFile.toPath(), Arrays.copyOf(data, data.length - 1));
+        assertEquals("v1-rc", TagIndex.open(repo, repo.getDirectory(), refsPeeled).getDescribeTag(c1));
+        assertEquals(12, refsPeeled.get());
+        assertOpen(false, refsPeeled, 0);
+    }
+
+    /** Adds an annotated tag (or moves it). */
+    private void tag(String name, RevCommit commit) throws Exception {
+        testRepo.update(Constants.R_TAGS + name, testRepo.tag(name, commit));
+    }
+
+    /** Opens the index. If refs have changed, sets modification times of the files tags are read from to the past before (each time
+     *  another one, as if changed a while ago).
+     *  @param rebuilt expected: `true` if refs have changed
+     *  @param peeled expected number of tags peeled for rebuilding */
+    private TagIndex assertOpen(boolean rebuilt, AtomicLong refsPeeled, int peeled) throws Exception {
+        if (rebuilt) {
+            long time = System.currentTimeMillis() - 600_000 + ++changes * 10_000;
+            new File(repo.getDirectory(), Constants.PACKED_REFS).setLastModified(time);
+            try (Stream<Path> files = Files.walk(new File(repo.getDirectory(), Constants.R_TAGS).toPath())) {
+                files.forEach(file -> file.toFile().setLastModified(time));
+            }
+        }
+        long before = refsPeeled.get();
+        TagIndex index = TagIndex.open(repo, repo.getDirectory(), refsPeeled);
+        assertEquals(rebuilt, index.rebuilt);
+        assertEquals(peeled, refsPeeled.get() - before);
+        assertTrue(indexFile.isFile());
+        return index;
+    }
+}
@@ -0,0 +1,50 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Properties of one namespace, read on first access from the properties file written by {@link JGitBuildNumberGradleTask}.
+ *  Registered as project extension before the task executes, so that the task itself doesn't need access to the project. */
+class ExtractedProperties extends AbstractMap<String, String> {
+
+    private final File file;
+    private final String namespace;
+    private final String taskPath;
+    private Map<String, String> properties;
+
+    ExtractedProperties(File file, String namespace, String taskPath) {
+        this.file = file;
+        this.namespace = namespace;
+        this.taskPath = taskPath;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return load().entrySet();
+    }
+
+    private synchronized Map<String, String> load() {
+        if (properties != null) return properties;
+        if (!file.isFile()) throw new IllegalStateException("Properties '" + namespace + "' are not extracted yet: task '" + taskPath + "' must be executed first");
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            props.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, String> res = new TreeMap<>();
+        String prefix = namespace + ".";
+        for (String name : props.stringPropertyNames())
+            if (name.startsWith(prefix)) res.put(name.substring(prefix.length()), props.getProperty(name));
+        return properties = res;
+    }
+}
@@ -0,0 +1,74 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/** Build service shared by the tasks of all projects of a build: extracts the properties once per repository and parameters, so that tasks
+ *  of subprojects with the same configuration, possibly running in parallel (`--parallel`), reuse the result of the first one instead of
+ *  repeating the extraction. Tasks with different configurations extract in parallel (no limit of parallel usages). The results live as long
+ *  as the build; repositories are opened per extraction (or kept open beyond the build with `watchRepository`, see {@link RepositoryWatchCache}). */
+public abstract class JGitBuildNumberBuildService implements BuildService<BuildServiceParameters.None> {
+
+    static final String NAME = "jgitBuildNumber";
+
+    private final ConcurrentMap<List<Object>, FutureTask<Result>> results = new ConcurrentHashMap<>();
+
+    /** Result of an extraction. */
+    static class Result {
+        /** extracted properties by namespace: the task's one, followed by those of additional repositories (see {@link BatchExtraction}) */
+        final Map<String, Map<String, String>> properties;
+        /** see {@link BuildNumberExtractor#hasStaleProperties()} */
+        final boolean stale;
+
+        Result(Map<String, Map<String, String>> properties, boolean stale) {
+            this.properties = properties;
+            this.stale = stale;
+        }
+    }
+
+    public Result extract(Parameters params, Logger logger) throws Exception {
+        File gitDir = BuildNumberExtractor.findGitDir(params.getRepositoryDirectory());
+        List<Object> key = new ArrayList<>(Arrays.asList(gitDir != null ? gitDir : params.getRepositoryDirectory().getCanonicalFile(),
+            params.getNamespace(), params.getDirtyValue(), params.getDirtyIgnoreUntracked(), params.getDirtyCheckPath(), params.getShortRevisionLength(),
+            params.getGitDateFormat(), params.getBuildDateFormat(), params.getDateFormatTimeZone(), params.getCountCommitsSinceInclusive(),
+            params.getCountCommitsSinceExclusive(), params.getCountCommitsInPath(), params.getCountCommitsInPaths(), params.getCommitsCountManifest(),
+            params.getBuildNumberFormat(), params.getUseJavaScriptEngine(), params.getRequestedProperties(),
+            BatchExtraction.getCanonicalRepositoryDirectories(params), params.getIncludeSubmodules(), params.getExtractionTimeout()));
+
+        FutureTask<Result> task = new FutureTask<>(() -> doExtract(params, logger));
+        FutureTask<Result> existing = results.putIfAbsent(key, task);
+        if (existing == null) {
+            task.run();
+        } else {
+            task = existing;
+            if (params.getVerbose()) logger.log("using result extracted for another project");
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    private Result doExtract(Parameters params, Logger logger) throws Exception {
+        Map<String, Map<String, String>> res = new LinkedHashMap<>();
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(params, logger)) {
+            BatchExtraction batch = new BatchExtraction(params, extractor, logger);
+            res.put(params.getNamespace(), extractor.extract());
+            res.putAll(batch.getResults());
+            return new Result(res, extractor.hasStaleProperties());
+        }
+    }
+}
@@ -1,48 +1,164 @@
 package com.labun.buildnumber;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 
 import lombok.Getter;
 import lombok.Setter;
 
-/** Extracts Git metadata and creates build number. Publishes them as project properties. */
+/** Extracts Git metadata and creates build number. Publishes them as project properties.
+ *  <p>
+ *  Inputs are the parameters and the Git files which determine the result ({@link #getGitStateFiles()}), output is the `propertiesFile`,
+ *  so that Gradle can skip the task as up-to-date or load its result from the build cache. The project extensions (one per namespace) are
+ *  registered at configuration time and read the properties file on first access; the task action doesn't access the project
+ *  (required by the configuration cache). The extraction is delegated to a build service shared by all projects
+ *  ({@link JGitBuildNumberBuildService}), so that tasks with the same repository and parameters extract only once per build. */
 @Getter
 @Setter
+@CacheableTask
 public class JGitBuildNumberGradleTask extends DefaultTask implements Parameters {
 
-    private String namespace;
-    private String dirtyValue;
-    private Integer shortRevisionLength;
-    private String gitDateFormat;
-    private String buildDateFormat;
-    private String dateFormatTimeZone;
-    private String countCommitsSinceInclusive;
-    private String countCommitsSinceExclusive;
-    private String countCommitsInPath;
-    private String buildNumberFormat;
-    private File repositoryDirectory;
-    private Boolean runOnlyAtExecutionRoot;
-    private Boolean skip;
-    private Boolean verbose;
+    private @Input @Optional String namespace;
+    private @Input @Optional String dirtyValue;
+    private @Input @Optional Boolean dirtyIgnoreUntracked;
+    private @Internal Integer dirtyCheckParallelism;
+    private @Input @Optional String dirtyCheckPath;
+    private @Input @Optional Integer shortRevisionLength;
+    private @Input @Optional String gitDateFormat;
+    private @Input @Optional String buildDateFormat;
+    private @Input @Optional String dateFormatTimeZone;
+    private @Input @Optional String countCommitsSinceInclusive;
+    private @Input @Optional String countCommitsSinceExclusive;
+    private @Input @Optional String countCommitsInPath;
+    private @Input @Optional String countCommitsInPaths;
+    private @Internal Boolean cacheCommitsCount;
+    private @InputFile @Optional @PathSensitive(PathSensitivity.NONE) File commitsCountManifest;
+    private @Input @Optional String buildNumberFormat;
+    private @Input @Optional Boolean useJavaScriptEngine;
+    private @Input @Optional String requestedProperties;
+    private @Internal File repositoryDirectory; // represented by getGitStateFiles()
+    private @Input @Optional String repositoryDirectories;
+    private @Input @Optional Boolean includeSubmodules;
+    private @Internal Boolean runOnlyAtExecutionRoot;
+    private @Internal Boolean parallel;
+    private @Internal Integer extractionTimeout;
+    private @Internal Boolean watchRepository;
+    private @Input @Optional Boolean skip;
+    private @Internal File metricsFile;
+    private @OutputFile @Optional File outputPropertiesFile;
+    private @Input @Optional String outputJavaClass;
+    private @OutputDirectory File outputJavaDirectory;
+    private @Input @Optional String outputVolatileProperties;
+    private @Internal Boolean verbose;
 
-    @TaskAction
-    public void extractBuildnumber() throws Exception {
+    /** All extracted properties, as `<namespace>.<property>`. Default: `build/jgit-buildnumber/<task name>.properties`. */
+    private @OutputFile File propertiesFile;
+
+    private @Internal Provider<JGitBuildNumberBuildService> buildService;
+
+    public JGitBuildNumberGradleTask() {
         // set some parameters to Gradle specific values
-        if (getRepositoryDirectory() == null) setRepositoryDirectory(getProject().getProjectDir());
+        Project project = getProject();
+        repositoryDirectory = project.getProjectDir();
+        propertiesFile = new File(project.getBuildDir(), "jgit-buildnumber/" + getName() + ".properties");
+        outputJavaDirectory = new File(project.getBuildDir(), "generated/sources/jgit-buildnumber");
+        buildService = project.getGradle().getSharedServices().registerIfAbsent(JGitBuildNumberBuildService.NAME, JGitBuildNumberBuildService.class,
+            spec -> {});
+        usesService(buildService);
+
+        getOutputs().upToDateWhen(new ResultReusable(false));
+        getOutputs().cacheIf(new ResultReusable(true));
+        project.getGradle().getTaskGraph().whenReady(graph -> registerExtensions(project)); // task is configured at this point
+    }
 
+    /** Git files which determine the result, see {@link BuildNumberExtractor#findGitStateFiles(File)}. */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public List<File> getGitStateFiles() throws IOException {
+        return BuildNumberExtractor.findGitStateFiles(repositoryDirectory);
+    }
+
+    private void registerExtensions(Project project) {
+        validateAndSetParameterValues();
+        Set<String> namespaces = new LinkedHashSet<>();
+        namespaces.add(namespace);
+        try {
+            namespaces.addAll(BatchExtraction.getNamespaces(this));
+        } catch (Exception e) {
+            getLogger().warn("Cannot determine namespaces of additional repositories: " + e.getMessage()); // task execution will fail, too
+        }
+        for (String ns : namespaces)
+            if (project.getExtensions().findByName(ns) == null) project.getExtensions().add(Map.class, ns, new ExtractedProperties(propertiesFile, ns, getPath()));
+    }
+
+    @TaskAction
+    public void extractBuildnumber() throws Exception {
         validateAndSetParameterValues();
 
         if (skip) {
+            Files.deleteIfExists(propertiesFile.toPath());
+            Files.deleteIfExists(getStaleMarker().toPath());
             getLogger().lifecycle("Execution is skipped by configuration.");
             return;
         }
 
-        Map<String, String> properties = new BuildNumberExtractor(this, msg -> getLogger().lifecycle(msg)).extract(); // "info" level will not be printed by default
-        
-        getProject().getExtensions().add(Map.class, namespace, properties);
+        Logger logger = msg -> getLogger().lifecycle(msg); // "info" level will not be printed by default
+        JGitBuildNumberBuildService.Result result = buildService.get().extract(this, logger);
+        Map<String, Map<String, String>> results = result.properties;
+
+        // written like the output files, so that an unchanged result keeps the file's modification time
+        OutputFiles outputFiles = new OutputFiles(this, logger);
+        outputFiles.writeIfChanged(propertiesFile, OutputFiles.toProperties(OutputFiles.flatten(results)), StandardCharsets.ISO_8859_1, Collections.emptyList());
+        outputFiles.write(results);
+        if (result.stale) Files.write(getStaleMarker().toPath(), new byte[0]);
+        else Files.deleteIfExists(getStaleMarker().toPath());
+    }
+
+    /** Exists if the last execution has published values of the last build (see `extractionTimeout`). */
+    private File getStaleMarker() {
+        return new File(propertiesFile.getPath() + ".stale");
+    }
+
+    /** The result can be reused unless it depends on the working tree (`dirty`) or on other repositories (their files aren't declared as inputs),
+     *  or contains values of the last build (`extractionTimeout`). The latter is only known after execution (see {@link #getStaleMarker()}),
+     *  whereas Gradle decides about caching before; therefore results extracted with `extractionTimeout` are not cached at all. */
+    private static class ResultReusable implements Spec<Task> {
+        private final boolean forCache;
+
+        ResultReusable(boolean forCache) {
+            this.forCache = forCache;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(Task task) {
+            JGitBuildNumberGradleTask t = (JGitBuildNumberGradleTask) task;
+            t.validateAndSetParameterValues();
+            if (BuildNumberExtractor.isDirtyRequired(t) || t.repositoryDirectories != null || t.includeSubmodules) return false;
+            return forCache ? t.extractionTimeout == null : !t.getStaleMarker().exists();
+        }
     }
 }
@@ -0,0 +1,62 @@
+package com.labun.buildnumber;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/** Exports a commits count manifest from a complete clone, for builds in shallow clones (see {@link Parameters#getCommitsCountManifest()}).
+ *  Runs once per build (aggregator), e.g. `mvn com.labun.buildnumber:jgit-buildnumber-maven-plugin:export-commits-count-manifest`. */
+@Getter
+@Setter
+@Mojo(name = "export-commits-count-manifest", aggregator = true, requiresProject = false, threadSafe = true)
+public class ExportCommitsCountManifestMojo extends AbstractMojo {
+
+    /** Directory to start searching Git root from. */
+    @Parameter(property = "jgit.repositoryDirectory", defaultValue = "${basedir}")
+    private File repositoryDirectory;
+
+    /** File to write the manifest to. */
+    @Parameter(property = "jgit.manifestFile", defaultValue = "${basedir}/commits-count.manifest")
+    private File manifestFile;
+
+    /** Comma separated list of revisions (branches, tags, SHA-1s) whose history gets exported. */
+    @Parameter(property = "jgit.manifestRevisions", defaultValue = "HEAD")
+    private String revisions;
+
+    /** Comma separated list of paths to export `countCommitsInPath(s)` counts for (at the exported revisions). */
+    @Parameter(property = "jgit.manifestPaths")
+    private String paths;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        try {
+            File gitDir = BuildNumberExtractor.findGitDir(repositoryDirectory);
+            if (gitDir == null) throw new IllegalArgumentException("Git directory '.git' not found (check parameter 'repositoryDirectory')");
+            long t = System.currentTimeMillis();
+            try (Repository repo = new RepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+                CommitsCountManifest.export(repo, split(revisions), split(paths), manifestFile);
+            }
+            getLog().info("Commits count manifest written to " + manifestFile + " (" + (System.currentTimeMillis() - t) + " ms)");
+        } catch (Exception e) {
+            throw new MojoExecutionException("Cannot export commits count manifest: " + e.getMessage(), e);
+        }
+    }
+
+    private static List<String> split(String list) {
+        List<String> res = new ArrayList<>();
+        if (list == null) return res;
+        for (String s : list.split(","))
+            if (!s.trim().isEmpty()) res.add(s.trim());
+        return res;
+    }
+}
@@ -1,15 +1,25 @@
 package com.labun.buildnumber;
 
+import static com.labun.buildnumber.BuildNumberExtractor.isPropertyName;
 import static com.labun.buildnumber.BuildNumberExtractor.propertyNames;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -36,6 +46,9 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
 
     private @Parameter String namespace;
     private @Parameter String dirtyValue;
+    private @Parameter Boolean dirtyIgnoreUntracked;
+    private @Parameter Integer dirtyCheckParallelism;
+    private @Parameter String dirtyCheckPath;
     private @Parameter Integer shortRevisionLength;
     private @Parameter String gitDateFormat;
     private @Parameter String buildDateFormat;
@@ -43,12 +56,31 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
     private @Parameter String countCommitsSinceInclusive;
     private @Parameter String countCommitsSinceExclusive;
     private @Parameter String countCommitsInPath;
+    private @Parameter String countCommitsInPaths;
+    private @Parameter Boolean cacheCommitsCount;
+    private @Parameter File commitsCountManifest;
     private @Parameter String buildNumberFormat;
+    private @Parameter Boolean useJavaScriptEngine;
+    private @Parameter String requestedProperties;
     private @Parameter File repositoryDirectory;
+    private @Parameter String repositoryDirectories;
+    private @Parameter Boolean includeSubmodules;
     private @Parameter Boolean runOnlyAtExecutionRoot;
+    private @Parameter Boolean parallel;
+    private @Parameter Integer extractionTimeout;
+    private @Parameter Boolean watchRepository;
     private @Parameter Boolean skip;
+    private @Parameter File metricsFile;
+    private @Parameter File outputPropertiesFile;
+    private @Parameter String outputJavaClass;
+    private @Parameter(defaultValue = "${project.build.directory}/generated-sources/jgit-buildnumber") File outputJavaDirectory;
+    private @Parameter String outputVolatileProperties;
     private @Parameter Boolean verbose;
 
+    /** Maven only: count commits in the directory of each reactor project (in addition to `countCommitsInPaths`), 
+     *  and publish the count of the project's own directory as `<namespace>.moduleCommitsCount` in each project. Default: `false`. */
+    private @Parameter Boolean countCommitsInModules;
+
     // ---------- parameters (read only) ----------
 
     @Parameter(property = "project.basedir", readonly = true, required = true)
@@ -65,8 +97,14 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
     @Parameter(property = "project.parent", readonly = true)
     private MavenProject parentProject;
 
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
     // ---------- implementation ----------
 
+    /** Results of running sessions, see {@link #getSessionResult()}. Sessions are weakly referenced (long-lived Maven processes). */
+    private static final Map<MavenSession, ConcurrentMap<List<Object>, FutureTask<Map<String, Map<String, String>>>>> sessionResults = new WeakHashMap<>();
+
     /** Extracts buildnumber fields from git repository and publishes them as maven properties.
      *  Executes only once per build. Return default (unknown) buildnumber fields on error. */
     @Override
@@ -77,6 +115,7 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
         if (getRepositoryDirectory() == null) setRepositoryDirectory(project.getBasedir()); // ${project.basedir}
 
         validateAndSetParameterValues();
+        if (countCommitsInModules == null) countCommitsInModules = false;
 
         if (skip) {
             getLog().info("Execution is skipped by configuration.");
@@ -91,32 +130,15 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
             // http://www.sonatype.com/people/2009/05/how-to-make-a-plugin-run-once-during-a-build/
             if (!runOnlyAtExecutionRoot || executionRootDirectory.equals(baseDirectory)) {
 
-                BuildNumberExtractor extractor = new BuildNumberExtractor(this, msg -> getLog().info(msg));
-
-                String headSha1 = extractor.getHeadSha1();
-                String dirty = extractor.isGitStatusDirty() ? dirtyValue : null;
-
-                List<Object> params = Arrays.asList(headSha1, dirty, shortRevisionLength, gitDateFormat, buildDateFormat, dateFormatTimeZone,
-                    countCommitsSinceInclusive, countCommitsSinceExclusive, countCommitsInPath, buildNumberFormat);
-                String paramsKey = "jgitParams" + namespace;
-                String resultKey = "jgitResult" + namespace;
-
-                // note: saving/loading custom classes doesn't work (due to different classloaders?, "cannot be cast" error);
-                // when saving Properties object, our values don't survive; therefore we use a Map here
-                Map<String, String> result = getCachedResultFromBuildConext(paramsKey, params, resultKey);
-                if (result != null) {
-                    if (verbose) getLog().info("using cached result: " + result);
-                } else {
-                    result = extractor.extract();
-                    saveResultToBuildContext(paramsKey, params, resultKey, result);
-                }
-                setProperties(result, project.getProperties());
+                Map<String, Map<String, String>> results = getSessionResult();
+                setProperties(results.get(namespace), project.getProperties());
+                setBatchProperties(results);
+                writeOutputFiles(results);
 
             } else if ("pom".equals(parentProject.getPackaging())) {
                 // build started from parent, we are in subproject, lets provide parent properties to our project
                 Properties parentProps = parentProject.getProperties();
-                String revision = parentProps.getProperty(namespace + "." + "revision");
-                if (revision == null) {
+                if (toMap(parentProps).isEmpty()) {
                     // we are in subproject, but parent project wasn't build this time,
                     // maybe build is running from parent with custom module list - 'pl' argument
                     getLog().warn("Cannot extract Git info, maybe custom build with 'pl' argument is running");
@@ -125,6 +147,7 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
                 }
                 if (verbose) getLog().info("using already extracted properties from parent module: " + toMap(parentProps));
                 setProperties(parentProps, project.getProperties());
+                writeOutputFiles(getPublishedResults());
 
             } else {
                 // should not happen
@@ -143,6 +166,133 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
         }
     }
 
+    /** Extracts properties once per session, repository, and parameters: executions in other modules (`runOnlyAtExecutionRoot=false`),
+     *  possibly running in parallel threads (`mvn -T`), wait for the result of the first one instead of repeating the extraction. */
+    private Map<String, Map<String, String>> getSessionResult() throws Exception {
+        File gitDir = BuildNumberExtractor.findGitDir(repositoryDirectory);
+        List<Object> key = new ArrayList<>(Arrays.asList(gitDir != null ? gitDir : repositoryDirectory.getCanonicalFile(), namespace, dirtyValue,
+            dirtyIgnoreUntracked, dirtyCheckPath, countCommitsInModules, BatchExtraction.getCanonicalRepositoryDirectories(this), includeSubmodules,
+            extractionTimeout));
+        key.addAll(getParams(null, null));
+
+        ConcurrentMap<List<Object>, FutureTask<Map<String, Map<String, String>>>> results;
+        synchronized (sessionResults) {
+            results = sessionResults.computeIfAbsent(session, s -> new ConcurrentHashMap<>());
+        }
+        FutureTask<Map<String, Map<String, String>>> task = new FutureTask<>(this::extract);
+        FutureTask<Map<String, Map<String, String>>> existing = results.putIfAbsent(key, task);
+        if (existing == null) {
+            task.run();
+        } else {
+            task = existing;
+            if (verbose) getLog().info("using result extracted in another module");
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /** @return namespace - extracted properties; main namespace first, followed by additional repositories */
+    private Map<String, Map<String, String>> extract() throws Exception {
+        try (BuildNumberExtractor extractor = new BuildNumberExtractor(this, msg -> getLog().info(msg))) {
+            Map<MavenProject, String> modulePaths = countCommitsInModules ? addModulePaths(extractor) : null;
+            BatchExtraction batch = new BatchExtraction(this, extractor, msg -> getLog().info(msg));
+
+            String headSha1 = extractor.getHeadSha1();
+            String dirty = extractor.isRequired("dirty") && extractor.isGitStatusDirty() ? dirtyValue : null;
+
+            List<Object> params = getParams(headSha1, dirty);
+            String paramsKey = "jgitParams" + namespace;
+            String resultKey = "jgitResult" + namespace;
+
+            // note: saving/loading custom classes doesn't work (due to different classloaders?, "cannot be cast" error);
+            // when saving Properties object, our values don't survive; therefore we use a Map here
+            Map<String, String> result = getCachedResultFromBuildConext(paramsKey, params, resultKey);
+            if (result != null) {
+                if (verbose) getLog().info("using cached result: " + result);
+            } else {
+                result = extractor.extract();
+                // values of the last build (`extractionTimeout`) are only used once, the next build should get the current values
+                if (!extractor.hasStaleProperties()) saveResultToBuildContext(paramsKey, params, resultKey, result);
+            }
+            if (modulePaths != null) setModuleCommitsCounts(modulePaths, result);
+
+            Map<String, Map<String, String>> res = new LinkedHashMap<>();
+            res.put(namespace, result);
+            res.putAll(batch.getResults());
+            return res;
+        }
+    }
+
+    private List<Object> getParams(String headSha1, String dirty) {
+        return Arrays.asList(headSha1, dirty, shortRevisionLength, gitDateFormat, buildDateFormat, dateFormatTimeZone,
+            countCommitsSinceInclusive, countCommitsSinceExclusive, countCommitsInPath, countCommitsInPaths, commitsCountManifest, buildNumberFormat,
+            useJavaScriptEngine, requestedProperties);
+    }
+
+    /** Adds the directories of all reactor projects to `countCommitsInPaths`. Reactor projects outside of the Git working tree are skipped
+     *  (no `moduleCommitsCount`).
+     *  @return reactor project - its path in Git working tree (empty for the working tree itself) */
+    private Map<MavenProject, String> addModulePaths(BuildNumberExtractor extractor) throws IOException {
+        Map<MavenProject, String> res = new LinkedHashMap<>();
+        List<String> paths = new ArrayList<>();
+        if (countCommitsInPaths != null && !countCommitsInPaths.trim().isEmpty()) paths.add(countCommitsInPaths);
+        for (MavenProject reactorProject : session.getProjects()) {
+            String path;
+            try {
+                path = extractor.toRepositoryPath(reactorProject.getBasedir().getAbsolutePath());
+            } catch (IllegalArgumentException e) {
+                if (verbose) getLog().info("moduleCommitsCount: skipping " + reactorProject.getId() + ": " + e.getMessage());
+                continue;
+            }
+            res.put(reactorProject, path);
+            if (!path.isEmpty()) paths.add(path);
+        }
+        setCountCommitsInPaths(String.join(",", paths));
+        return res;
+    }
+
+    /** Publishes `moduleCommitsCount` in each reactor project. Reactor projects at the root of the working tree get `commitsCount`. */
+    private void setModuleCommitsCounts(Map<MavenProject, String> modulePaths, Map<String, String> result) {
+        for (Map.Entry<MavenProject, String> e : modulePaths.entrySet()) {
+            String path = e.getValue();
+            String count = result.get(path.isEmpty() ? "commitsCount" : BuildNumberExtractor.COMMITS_COUNT_IN_PATH_PREFIX + path);
+            if (count != null) e.getKey().getProperties().setProperty(namespace + ".moduleCommitsCount", count);
+        }
+    }
+
+    /** Publishes properties of additional repositories (all namespaces except the main one). With `runOnlyAtExecutionRoot`, subprojects don't extract themselves
+     *  and get the properties from the execution root here, since only the main namespace is copied from the parent project. */
+    private void setBatchProperties(Map<String, Map<String, String>> results) {
+        List<MavenProject> targets = runOnlyAtExecutionRoot ? session.getProjects() : Arrays.asList(project);
+        for (Map.Entry<String, Map<String, String>> result : results.entrySet()) {
+            if (result.getKey().equals(namespace)) continue; // main repository
+            for (MavenProject target : targets)
+                for (Map.Entry<String, String> e : result.getValue().entrySet())
+                    target.getProperties().setProperty(result.getKey() + "." + e.getKey(), e.getValue());
+        }
+    }
+
+    /** Writes `outputPropertiesFile`, `outputJavaClass` of this project, and adds `outputJavaDirectory` as compile source root. */
+    private void writeOutputFiles(Map<String, Map<String, String>> results) throws IOException {
+        for (File file : new OutputFiles(this, msg -> getLog().info(msg)).write(results))
+            if (buildContext != null) buildContext.refresh(file); // m2e
+        if (outputJavaClass != null) project.addCompileSourceRoot(outputJavaDirectory.getPath());
+    }
+
+    /** @return properties of all namespaces, as published in this project (from the execution root) */
+    private Map<String, Map<String, String>> getPublishedResults() throws IOException {
+        Map<String, Map<String, String>> res = new LinkedHashMap<>();
+        res.put(namespace, toMap(project.getProperties()));
+        if (repositoryDirectories != null || includeSubmodules)
+            for (String ns : BatchExtraction.getNamespaces(this))
+                res.put(ns, toMap(project.getProperties(), ns));
+        return res;
+    }
+
     // m2e build? => save extracted values to BuildContext
     private void saveResultToBuildContext(String paramsKey, List<Object> currentParams, String resultKey, Map<String, String> result) {
         if (buildContext != null) {
@@ -169,9 +319,16 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
     }
 
     private Map<String, String> toMap(Properties props) {
+        return toMap(props, namespace);
+    }
+
+    private static Map<String, String> toMap(Properties props, String namespace) {
         Map<String, String> map = new TreeMap<>();
-        for (String propertyName : propertyNames)
-            map.put(propertyName, props.getProperty(namespace + "." + propertyName));
+        for (String prefixedName : props.stringPropertyNames()) {
+            if (!prefixedName.startsWith(namespace + ".")) continue;
+            String propertyName = prefixedName.substring(namespace.length() + 1);
+            if (isPropertyName(propertyName)) map.put(propertyName, props.getProperty(prefixedName)); // not requested properties are not published
+        }
 
         return map;
     }
@@ -182,10 +339,7 @@ public class JGitBuildNumberMojo extends AbstractMojo implements Parameters {
     }
 
     private void setProperties(Properties source, Properties target) {
-        for (String propertyName : propertyNames) {
-            String prefixedName = namespace + "." + propertyName;
-            target.setProperty(prefixedName, source.getProperty(prefixedName));
-        }
+        setProperties(toMap(source), target);
     }
 
     private void fillPropsUnknown() {